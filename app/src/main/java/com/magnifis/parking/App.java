@@ -47,7 +47,9 @@ import android.view.View;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.magnifis.parking.billing.Billing;
 import com.magnifis.parking.messaging.Message;
+import com.magnifis.parking.db.RobinDB;
 import com.magnifis.parking.model.DoublePoint;
+import com.magnifis.parking.phonebook.CalleeAssocIndex;
 import com.magnifis.parking.model.Understanding;
 import com.magnifis.parking.pref.PrefConsts;
 import com.magnifis.parking.pref.PrefDefaults;
@@ -244,6 +246,24 @@ public class App extends Application {
 		Log.d(TAG, "onConfigurationChanged");
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		// the app is going to background and may be killed there
+		if (level>=TRIM_MEMORY_UI_HIDDEN) Utils.runInBgThread(new Runnable() {
+			@Override
+			public void run() {
+				RobinDB.flushPending();
+			}
+		});
+	}
+
+	@Override
+	public void onTerminate() {
+		RobinDB.flushPending();
+		super.onTerminate();
+	}
+
 	public Message getLastMessageRead() {
 		return lastMessageRead;
 	}
@@ -676,6 +696,15 @@ public class App extends Application {
 
         Utils.updateUserDictionary();
 
+        // opens the database and loads what it keeps in memory aside of the main thread
+        Utils.runInBgThread(new Runnable() {
+			@Override
+			public void run() {
+				RobinDB rdb=RobinDB.getInstance(App.this);
+				if (rdb!=null) CalleeAssocIndex.get(rdb);
+			}
+        });
+
         UserLocationProvider.start();
 
         // set myTTS voice
@@ -0,0 +1,348 @@
+package com.magnifis.parking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+import com.magnifis.parking.Launchers.AppCacheEntry;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+
+/**
+ * The launcher activities with their normalized labels, which Launchers matches the
+ * commands against.
+ *
+ * The index is kept in a file. It is read at once and then checked against the package
+ * manager in the background: only the activities of the packages which have been updated
+ * since (or all of them if the locale has changed) get their labels loaded again. While it
+ * is open, the package broadcasts update the entries of their package only.
+ */
+public class AppIndex {
+	final static String TAG=AppIndex.class.getSimpleName();
+
+	private final static String FILE_NAME="app_index.bin";
+	private final static int VERSION=1;
+
+	private static AppIndex instance=null;
+
+	private static ScheduledThreadPoolExecutor worker=null;
+
+	private static synchronized ScheduledThreadPoolExecutor getWorker() {
+		if (worker==null) worker=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, TAG);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		return worker;
+	}
+
+	/**
+	 * the open index, it is opened on the first call
+	 */
+	public static synchronized AppIndex get() {
+		if (instance==null) {
+			instance=new AppIndex();
+			instance.open();
+		}
+		return instance;
+	}
+
+	/**
+	 * closes the index, the next get() reads the file again
+	 */
+	public static synchronized void release() {
+		if (instance!=null) {
+			instance.close();
+			instance=null;
+		}
+	}
+
+	// the entries by package/activity, the package update times, touched by the worker only
+	private final LinkedHashMap<String,AppCacheEntry> entries=new LinkedHashMap<String,AppCacheEntry>();
+	private final HashMap<String,Long> updated=new HashMap<String,Long>();
+	private String locale=null;
+
+	// what the readers get, replaced as a whole
+	private volatile AppCacheEntry snapshot[]=null;
+	private volatile Map<String,AppCacheEntry> byPackage=new HashMap<String,AppCacheEntry>();
+	private final CountDownLatch ready=new CountDownLatch(1);
+
+	private BroadcastReceiver receiver=null;
+
+	private AppIndex() {}
+
+	/**
+	 * the entries, waits for the first build if there has been no file
+	 */
+	public AppCacheEntry [] getEntries() {
+		for (;;) try {
+			ready.await();
+			return snapshot;
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * the first launcher activity of the package, null if there is none
+	 */
+	public AppCacheEntry getByPackage(String pkName) {
+		getEntries();
+		return byPackage.get(pkName);
+	}
+
+	private static String key(String pkName, String actName) {
+		return pkName+'/'+actName;
+	}
+
+	private void open() {
+		IntentFilter f=new IntentFilter();
+		f.addAction(Intent.ACTION_PACKAGE_ADDED);
+		f.addAction(Intent.ACTION_PACKAGE_REMOVED);
+		f.addAction(Intent.ACTION_PACKAGE_REPLACED);
+		f.addAction(Intent.ACTION_PACKAGE_CHANGED);
+		f.addDataScheme("package");
+		receiver=new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent it) {
+				Uri u=it.getData();
+				final String pkName=u==null?null:u.getSchemeSpecificPart();
+				if (pkName==null) return;
+				// a replaced package is added again at once
+				if (Intent.ACTION_PACKAGE_REMOVED.equals(it.getAction())&&it.getBooleanExtra(Intent.EXTRA_REPLACING, false))
+					return;
+				getWorker().execute(new Runnable() {
+					@Override
+					public void run() {
+						update(pkName);
+					}
+				});
+			}
+		};
+		try {
+			App.self.registerReceiver(receiver, f);
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+			receiver=null;
+		}
+
+		getWorker().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (read()) publish();
+				refresh();
+			}
+		});
+	}
+
+	private void close() {
+		if (receiver!=null) try {
+			App.self.unregisterReceiver(receiver);
+		} catch (Throwable t) {}
+		receiver=null;
+	}
+
+	private void publish() {
+		AppCacheEntry ens[]=entries.values().toArray(new AppCacheEntry[entries.size()]);
+		HashMap<String,AppCacheEntry> bp=new HashMap<String,AppCacheEntry>();
+		for (AppCacheEntry e:ens) if (!bp.containsKey(e.pkName)) bp.put(e.pkName, e);
+		byPackage=bp;
+		snapshot=ens;
+		ready.countDown();
+	}
+
+	private static Intent launcherIntent() {
+		Intent it=new Intent(Intent.ACTION_MAIN);
+		it.addCategory(Intent.CATEGORY_LAUNCHER);
+		return it;
+	}
+
+	private static long lastUpdateTime(PackageManager pm, String pkName) {
+		try {
+			return pm.getPackageInfo(pkName, 0).lastUpdateTime;
+		} catch (Throwable t) {
+			return 0;
+		}
+	}
+
+	private static AppCacheEntry newEntry(PackageManager pm, ResolveInfo r) {
+		String lbl=r.activityInfo.packageName;
+		try {
+			lbl=r.loadLabel(pm).toString();
+		} catch(Throwable t) {
+			t.printStackTrace();
+		}
+		return new AppCacheEntry(r.activityInfo.packageName, r.activityInfo.name, lbl);
+	}
+
+	// checks the whole index against the package manager, on the worker
+	private void refresh() {
+		try {
+			PackageManager pm=App.self.getPackageManager();
+			List<ResolveInfo> rii=pm.queryIntentActivities(launcherIntent(), 0);
+			if (rii==null) return;
+			String loc=Locale.getDefault().toString();
+			boolean all=!loc.equals(locale);
+
+			HashMap<String,Long> times=new HashMap<String,Long>();
+			LinkedHashMap<String,AppCacheEntry> next=new LinkedHashMap<String,AppCacheEntry>();
+			int nLoaded=0;
+			for (ResolveInfo r:rii) {
+				String pk=r.activityInfo.packageName;
+				Long t=times.get(pk);
+				if (t==null) times.put(pk, t=lastUpdateTime(pm, pk));
+				String k=key(pk, r.activityInfo.name);
+				AppCacheEntry e=all||!t.equals(updated.get(pk))?null:entries.get(k);
+				if (e==null) {
+					e=newEntry(pm, r);
+					++nLoaded;
+				}
+				next.put(k, e);
+			}
+			boolean changed=nLoaded>0||!next.keySet().equals(entries.keySet());
+			entries.clear();
+			entries.putAll(next);
+			updated.clear();
+			updated.putAll(times);
+			locale=loc;
+			Log.d(TAG, "refresh: "+next.size()+" entries, "+nLoaded+" labels loaded");
+			if (changed) write();
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+		} finally {
+			publish();
+		}
+	}
+
+	// the package has been added, removed or changed, on the worker
+	private void update(String pkName) {
+		try {
+			for (Iterator<AppCacheEntry> it=entries.values().iterator();it.hasNext();)
+				if (pkName.equals(it.next().pkName)) it.remove();
+			updated.remove(pkName);
+
+			PackageManager pm=App.self.getPackageManager();
+			Intent it=launcherIntent();
+			it.setPackage(pkName);
+			List<ResolveInfo> rii=pm.queryIntentActivities(it, 0);
+			if (rii!=null&&!rii.isEmpty()) {
+				for (ResolveInfo r:rii) entries.put(key(pkName, r.activityInfo.name), newEntry(pm, r));
+				updated.put(pkName, lastUpdateTime(pm, pkName));
+			}
+			Log.d(TAG, "update: "+pkName+", "+(rii==null?0:rii.size())+" activities");
+			write();
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+		}
+		publish();
+	}
+
+	private static File getFile() {
+		return new File(App.self.getFilesDir(), FILE_NAME);
+	}
+
+	private static void writeStrings(DataOutputStream out, String ss[]) throws IOException {
+		out.writeInt(ss.length);
+		for (String s:ss) out.writeUTF(s);
+	}
+
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String ss[]=new String[in.readInt()];
+		for (int i=0;i<ss.length;i++) ss[i]=in.readUTF();
+		return ss;
+	}
+
+	private void write() {
+		File f=getFile(), tmp=new File(f.getPath()+".tmp");
+		try {
+			FileOutputStream fos=new FileOutputStream(tmp);
+			try {
+				DataOutputStream out=new DataOutputStream(new BufferedOutputStream(fos));
+				out.writeInt(VERSION);
+				out.writeUTF(locale==null?"":locale);
+				out.writeInt(updated.size());
+				for (Map.Entry<String,Long> e:updated.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.writeLong(e.getValue());
+				}
+				out.writeInt(entries.size());
+				for (AppCacheEntry e:entries.values()) {
+					out.writeUTF(e.pkName);
+					out.writeUTF(e.actName);
+					out.writeUTF(e.appName);
+					out.writeUTF(e.appNameNormalized);
+					writeStrings(out, e.pkNameArray);
+					writeStrings(out, e.pkNameNormalizedArray);
+				}
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			if (!tmp.renameTo(f)) {
+				f.delete();
+				tmp.renameTo(f);
+			}
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+			tmp.delete();
+		}
+	}
+
+	// false if there is no usable file
+	private boolean read() {
+		File f=getFile();
+		if (!f.exists()) return false;
+		try {
+			DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			try {
+				if (in.readInt()!=VERSION) return false;
+				locale=in.readUTF();
+				for (int n=in.readInt();n>0;n--) updated.put(in.readUTF(), in.readLong());
+				for (int n=in.readInt();n>0;n--) {
+					AppCacheEntry e=new AppCacheEntry(
+					  in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+					  readStrings(in), readStrings(in)
+					);
+					entries.put(key(e.pkName, e.actName), e);
+				}
+				Log.d(TAG, "read "+entries.size()+" entries");
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+			entries.clear();
+			updated.clear();
+			locale=null;
+			return false;
+		}
+	}
+
+}
@@ -7,7 +7,10 @@ import java.lang.ref.WeakReference;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -25,6 +28,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
@@ -170,55 +174,67 @@ public class CalReminding {
         return reminders;
     }
 
+    /**
+     * The events which overlap the period, the all day ones if they start on a day of it,
+     * in the order of their dtstart. The periods within the next HORIZON are answered from
+     * the memory, the other ones are queried for.
+     */
     public ArrayList<Reminder> getRemindersForPeriod(Date from, Date to) throws CalReminderException {
         waitForPrepared();
         if (calendarUriBase==null) throw new CalReminderException("Can't get calendar base uri.");
         // we hope that "calendarUriBase" is known here.
-        // get calendar;
+        ReminderCache c=getCache(from, to);
+        return c==null?queryReminders(from, to):c.find(from, to);
+    }
+
+    private static boolean matches(Reminder reminder, Date from, Date to, Date dayBegin, Date dayEnd) {
+        if (reminder.getFrom()==null) return false;
+        if (reminder.isAllDay())
+            return isAmong(reminder.getFrom(), dayBegin, dayEnd);
+        return reminder.getTo()!=null&&(
+                isAmong(from, reminder.getFrom(), reminder.getTo())||
+                        isAmong(to, reminder.getFrom(), reminder.getTo())||
+                        isAmong(reminder.getFrom(), from, to)||
+                        isAmong(reminder.getTo(), from, to)
+        );
+    }
+
+    // the columns a reminder is made of, in the order of rowToReminder()
+    private final static String REMINDER_COLUMNS[]={
+            "_id", "description", "dtstart", "dtend", "allDay", "title", "eventTimezone"
+    };
+
+    private final static long DAY=24L*3600L*1000L;
+
+    private final static String
+            Q_PERIOD="(dtstart<=?) and ((ifnull(allDay,0)=1 and dtstart>=?) or (ifnull(allDay,0)<>1 and dtend>=?))",
+            Q_PERIOD_NOT_DELETED=Q_PERIOD+" and (ifnull(deleted,0)=0)"
+                    ;
+
+    // only the rows which may match are read, matches() decides
+    private ArrayList<Reminder> queryReminders(Date from, Date to) {
+        calcIndexes();
         ArrayList<Reminder> reminders = new ArrayList<Reminder>();
 
         Date dayBegin=Utils.dayStartEnd(from).first, dayEnd=Utils.dayStartEnd(to).second;
 
+        // the all day events are shifted by the time zone, a day around is more than enough
         Cursor cc = cr.query(
                 events_uri,
-                null,
-                null,// "deleted=0 and hasAlarm<>0",
-                null,
+                REMINDER_COLUMNS,
+                (_ix_deleted==null)?Q_PERIOD:Q_PERIOD_NOT_DELETED,
+                new String[] {
+                        Long.toString(Math.max(to.getTime(), dayEnd.getTime())+DAY),
+                        Long.toString(dayBegin.getTime()-DAY),
+                        Long.toString(from.getTime()-DAY)
+                },
                 "dtstart"
         );
         if (cc!=null) try {
-            if (cc.moveToFirst()) {
-                calcIndexes(cc);
-                do {
-
-                    if (_ix_deleted!=null&&!cc.isNull(_ix_deleted)&&cc.getInt(_ix_deleted)!=0)
-                        continue;
-
-                    /*
-                    if (_ix_hasAlarm!=null) {
-                        if (cc.isNull(_ix_hasAlarm)||cc.getInt(_ix_hasAlarm)==0) continue;
-                    }*/
-
-                    Reminder reminder = rowToReminder(cc);
-
-                    if (reminder.getFrom()==null) continue;
-
-                    if (reminder.isAllDay()) {
-                        if (
-                                isAmong(reminder.getFrom(), dayBegin, dayEnd)
-                                )
-                            reminders.add(reminder);
-                    } else {
-                        if (reminder.getTo()==null) continue;
-                        if (
-                                isAmong(from, reminder.getFrom(), reminder.getTo())||
-                                        isAmong(to, reminder.getFrom(), reminder.getTo())||
-                                        isAmong(reminder.getFrom(), from, to)||
-                                        isAmong(reminder.getTo(), from, to)
-                                )
-                            reminders.add(reminder);
-                    }
-                } while (cc.moveToNext());
+            while (cc.moveToNext()) {
+                Reminder reminder = rowToReminder(cc);
+                if (matches(reminder, from, to, dayBegin, dayEnd))
+                    reminders.add(reminder);
             }
         } finally {
             cc.close();
@@ -227,6 +243,158 @@ public class CalReminding {
         return reminders;
     }
 
+    /**
+     * A static interval tree: the intervals sorted by their starts are the nodes of an
+     * implicit balanced tree (the middle of a range is the root of it) and every node
+     * knows the greatest end in its subtree.
+     */
+    private static class Intervals {
+        final long start[], end[], maxEnd[];
+        final int seq[];
+
+        // seq[i] is the number of the interval [start[i], end[i]] in the order of the caller
+        Intervals(long start[], long end[]) {
+            Integer order[]=new Integer[start.length];
+            for (int i=0;i<order.length;i++) order[i]=i;
+            final long st[]=start;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long x=st[a], y=st[b];
+                    return x<y?-1:(x==y?0:1);
+                }
+            });
+            this.start=new long[order.length];
+            this.end=new long[order.length];
+            this.maxEnd=new long[order.length];
+            this.seq=new int[order.length];
+            for (int i=0;i<order.length;i++) {
+                this.start[i]=start[order[i]];
+                this.end[i]=end[order[i]];
+                this.seq[i]=order[i];
+            }
+            fill(0, order.length);
+        }
+
+        private long fill(int lo, int hi) {
+            if (lo>=hi) return Long.MIN_VALUE;
+            int mid=(lo+hi)>>>1;
+            return maxEnd[mid]=Math.max(end[mid], Math.max(fill(lo, mid), fill(mid+1, hi)));
+        }
+
+        // the numbers of the intervals which overlap [a, b]
+        void find(long a, long b, List<Integer> res) {
+            find(0, start.length, a, b, res);
+        }
+
+        private void find(int lo, int hi, long a, long b, List<Integer> res) {
+            if (lo>=hi) return;
+            int mid=(lo+hi)>>>1;
+            if (maxEnd[mid]<a) return;
+            find(lo, mid, a, b, res);
+            if (start[mid]>b) return;
+            if (end[mid]>=a) res.add(seq[mid]);
+            find(mid+1, hi, a, b, res);
+        }
+    }
+
+    // the events of this many days are kept in memory
+    private final static long HORIZON=31L*DAY;
+
+    /**
+     * The reminders of the period [from, to] as queryReminders() has read them, in the tree.
+     */
+    private static class ReminderCache {
+        final Date from, to;
+        final Reminder reminders[];
+        final Intervals intervals;
+
+        ReminderCache(Date from, Date to, List<Reminder> lst) {
+            this.from=from;
+            this.to=to;
+            reminders=lst.toArray(new Reminder[lst.size()]);
+            long st[]=new long[reminders.length], en[]=new long[reminders.length];
+            for (int i=0;i<reminders.length;i++) {
+                Reminder r=reminders[i];
+                // an all day event is a point, the days of the period are looked for
+                st[i]=r.getFrom().getTime();
+                en[i]=r.isAllDay()?st[i]:Math.max(st[i], r.getTo().getTime());
+            }
+            intervals=new Intervals(st, en);
+        }
+
+        boolean covers(Date from, Date to) {
+            return !(from.before(this.from)||to.after(this.to));
+        }
+
+        ArrayList<Reminder> find(Date from, Date to) {
+            Date dayBegin=Utils.dayStartEnd(from).first, dayEnd=Utils.dayStartEnd(to).second;
+            List<Integer> found=new ArrayList<Integer>();
+            intervals.find(
+                    Math.min(from.getTime(), dayBegin.getTime()),
+                    Math.max(to.getTime(), dayEnd.getTime()),
+                    found
+            );
+            Collections.sort(found); // the order of dtstart
+            ArrayList<Reminder> res=new ArrayList<Reminder>(found.size());
+            for (int i:found)
+                if (matches(reminders[i], from, to, dayBegin, dayEnd)) res.add(reminders[i]);
+            return res;
+        }
+    }
+
+    private static volatile ReminderCache cache=null;
+    private static int generation=0;
+    private static ContentObserver calendarObserver=null;
+    private final static Object cacheLock=new Object();
+
+    // drops the cache on any change of the calendars
+    private void observe() {
+        synchronized (cacheLock) {
+            if (calendarObserver==null) try {
+                calendarObserver=new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        synchronized (cacheLock) {
+                            ++generation;
+                            cache=null;
+                        }
+                    }
+                };
+                cr.registerContentObserver(Uri.parse(calendarUriBase), true, calendarObserver);
+            } catch (Throwable t) {
+                Log.e(TAG, " -- ", t);
+                calendarObserver=null;
+            }
+        }
+    }
+
+    /**
+     * the cache from yesterday to HORIZON, built if it is not there, null if it does not
+     * cover the period
+     */
+    private ReminderCache getCache(Date from, Date to) {
+        Date begin=new Date(Utils.dayStartEnd(System.currentTimeMillis()).first.getTime()-DAY),
+             end=new Date(begin.getTime()+HORIZON);
+        ReminderCache c=cache;
+        if (c!=null&&c.from.equals(begin)) return c.covers(from, to)?c:null;
+        if (from.before(begin)||to.after(end)) return null;
+
+        observe();
+        if (calendarObserver==null) return null; // it could not be kept up to date
+        int gen;
+        synchronized (cacheLock) {
+            gen=generation;
+        }
+        long t0=System.currentTimeMillis();
+        c=new ReminderCache(begin, end, queryReminders(begin, end));
+        Log.d(TAG, "cached "+c.reminders.length+" reminders, "+(System.currentTimeMillis()-t0)+"ms");
+        synchronized (cacheLock) {
+            if (gen==generation) cache=c;
+        }
+        return c;
+    }
+
     /***********
      *
      private void createVersion67EventsTable(SQLiteDatabase db) {
@@ -323,29 +491,30 @@ public class CalReminding {
         }
     }
 
-    private  Reminder rowToReminder(Cursor cc){
-        //  "_id","description","dtstart","allDay","title"
+    // a row of REMINDER_COLUMNS
+    private static Reminder rowToReminder(Cursor cc){
+        //  "_id","description","dtstart","dtend","allDay","title","eventTimezone"
         Reminder reminder = new Reminder();
-        reminder.setId(cc.getInt(_ix_id));
-        reminder.setDescription(cc.getString(_ix_description));
-        String tzId=_ix_eventTimezone==null?null:cc.getString(_ix_eventTimezone);
+        reminder.setId(cc.getInt(0));
+        reminder.setDescription(cc.getString(1));
+        String tzId=cc.getString(6);
 
-        if (!cc.isNull(_ix_allDay))
-            reminder.setAllDay(cc.getInt(_ix_allDay)==1);
+        if (!cc.isNull(4))
+            reminder.setAllDay(cc.getInt(4)==1);
 
         if (reminder.isAllDay()) {
-            if (!cc.isNull(_ix_dtstart))
-                reminder.setFrom(new Date(Utils.timeFromGMT(cc.getLong(_ix_dtstart))));
-            if (!cc.isNull(_ix_dtend))
-                reminder.setTo(new Date(Utils.timeFromGMT(cc.getLong(_ix_dtend))));
+            if (!cc.isNull(2))
+                reminder.setFrom(new Date(Utils.timeFromGMT(cc.getLong(2))));
+            if (!cc.isNull(3))
+                reminder.setTo(new Date(Utils.timeFromGMT(cc.getLong(3))));
         } else {
-            if (!cc.isNull(_ix_dtstart))
-                reminder.setFrom(Utils.costructForTimezone(cc.getLong(_ix_dtstart),tzId));
-            if (!cc.isNull(_ix_dtend))
-                reminder.setTo(Utils.costructForTimezone(cc.getLong(_ix_dtend),tzId));
+            if (!cc.isNull(2))
+                reminder.setFrom(Utils.costructForTimezone(cc.getLong(2),tzId));
+            if (!cc.isNull(3))
+                reminder.setTo(Utils.costructForTimezone(cc.getLong(3),tzId));
         }
 
-        reminder.setTitle(cc.getString(_ix_title));
+        reminder.setTitle(cc.getString(5));
         return reminder;
     }
 
@@ -14,7 +14,6 @@ import com.magnifis.parking.model.MagNews;
 import com.magnifis.parking.suzie.SuzieService;
 import com.magnifis.parking.utils.Utils;
 
-import org.w3c.dom.Document;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -80,10 +79,10 @@ public class Communitainment {
             throw new RuntimeException(e);
         }
         if (is != null) {
-            Document doc = Xml.loadXmlFile(is);
-            if (doc != null) {
+            Xml.LightElement root = Xml.loadXmlTree(is);
+            if (root != null) {
                 MagNews mt = Xml.setPropertiesFrom(
-                        doc.getDocumentElement(), MagNews.class);
+                        root, MagNews.class);
                 if (mt != null) return mt.getItems();
             }
         }
@@ -10,6 +10,7 @@ public class Config {
             samsungversion=false,
             floatingButton=true,
             neo_phonebook_matcher=true,
+            parallel_contact_scoring=true,
             double_toast=false,
             debug=false,
             new_style_vip_advancing=true,
@@ -21,7 +21,6 @@ import com.magnifis.parking.pref.PasswordPreference;
 import com.magnifis.parking.utils.ValueSortedMap;
 
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
@@ -31,10 +30,22 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.mail.Address;
 import javax.mail.Folder;
@@ -62,49 +73,198 @@ public class DailyUpdate {
         this.userName = robin.getNameOfUser();
     }
 
-    public String playAgenda() {
+    final static String TAG = DailyUpdate.class.getSimpleName();
 
-        String wait = ". . \n\n\n";
+    // how long a source of the update may take, the local ones and the network ones
+    private static final long LOCAL_TIMEOUT = 5000, NETWORK_TIMEOUT = 20000;
+    private static final int NEWS_TIMEOUT = 8000, NEWS_PARALLEL = 4, MAX_NEWS = 10;
+    // the news stop waiting for the feeds this long before the source times out, to say what they have
+    private static final long NEWS_MARGIN = 1000;
 
-        List<String> groups = new ArrayList<String>();
+    // the last elapsed time of each source, to find the slow ones
+    private static final ConcurrentHashMap<String, Long> elapsed = new ConcurrentHashMap<String, Long>();
 
-        groups.add(getMissedCallsYouDidNotReply());
-        groups.add(getCalendarEvents());
-        groups.add(getSmsString());
+    public static Map<String, Long> getSourceTimes() {
+        return new HashMap<String, Long>(elapsed);
+    }
+
+    private static ExecutorService sources = null, feeds = null;
+
+    private static ThreadFactory daemons(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    // the sources do not wait for each other, so there is a thread for each
+    private static synchronized ExecutorService getSources() {
+        if (sources == null) sources = Executors.newCachedThreadPool(daemons(TAG));
+        return sources;
+    }
+
+    private static synchronized ExecutorService getFeeds() {
+        if (feeds == null) feeds = Executors.newFixedThreadPool(NEWS_PARALLEL, daemons(TAG + " feeds"));
+        return feeds;
+    }
+
+    /**
+     * A part of the update, computed on a pool thread. A failure gives null, as an empty
+     * part does, so that the other parts are said anyway.
+     */
+    private abstract class Source implements Callable<String> {
+        final String name;
+        final long timeout;
+
+        Source(String name, long timeout) {
+            this.name = name;
+            this.timeout = timeout;
+        }
+
+        abstract String get() throws Exception;
+
+        @Override
+        public String call() {
+            long t0 = System.currentTimeMillis();
+            try {
+                return get();
+            } catch (Throwable t) {
+                Log.e(TAG, name, t);
+                return null;
+            } finally {
+                long ms = System.currentTimeMillis() - t0;
+                elapsed.put(name, ms);
+                Log.d(TAG, name + " took " + ms + "ms");
+            }
+        }
+    }
+
+    private static String await(Source src, Future<String> f) {
+        try {
+            return f.get(src.timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.d(TAG, src.name + " timed out");
+        } catch (Throwable t) {
+            Log.e(TAG, src.name, t);
+        }
+        f.cancel(true);
+        return null;
+    }
+
+    /**
+     * All the parts are gathered at once, and each is said as soon as it and the ones before
+     * it are ready: the missed calls, the calendar, the SMS, the notifications, the mail and
+     * the news.
+     */
+    public void playAgenda() {
+
+        List<Source> agenda = new ArrayList<Source>();
+
+        agenda.add(new Source("missed calls", LOCAL_TIMEOUT) {
+            @Override
+            String get() {
+                return getMissedCallsYouDidNotReply();
+            }
+        });
+        agenda.add(new Source("calendar", LOCAL_TIMEOUT) {
+            @Override
+            String get() {
+                return getCalendarEvents();
+            }
+        });
+        agenda.add(new Source("sms", LOCAL_TIMEOUT) {
+            @Override
+            String get() {
+                return getSmsString();
+            }
+        });
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            groups.add(DailyNotificationListener.getAll(context));
+            agenda.add(new Source("notifications", LOCAL_TIMEOUT) {
+                @Override
+                String get() {
+                    return DailyNotificationListener.getAll(context);
+                }
+            });
         }
 
 //        groups.add(getRecentCalls(true));//missed only
 //        groups.add(getRecentCalls(false));
 
-        String textToSpeak = App.self.getString(R.string.ok_confirm) + " " + userName + App.self.getString(R.string.scan_start);
-        for (String group : groups) {
-            if (group == null) continue;
-
-            sayAndShow(group);
+        new AgendaPlayer(agenda, gmailSource(), newsSource()).multiExecute();
+    }
 
-            textToSpeak += group + wait;
-        }
-        textToSpeak += App.self.getString(R.string.recap_done);
+    private Source gmailSource() {
+        return new Source("gmail", NETWORK_TIMEOUT) {
+            @Override
+            String get() throws Exception {
+                return formatEmailListToReadableString(getEmails());
+            }
+        };
+    }
 
-        textToSpeak = cleanStringsThatAreNotReadable(textToSpeak);
+    private Source newsSource() {
+        return new Source("news", NETWORK_TIMEOUT) {
+            @Override
+            String get() {
+                return getBrowserHistory(System.currentTimeMillis() + timeout - NEWS_MARGIN);
+            }
+        };
+    }
 
-//        sayAndShow(textToSpeak);
+    // marks the progress said with Output.sayAndShow(context, ...), as the mail and the news always were
+    private static final String IN_CONTEXT = "in context";
+
+    private class AgendaPlayer extends MultiAsyncTask<Void, String, Void> {
+        final List<Source> agenda;
+        final Source gmail, news; // either may be null
+        final List<Future<String>> futures = new ArrayList<Future<String>>();
+        final Future<String> gmailFuture, newsFuture;
+
+        AgendaPlayer(List<Source> agenda, Source gmail, Source news) {
+            this.agenda = agenda;
+            this.gmail = gmail;
+            this.news = news;
+            for (Source src : agenda) futures.add(getSources().submit(src));
+            gmailFuture = gmail == null ? null : getSources().submit(gmail);
+            newsFuture = news == null ? null : getSources().submit(news);
+        }
 
-        getGmail();
-        getNews();
+        @Override
+        protected Void doInBackground(Void... params) {
+            for (int i = 0; i < agenda.size(); i++) {
+                String group = await(agenda.get(i), futures.get(i));
+                if (group != null) publishProgress(group);
+            }
+            // the mail is said even if it is empty
+            if (gmail != null) publishProgress(await(gmail, gmailFuture), IN_CONTEXT);
+            if (news != null) {
+                publishProgress(App.self.getString(R.string.please_wait), IN_CONTEXT);
+                String s = await(news, newsFuture);
+                if (s != null) publishProgress(s, IN_CONTEXT);
+            }
+            return null;
+        }
 
-        return textToSpeak;
+        @Override
+        protected void onProgressUpdate(String... values) {
+            if (values.length > 1)
+                Output.sayAndShow(context, values[0]);
+            else
+                sayAndShow(values[0]);
+        }
     }
 
     public void getNews() {
-        (new NewsReader()).multiExecute();
+        new AgendaPlayer(new ArrayList<Source>(), null, newsSource()).multiExecute();
     }
 
     public void getGmail() {
-        (new GmailReader()).multiExecute();
+        new AgendaPlayer(new ArrayList<Source>(), gmailSource(), null).multiExecute();
     }
 
     private String cleanStringsThatAreNotReadable(String textToSpeak) {
@@ -491,7 +651,8 @@ public class DailyUpdate {
         return false;
     }
 
-    String getBrowserHistory() {
+    // the news found till the deadline
+    String getBrowserHistory(long deadline) {
 
         String result = null;
         List<String> resultsList = new ArrayList<String>();
@@ -527,7 +688,7 @@ public class DailyUpdate {
         /*int min = 0;
         int max = resultsList.size()- 1;
         int rand = min + (int) (Math.random() * ((max - min) + 1));*/
-        Set<String> content = getFreshContent(resultsList);
+        Set<String> content = getFreshContent(resultsList, deadline);
 
         for (String newsItem : content) {
 
@@ -541,7 +702,7 @@ public class DailyUpdate {
         return result;
     }
 
-    public Set<String> getFreshContent(List<String> queryStrings) {
+    public Set<String> getFreshContent(List<String> queryStrings, long deadline) {
 
         Set<String> titles = new HashSet<String>();
 
@@ -559,89 +720,69 @@ public class DailyUpdate {
             urlStrings.add("https://news.google.com/news/feeds?output=rss&q=" + query);
         }
 
-        for (String s : urlStrings) {
-
-            Document doc = null; // connect to url and parse its content into a document
-            try {
-                doc = Jsoup.connect(s).get();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return titles;
-            }
+        // a few feeds at a time, a feed which fails or is slow is skipped,
+        // at the deadline the titles collected so far are returned
+        ExecutorCompletionService<Elements> ecs = new ExecutorCompletionService<Elements>(getFeeds());
+        List<Future<Elements>> pending = new ArrayList<Future<Elements>>();
+        java.util.Iterator<String> it = urlStrings.iterator();
+        try {
+            while (pending.size() < NEWS_PARALLEL && it.hasNext()) pending.add(ecs.submit(feed(it.next())));
+            while (!pending.isEmpty()) {
+                long wait = Math.min(NEWS_TIMEOUT, deadline - System.currentTimeMillis());
+                if (wait <= 0) break;
+                Future<Elements> f = ecs.poll(wait, TimeUnit.MILLISECONDS);
+                if (f == null) break; // all of the running ones are stuck
+                pending.remove(f);
+
+                Elements listItems = null;
+                try {
+                    listItems = f.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
 
-            Elements listItems = doc.select("item");
-            /*for (Element item : listItems) {
-                Element title = item.select("title").first();
-                titles.add(title.text());
-            }*/
-            for (Element item : listItems) {
-                int count = 0;
+                if (listItems != null) for (Element item : listItems) {
+                    int count = 0;
 
-                if (count > 1) break;
+                    if (count > 1) break;
 
-                Element title = item.select("title").first();
-                if (title != null) {
-                    titles.add(title.text());
-                    count++;
+                    Element title = item.select("title").first();
+                    if (title != null) {
+                        titles.add(title.text());
+                        count++;
+                    }
                 }
-            }
 
-            if (titles.size() > 9) return titles;
+                if (titles.size() >= MAX_NEWS) break;
+                if (it.hasNext()) pending.add(ecs.submit(feed(it.next())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<Elements> f : pending) f.cancel(true);
         }
         return titles;
     }
 
+    // the items of the feed
+    private static Callable<Elements> feed(final String url) {
+        return new Callable<Elements>() {
+            @Override
+            public Elements call() throws IOException {
+                long t0 = System.currentTimeMillis();
+                try {
+                    return Jsoup.connect(url).timeout(NEWS_TIMEOUT).get().select("item");
+                } finally {
+                    Log.d(TAG, url + " took " + (System.currentTimeMillis() - t0) + "ms");
+                }
+            }
+        };
+    }
+
     class UpdateItem {
         String senderAddress;
         String body;
         long sentDate;
     }
 
-    private class GmailReader extends MultiAsyncTask<String, Void, String> {
-
-        @Override
-        protected String doInBackground(String... params) {
-            String read = null;
-            try {
-                Message[] emails = getEmails();
-
-                read = formatEmailListToReadableString(emails);
-            } catch (MessagingException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return read;
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            Output.sayAndShow(context, result);
-        }
-    }
-
-    private class NewsReader extends MultiAsyncTask<String, Void, String> {
-
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-
-            Output.sayAndShow(context, App.self.getString(R.string.please_wait));
-        }
-
-        @Override
-        protected String doInBackground(String... params) {
-            String read = getBrowserHistory();
-            return read;
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            if (result != null) {
-                Output.sayAndShow(context, result);
-            }
-        }
-    }
-
-
 }
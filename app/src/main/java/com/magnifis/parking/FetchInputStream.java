@@ -0,0 +1,140 @@
+package com.magnifis.parking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered stream over a network reply.
+ *
+ * The buffers are taken from a small pool and given back on close(), so a round trip
+ * does not allocate them. A failed read is retried a few times on the chunk level. The
+ * first IOException is remembered, as the XML parser swallows it and the caller
+ * still has to tell a network failure from a bad reply.
+ */
+public class FetchInputStream extends FilterInputStream {
+
+	public final static int BUFFER_SIZE=8192, POOL_SIZE=4;
+
+	private final static byte pool[][]=new byte[POOL_SIZE][];
+	private static int pooled=0;
+
+	private static byte [] obtainBuffer() {
+		synchronized(pool) {
+			if (pooled>0) {
+				byte b[]=pool[--pooled];
+				pool[pooled]=null;
+				return b;
+			}
+		}
+		return new byte[BUFFER_SIZE];
+	}
+
+	private static void releaseBuffer(byte b[]) {
+		synchronized(pool) {
+			if (pooled<POOL_SIZE) pool[pooled++]=b;
+		}
+	}
+
+	private byte buf[]=obtainBuffer();
+	private int pos=0, count=0;
+	private final int nReadAttempts;
+	private IOException failure=null;
+
+	public FetchInputStream(InputStream in, int nReadAttempts) {
+		super(in);
+		this.nReadAttempts=nReadAttempts;
+	}
+
+	public IOException getFailure() {
+		return failure;
+	}
+
+	private int readChunk(byte b[], int off, int len) throws IOException {
+		if (buf==null) throw new IOException("stream closed");
+		IOException xx=null;
+		for (int i=0;i<nReadAttempts;i++) try {
+		   if (i>0) try {
+			   Thread.sleep(100);
+		   } catch(InterruptedException ix) {
+			   break;
+		   }
+		   return in.read(b, off, len);
+		} catch(IOException x) {
+		   xx=x;
+		}
+		if (xx==null) xx=new IOException("interrupted");
+		if (failure==null) failure=xx;
+		throw xx;
+	}
+
+	private boolean fill() throws IOException {
+		pos=0;
+		count=Math.max(0, readChunk(buf, 0, buf.length));
+		return count>0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos>=count&&!fill()) return -1;
+		return buf[pos++]&0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) return 0;
+		int avail=count-pos;
+		if (avail<=0) {
+			// large reads go straight to the destination
+			if (len>=buf.length) return readChunk(b, off, len);
+			if (!fill()) return -1;
+			avail=count;
+		}
+		int n=Math.min(avail, len);
+		System.arraycopy(buf, pos, b, off, n);
+		pos+=n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n<=0) return 0;
+		int avail=count-pos;
+		if (avail>0) {
+			int k=(int)Math.min(avail, n);
+			pos+=k;
+			return k;
+		}
+		return in.skip(n);
+	}
+
+	@Override
+	public int available() throws IOException {
+		return Math.max(0, count-pos)+in.available();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void mark(int readlimit) {}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override
+	public void close() throws IOException {
+		byte b[]=buf;
+		if (b!=null) {
+			buf=null;
+			pos=count=0;
+			releaseBuffer(b);
+		}
+		in.close();
+	}
+
+}
@@ -43,104 +43,97 @@ public abstract class Fetcher<T> extends OurAsyncTask<Object,Integer,T> {
 		}
 	}
 	
-	final static protected int N_CONNECTION_ATTEMPTS=4, N_WRITE_ATTEMPTS=4, N_READ_ATTEMPS=4;
+	final static protected int N_CONNECTION_ATTEMPTS=4, N_READ_ATTEMPS=4;
 	
+	/*
+	 * A failed attempt (connecting or sending the POST body) is retried with the whole request,
+	 * the body is sent in one write with a known Content-Length.
+	 * The reply stream is buffered and should be closed by the caller.
+	 */
 	protected InputStream invokeRequest(URL u, String pd, String ref, String userAgent) throws IOException {
 		
 		HttpURLConnection uc = null;
 		IOException xx=null;
+		String ncePlace=null;
+		byte body[]=pd==null?null:pd.getBytes("UTF-8");
 		
-		for (int i=0;i<N_CONNECTION_ATTEMPTS;i++) try {
+		for (int i=0;i<N_CONNECTION_ATTEMPTS;i++) {
 			xx=null;
 			if (i>0) try {
 				Thread.sleep(100);
 			} catch(InterruptedException ix) {
 				return null;
 			}
-			uc=HttpURLConnection.class.cast(u.openConnection());
-			if (uc==null) continue;
-			/*
-		    uc.setReadTimeout(15000); // 15s timeout
-		    uc.setConnectTimeout(15000);
-			 */
-			uc.setConnectTimeout(1500);
-			uc.setConnectTimeout(15000);
-
-
-			if (userAgent!=null)
-				uc.setRequestProperty("User-Agent",  userAgent);
-
-			// uc.setUseCaches(false);
-			uc.setDoInput(true);
-			if (pd != null) {
-				uc.setRequestMethod("POST");
-				uc.setDoOutput(true);
+			try {
+				uc=HttpURLConnection.class.cast(u.openConnection());
+				if (uc==null) continue;
+				/*
+			    uc.setReadTimeout(15000); // 15s timeout
+			    uc.setConnectTimeout(15000);
+				 */
+				uc.setConnectTimeout(1500);
+				uc.setConnectTimeout(15000);
+	
+	
+				if (userAgent!=null)
+					uc.setRequestProperty("User-Agent",  userAgent);
+	
+				// uc.setUseCaches(false);
+				uc.setDoInput(true);
+				if (body != null) {
+					uc.setRequestMethod("POST");
+					uc.setDoOutput(true);
+					uc.setFixedLengthStreamingMode(body.length);
+				}
+				uc.setAllowUserInteraction(false);
+				if (ref != null)
+					uc.addRequestProperty("referer", ref);
+				uc.connect();
+				if (uc instanceof HttpsURLConnection) {
+					HttpsURLConnection suc=(HttpsURLConnection)uc;
+					Principal pr=suc.getPeerPrincipal();
+					if (pr!=null) {
+						Log.d(TAG,"SSL Principal:: "+pr.toString());
+					}
+				}
+			} catch(IOException x) {
+				xx=x;
+				ncePlace="Fetcher#1";
+				if (uc!=null) uc.disconnect(); // don't leave the failed attempt open
+				continue;
 			}
-			uc.setAllowUserInteraction(false);
-			if (ref != null)
-				uc.addRequestProperty("referer", ref);
-			uc.connect();
-			if (uc instanceof HttpsURLConnection) {
-				HttpsURLConnection suc=(HttpsURLConnection)uc;
-				Principal pr=suc.getPeerPrincipal();
-				if (pr!=null) {
-					Log.d(TAG,"SSL Principal:: "+pr.toString());
+			
+			if (body != null) {
+				OutputStream os =null;
+				try {
+			       ncePlace="Fetcher#0";
+			       os =uc.getOutputStream();
+			       if (os==null) {
+			    	  exactNcePlace(ncePlace);
+			    	  uc.disconnect();
+			    	  return null;
+			       }
+			       ncePlace="Fetcher#1";
+			       os.write(body);
+			       ncePlace="Fetcher#1.1";
+			       os.flush();
+			       ncePlace="Fetcher#1.2";
+			       os.close();
+				} catch(IOException x) {
+				   xx=x;
+				   uc.disconnect();
+				   continue;
 				}
 			}
 			break;
-		} catch(IOException x) {
-			xx=x;
 		}
 	//	xx=new IOException("simulador");
 		if (xx!=null) {
-			exactNcePlace("Fetcher#1",xx);
+			exactNcePlace(ncePlace,xx);
 			throw xx;
 		}
-		if (pd != null) {
-			OutputStream os =null;
-			try {
-		       os =uc.getOutputStream();
-			} catch(IOException x) {
-				xx=x;
-			}
-			if (os==null) {
-				exactNcePlace("Fetcher#0",xx);
-				if (xx!=null) throw xx;
-				return null;
-			}
-			byte bb[]=pd.getBytes("UTF-8");
-			for (int j=0;j<bb.length;j++) {
-			  for (int i=0; i<N_WRITE_ATTEMPTS; i++) try {
-				 xx=null;
-				 if (i>0) try {
-				   Thread.sleep(100);
-			     } catch(InterruptedException ix) {
-				   return null;
-				 }
-			     os.write(bb[j]);
-			     break;
-			  } catch(IOException x) {
-			     xx=x;
-		      }
-			}
-			if (xx!=null) {
-				exactNcePlace("Fetcher#1",xx);
-				throw xx;
-			}
-			try {
-			   os.flush(); 
-			} catch(IOException x) {
-				exactNcePlace("Fetcher#1.1",x);
-				throw x;
-			}
-			try {
-			   os.close();
-			} catch(IOException x) {
-			   exactNcePlace("Fetcher#1.2",x);
-			   throw x;
-			}
-		}
-		return uc.getInputStream();
+		if (uc==null) return null;
+		return new FetchInputStream(uc.getInputStream(), N_READ_ATTEMPS);
 	}
 	
 	protected T consumeData(Object o) {
@@ -55,7 +55,10 @@ public class GasOverlay extends GeoItemsOverlay<GasStation> {
 						GasPrice gp=fas.getPrice();
 						//boolean pricePresents=gp!=null&&gp.getPrice()!=null;
 						
-						Bitmap im=ImageFetcher.getFromCache(fas.getImageUrl());
+						String iUrl=fas.getImageUrl();
+						Bitmap im=ImageFetcher.getFromCache(iUrl);
+						if (im==null&&iUrl!=null&&ImageFetcher.isInCache(iUrl)) 
+							loadIconAndRepaint(iUrl); // is decoded in background
 						Rect srcR=im==null?null:new Rect(0,0,im.getWidth()-1,im.getHeight()-1);
 						mm.draw(canvas);
 						if (sel) {
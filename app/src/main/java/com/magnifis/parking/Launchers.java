@@ -35,7 +35,6 @@ import android.content.SharedPreferences;
 import android.content.IntentFilter.MalformedMimeTypeException;
 import android.content.SharedPreferences.Editor;
 import android.content.pm.ActivityInfo;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
@@ -293,6 +292,11 @@ public class Launchers {
 			am.restartPackage(packageName);
 	}
 	
+	// the likeness if it may be over 0.9, only such ones count, the rest are skipped as 0
+	private static double shortlistedLikeness(String normalized, String s) {
+		return Langutils.likenessBound(normalized, s) > 0.9f ? Langutils.likeness(normalized, s) : 0;
+	}
+	
 	@SuppressLint("NewApi")
 	public static boolean killProcessLike(final String text) {
 
@@ -314,6 +318,7 @@ public class Launchers {
 		if (pm == null)
 			return false;
 		
+		AppIndex index = AppIndex.get();
 		List<ActivityManager.RunningTaskInfo> tti=am.getRunningTasks(100);
 		String foundPackage = null;
 		String foundDomain = null;
@@ -348,21 +353,14 @@ public class Launchers {
 			   }
 		   }	
 		   */		   
-		   String testTitle = testPackage;
-			try {
-				ApplicationInfo ai;
-				ai = pm.getApplicationInfo(testPackage, 0);
-				if (ai != null) {
-					CharSequence cs = ai.loadLabel(pm).toString();
-					if (cs != null)
-						testTitle = cs.toString();		
-				}
-			} catch (NameNotFoundException e) {}
+		   // the label of the launcher activity, as indexed, instead of loading the one of the application
+		   AppCacheEntry ace = index.getByPackage(ti.baseActivity.getPackageName());
+		   String testTitle = ace == null ? testPackage : ace.appName;
 
 			if (!Utils.isEmpty(testTitle)) {
+			   String normalized = ace == null ? Langutils.normalize_phonetics(t.process(testTitle)) : ace.appNameNormalized;
 			   testTitle = testTitle.toLowerCase();
-			   testTitle = t.process(testTitle);
-			   double testLikeness = Langutils.likeness(Langutils.normalize_phonetics(testTitle), s);
+			   double testLikeness = shortlistedLikeness(normalized, s);
 			   Likeness += " "+testTitle+"("+Math.round(10*testLikeness)+")";
 			   if ((testLikeness > foundLikeness) && (testLikeness > 0.9f) && !Utils.isMyPackage(testPackage)) {
 				   foundLikeness = testLikeness;
@@ -430,7 +428,7 @@ public class Launchers {
 		   if (ti.pkNameNormalizedArray.length > 0)
 			   Likeness = ti.pkNameArray[0]+".";
 		   for (int k=1; k<ti.pkNameNormalizedArray.length; k++) {
-			   double testLikeness = Langutils.likeness(ti.pkNameNormalizedArray[k], s);
+			   double testLikeness = shortlistedLikeness(ti.pkNameNormalizedArray[k], s);
 			   if (!Utils.isEmpty(ti.appNameNormalized) && ti.pkNameNormalizedArray[k].equals(ti.appNameNormalized)) {
 				   Likeness += ti.pkNameArray[k]+"(-).";
 				   testLikeness = 0;
@@ -444,7 +442,7 @@ public class Launchers {
 		   		
 		   double totalLikeness = packageLikeness;
 		   if (!Utils.isEmpty(testTitle)) {
-			   double titleLikeness = Langutils.likeness(ti.appNameNormalized, s);
+			   double titleLikeness = shortlistedLikeness(ti.appNameNormalized, s);
 
 			   if (titleLikeness > 0.9f)
 				   totalLikeness += titleLikeness * 2;
@@ -858,6 +856,19 @@ public class Launchers {
 	    	}
 	    }
 	    
+	    // as read from AppIndex, already normalized
+	    AppCacheEntry(
+	    	String pkName, String actName, String appName, String appNameNormalized,
+	    	String pkNameArray[], String pkNameNormalizedArray[]
+	    ) {
+	    	this.pkName=pkName;
+	    	this.actName=actName;
+	    	this.appName=appName;
+	    	this.appNameNormalized=appNameNormalized;
+	    	this.pkNameArray=pkNameArray;
+	    	this.pkNameNormalizedArray=pkNameNormalizedArray;
+	    }
+	    
 	    public ResolveInfo getResolveInfo(PackageManager pm) {
 	      Intent it=new Intent(Intent.ACTION_MAIN);
 		  it.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -882,80 +893,19 @@ public class Launchers {
 	    
 	}
 	
-	public static AppCacheEntry [] getAppsToCache() {
-		Intent it=new Intent(Intent.ACTION_MAIN);
-		it.addCategory(Intent.CATEGORY_LAUNCHER);
-
-		PackageManager pm= App.self.getPackageManager();
-		List<ResolveInfo> rii=pm.queryIntentActivities(it, 0);
-        if (!isEmpty(rii)) {
-        	AppCacheEntry ens[]=new AppCacheEntry [rii.size()];
-        	for (int i=0;i<rii.size();i++) {
-        		ResolveInfo r=rii.get(i);
-        		String lbl = r.activityInfo.packageName;
-        		try {
-        			lbl=r.loadLabel(pm).toString();
-        		} catch(Throwable t) {
-        			t.printStackTrace();
-        		}
-        		ens[i] = new AppCacheEntry(
-        			r.activityInfo.packageName, r.activityInfo.name,
-        			lbl
-        		);
-        	}
-        	return ens;
-        }
-		return null;
-	}
-	
-	static private volatile AppCacheEntry appCache[]=null; 
-	
+	// the index is persistent, releasing it only stops following the package changes
 	public static void releaseAppCache() {
-		synchronized(AppCacheEntry.class) {
-  		  appCache=null;
-		}
+		AppIndex.release();
 	}
 	
 	public static AppCacheEntry []getAppCache() {
-		synchronized(AppCacheEntry.class) {
-			if (appCache!=null) return 	appCache;
-			for (;;) try {
-				if (appCacheLoader==null||!appCacheLoader.isAlive()) _loadAppCache();
-				AppCacheEntry.class.wait();
-				return 	appCache;
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (Throwable t) {
-				t.printStackTrace();
-				return null;
-			}
-		}		
+		return AppIndex.get().getEntries();
 	}
 	
 	public static void loadAppCache() {
-		synchronized(AppCacheEntry.class) {
-			if (appCache==null&&(appCacheLoader==null||!appCacheLoader.isAlive()))  _loadAppCache();
-		}
+		AppIndex.get();
 	} 
 	
-	private static Thread appCacheLoader=null;
-	
-	private static void _loadAppCache() {
-		appCacheLoader=new Thread() {
-		  @Override
-		  public void run() {
-			  appCache=null;
-			  appCache=getAppsToCache();
-			  synchronized(AppCacheEntry.class) {
-				  appCacheLoader=null;
-				  AppCacheEntry.class.notify();	
-			  }
-		  }
-		};
-		//t.setPriority(Thread.MIN_PRIORITY);
-		appCacheLoader.start();
-	}
-	
 	public static void getLaunchAppByNameList(String appName, List<AppCacheEntry> al) {
 		appName=trim(appName.toLowerCase());
 		String appNameNSP=removeSpaces(appName.replace('\'', ' ').replace(" is ", "s"));
@@ -21,7 +21,6 @@ import java.util.Hashtable;
 import java.util.Vector;
 import java.util.WeakHashMap;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import com.magnifis.parking.model.GooDirectionsScraperParams;
@@ -68,10 +67,10 @@ public class SettingsFetcher extends XMLFetcher<GooDirectionsScraperParams> {
 			URL u=(URL)params[0];
 			InputStream is=invokeRequest(u,null, null, null);
 			if (is!=null) try {
-	           Document doc=Xml.loadXmlFile(is);
-	           if (doc!=null) {
+	           Xml.LightElement root=Xml.loadXmlTree(is);
+	           if (root!=null) {
 	        	   GooDirectionsScraperParams scraperParams=Xml.setPropertiesFrom(
-	        			 doc.getDocumentElement(), GooDirectionsScraperParams.class
+	        			 root, GooDirectionsScraperParams.class
 	        	  );
 	              if (scraperParams!=null) {
 	            	  EtaMonitor.setParams(scraperParams); 
@@ -439,7 +439,7 @@ public class SmsActivity extends Activity implements TextMessageQue,
 				toSay.append(s);
 			} else {
 				toShow.append(getSmsBodyToShow());
-				toSay.append(translit.process(getSmsBodyToSpeak()));
+				translit.append(getSmsBodyToSpeak(), toSay);
 			}
 			if (!lockedNotMA) {
 				toSay.append(" . ");
@@ -447,7 +447,7 @@ public class SmsActivity extends Activity implements TextMessageQue,
 			}
 		} else if (!instant) {
 			toShow.append(getSmsHeaderToShow());
-			toSay.append(translit.process(getSmsHeaderToSpeak()));
+			translit.append(getSmsHeaderToSpeak(), toSay);
 			if (!lockedNotMA && !can_read) {
 				toSay.append(" . ");
 				toSay.append(App.self.getString(R.string.shell_i_read_it));
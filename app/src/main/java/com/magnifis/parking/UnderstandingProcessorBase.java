@@ -13,7 +13,6 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import android.app.Activity;
@@ -41,6 +40,7 @@ import com.magnifis.parking.model.GooXmlApiReply;
 import com.magnifis.parking.model.Horoscope;
 import com.magnifis.parking.model.MagNews;
 import com.magnifis.parking.model.MagReply;
+import com.magnifis.parking.phonebook.NeoPhonebookMatcher;
 import com.magnifis.parking.model.MagTraffic;
 import com.magnifis.parking.model.Origin;
 import com.magnifis.parking.model.Poi;
@@ -125,14 +125,28 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 	
 	protected boolean fAborted=false;
 	
+	// the contact searches made while processing, aborting it doesn't affect other processors 
+	private final NeoPhonebookMatcher.SearchScope searches=new NeoPhonebookMatcher.SearchScope();
+	
 	public  class MainAborter implements Runnable {
 		@Override
 		public void run() {
 			fAborted=true;
 			VoiceIO.interruptPendingRequest();
+			searches.abort();
 		}
 	};
 	
+	@Override
+	protected MagReply doInBackground(Object... params) {
+		NeoPhonebookMatcher.SearchScope prev=NeoPhonebookMatcher.enterScope(searches);
+		try {
+			return super.doInBackground(params);
+		} finally {
+			NeoPhonebookMatcher.leaveScope(prev);
+		}
+	}
+	
 	@Override
 	protected MagReply consumeData(Object o) {
 		return consumeUnderstanding((Understanding) o);
@@ -161,9 +175,14 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 	}
 	
 	@Override
-	protected MagReply consumeXmlData(Element root) {
-		if (!fAborted&&root!=null) try {
-			return consumeUnderstanding(Xml.setPropertiesFrom(root, Understanding.class));
+	protected Class<?> getModelClass() {
+		return Understanding.class;
+	}
+	
+	@Override
+	protected MagReply consumeModel(Object model) {
+		if (!fAborted) try {
+			return consumeUnderstanding((Understanding)model);
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
@@ -248,10 +267,10 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 		try {
 			InputStream is=invokeRequest(u,null, null, null);
 			if (is!=null) try {
-               Document doc=Xml.loadXmlFile(is);
-               if (doc!=null) {
+               Xml.LightElement root=Xml.loadXmlTree(is);
+               if (root!=null) {
             	 T pr=Xml.setPropertiesFrom(
-            			 doc.getDocumentElement(), cls);
+            			 root, cls);
             	 if (pr!=null) return pr;
                }
 			} finally {
@@ -268,10 +287,10 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 		try {
 			InputStream is=invokeRequest(u,null, null, null);
 			if (is!=null) try {
-               Document doc=Xml.loadXmlFile(is);
-               if (doc!=null) {
+               Xml.LightElement root=Xml.loadXmlTree(is);
+               if (root!=null) {
             	 MagTraffic mt=Xml.setPropertiesFrom(
-            			 doc.getDocumentElement(), MagTraffic.class);
+            			 root, MagTraffic.class);
             	 if (mt!=null) return mt.getReports();
                }
 			} finally {
@@ -319,10 +338,10 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 		try {
 			InputStream is=invokeRequest(u,null, null, null);
 			if (is!=null) try {
-               Document doc=Xml.loadXmlFile(is);
-               if (doc!=null) {
+               Xml.LightElement root=Xml.loadXmlTree(is);
+               if (root!=null) {
             	 MagNews mt=Xml.setPropertiesFrom(
-            			 doc.getDocumentElement(), MagNews.class);
+            			 root, MagNews.class);
             	 if (mt!=null) return mt.getItems();
                }
 			} finally {
@@ -346,10 +365,10 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 		try {
 			InputStream is=invokeRequest(u,null, null, null);
 			if (is!=null) try {
-               Document doc=Xml.loadXmlFile(is);
-               if (doc!=null) {
+               Xml.LightElement root=Xml.loadXmlTree(is);
+               if (root!=null) {
             	 Horoscope mt=Xml.setPropertiesFrom(
-            			 doc.getDocumentElement(), Horoscope.class);
+            			 root, Horoscope.class);
             	 if (mt!=null) return mt.getDescription();
                }
 			} finally {
@@ -377,11 +396,11 @@ public  class UnderstandingProcessorBase extends XMLFetcher<MagReply> {
 				is=invokeRequest(u,null, null, null);
 			
 			if (is!=null) try {
-               Document doc=Xml.loadXmlFile(is);
-               if (doc!=null) {
-   //         	  Log.d(TAG,Xml.domToText(doc.getDocumentElement(), true, true).toString());
+               Xml.LightElement root=Xml.loadXmlTree(is);
+               if (root!=null) {
+   //         	  Log.d(TAG,Xml.domToText(root, true, true).toString());
             	   WWOnlineResponse ww=Xml.setPropertiesFrom(
-            			 doc.getDocumentElement(), WWOnlineResponse.class
+            			 root, WWOnlineResponse.class
             	  );
                   if (ww!=null) {
                 	  GooWeather w=ww.toGooWeather();
@@ -153,13 +153,13 @@ public class VoiceIO {
 	private Runnable rrListen = new Runnable() {
 		public void run() {
 			_fireOpes();
-			if (MainActivity.isOnTop()||SuzieService.isSuzieVisible()/* should be isSuzieActive*/)
-			  synchronized (MyTTS.class) {
+			if (MainActivity.isOnTop()||SuzieService.isSuzieVisible()/* should be isSuzieActive*/) {
+				// if the speech ends meanwhile, execAfterTheSpeech() runs the listener at once
 				if (MyTTS.isSpeaking())
 					listenAfterTheSpeech();
 				else
 					listen();
-			 }
+			}
 		}
 	};
 	
@@ -180,13 +180,11 @@ public class VoiceIO {
 			if (MainActivity.get() == null && !SuzieService.isSuzieVisible())
 				return;
 			if (shouldListenAfterCommand || advance != null) {
-				synchronized (MyTTS.class) {
-					if (MyTTS.isSpeaking())
-						condListenAfterTheSpeech();
-					else {
-						_fireOpes();
-						listen();
-					}
+				if (MyTTS.isSpeaking())
+					condListenAfterTheSpeech();
+				else {
+					_fireOpes();
+					listen();
 				}
 			} else
 				_fireOpes();
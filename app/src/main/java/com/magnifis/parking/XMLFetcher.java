@@ -3,8 +3,6 @@
  */
 package com.magnifis.parking;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,34 +21,24 @@ public class XMLFetcher<T> extends Fetcher<T> {
 	@Override
 	protected T consumeInputStream(InputStream is)  throws IOException {
 		if (is!=null) {
-			ByteArrayOutputStream bais=new ByteArrayOutputStream();
-			IOException xx=null;
+			// the parser reads the reply as it arrives
+			FetchInputStream fis=is instanceof FetchInputStream
+				?(FetchInputStream)is
+				:new FetchInputStream(is, N_READ_ATTEMPS);
 			
-			stream_reading:for (;;) {
-			   int k=0;
-			   for (int i=0;i<N_READ_ATTEMPS;i++) try {
-				   xx=null;
-				   if (i>0) try {
-					   Thread.sleep(100);
-				   } catch(InterruptedException ix) {
-					   return null;
-				   }
-			     k=is.read();
-			     if (k<0) break stream_reading;
-			     break;
-			   } catch(IOException x) {
-				 xx=x;
-			   }
-			   if (xx!=null) {
-				   exactNcePlace("XMLFetcher#1",xx);
-				   throw xx;
-			   }
-			   bais.write(k);
-			}
+			Class<?> mc=getModelClass();
+			Document doc=null;
+			Xml.LightElement root=null;
+			if (mc==null) doc=Xml.loadXmlFile(fis); else root=Xml.loadXmlTree(fis);
 			
+			IOException xx=fis.getFailure();
+			if (xx!=null) {
+				exactNcePlace("XMLFetcher#1",xx);
+				throw xx;
+			}
 			
-			Document doc=Xml.loadXmlFile(new ByteArrayInputStream(bais.toByteArray()));
 			if (doc!=null) return consumeXmlData(doc.getDocumentElement());
+			if (root!=null) return consumeModel(Xml.setPropertiesFrom(root, mc));
 			   exactNcePlace("XMLFetcher#2");
 		}
 		exactNcePlace("XMLFetcher#3");
@@ -60,4 +48,17 @@ public class XMLFetcher<T> extends Fetcher<T> {
 	protected T consumeXmlData(Element root) {
 	   return (T)root;
 	}
+	
+	/**
+	 * A fetcher which binds the reply to an @ML model returns its class here,
+	 * the reply is read into a LightElement tree then instead of DOM
+	 * and the model goes to consumeModel() in place of consumeXmlData()
+	 */
+	protected Class<?> getModelClass() {
+	   return null;
+	}
+	
+	protected T consumeModel(Object model) {
+	   return (T)model;
+	}
 }
\ No newline at end of file
@@ -148,12 +148,18 @@ import java.lang.reflect.Type;
 
 import javax.xml.parsers.DocumentBuilderFactory;        
 import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.robinlabs.utils.BaseUtils;
+import com.robinlabs.utils.PerClass;
 
 import android.text.TextUtils;
 import android.text.format.Time;
@@ -161,8 +167,10 @@ import android.util.Log;
 
 import java.net.*;
 import java.text.DateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * A class that provides utilizes to deal with XML-files
@@ -219,7 +227,7 @@ public class Xml {
   public  static org.w3c.dom.Document loadXmlFile(InputStream is) {
      org.w3c.dom.Document doc=null;
      try {
-        DocumentBuilder builder=DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        DocumentBuilder builder=newDocumentBuilder();
         if (is!=null) try {
           doc=builder.parse(is);
         } finally {
@@ -229,6 +237,169 @@ public class Xml {
      return doc;
   }
   
+  private static DocumentBuilderFactory builderFactory=null;
+  
+  // looking the factory up is the expensive part, the builders are not thread safe
+  private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+	 synchronized(Xml.class) {
+		if (builderFactory==null) builderFactory=DocumentBuilderFactory.newInstance();
+		return builderFactory.newDocumentBuilder();
+	 }
+  }
+  
+  /**
+   * reads an XML-document into a tree of LightElement in one pass of XmlPullParser
+   * @return the root element, or <b>null</b> if any error
+   */
+  public static LightElement loadXmlTree(InputStream is) {
+	 LightElement root=null;
+     try {
+        if (is!=null) try {
+          XmlPullParser xpp=android.util.Xml.newPullParser();
+          // DOM is read without namespace processing, prefixed names must stay as they are
+          xpp.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+          xpp.setInput(is, null);
+          root=readTree(xpp);
+        } finally {
+          is.close();
+        }
+     } catch (Throwable t) { t.printStackTrace(); }
+     return root;
+  }
+  
+  private static LightElement readTree(XmlPullParser xpp) throws XmlPullParserException, IOException {
+	 LightElement root=null, cur=null;
+	 for (int ev=xpp.nextToken();ev!=XmlPullParser.END_DOCUMENT;ev=xpp.nextToken()) 
+	  switch (ev) {
+	  case XmlPullParser.START_TAG:
+		 LightElement el=new LightElement(xpp,cur);
+		 if (cur==null) root=el; else cur.add(el);
+		 cur=el;
+		 break;
+	  case XmlPullParser.END_TAG:
+		 cur=cur.parent;
+		 break;
+	  case XmlPullParser.TEXT:
+	  case XmlPullParser.ENTITY_REF:
+	  case XmlPullParser.IGNORABLE_WHITESPACE:
+		 if (cur!=null) cur.addText(xpp.getText());
+		 break;
+	  case XmlPullParser.CDSECT:
+		 if (cur!=null) cur.add(new CData(xpp.getText()));
+		 break;
+	  case XmlPullParser.COMMENT:
+	  case XmlPullParser.PROCESSING_INSTRUCTION:
+		 // are not read but count as child nodes just like in DOM
+		 if (cur!=null) cur.nChildNodes++;
+	  }
+	 return root;
+  }
+  
+  private static class CData {
+	final String text;
+	CData(String text) {
+	  this.text=text;
+	}
+  }
+  
+  /**
+   * An element of the tree built by loadXmlTree(). Keeps only what setPropertiesFrom
+   * needs: the tag name, the attributes in document order and the element, text and
+   * CDATA children, so it is much cheaper than the W3C DOM of the same document.
+   */
+  public static class LightElement {
+	private final String tagName;
+	private final LightElement parent;
+	private final String attrs[]; // name, value, name, value ...
+	private ArrayList<Object> children=null; // LightElement, String (text) or CData
+	private int nChildNodes=0;
+	
+	private final static String NO_ATTRS[]={};
+	
+	private LightElement(XmlPullParser xpp, LightElement parent) {
+	  this.parent=parent;
+	  tagName=xpp.getName();
+	  int n=xpp.getAttributeCount();
+	  if (n>0) {
+		attrs=new String[n<<1];
+		for (int i=0;i<n;i++) {
+		  attrs[i<<1]=xpp.getAttributeName(i);
+		  attrs[(i<<1)+1]=xpp.getAttributeValue(i);
+		}
+	  } else
+		attrs=NO_ATTRS;
+	}
+	
+	private void add(Object child) {
+	  if (children==null) children=new ArrayList<Object>(4);
+	  children.add(child);
+	  nChildNodes++;
+	}
+	
+	private void addText(String t) {
+	  if (t==null) return;
+	  int last=children==null?-1:children.size()-1;
+	  if (last>=0&&children.get(last) instanceof String) 
+		children.set(last, (String)children.get(last)+t); 
+	  else
+		add(t);
+	}
+	
+	public String getTagName() {
+	  return tagName;
+	}
+	
+	public LightElement getParent() {
+	  return parent;
+	}
+	
+	public boolean hasAttribute(String name) {
+	  for (int i=0;i<attrs.length;i+=2) if (attrs[i].equals(name)) return true;
+	  return false;
+	}
+	
+	// "" if there is no such attribute, the same as in DOM
+	public String getAttribute(String name) {
+	  for (int i=0;i<attrs.length;i+=2) if (attrs[i].equals(name)) return attrs[i+1];
+	  return "";
+	}
+	
+	/**
+	 * the descendants with the tag name in document order, "*" matches any tag 
+	 */
+	public List<LightElement> getElementsByTagName(String name) {
+	  List<LightElement> res=new ArrayList<LightElement>();
+	  collect(name,res,false);
+	  return res;
+	}
+	
+	// the first descendant with the tag name
+	public LightElement getFirstByTagName(String name) {
+	  List<LightElement> res=new ArrayList<LightElement>(1);
+	  collect(name,res,true);
+	  return res.isEmpty()?null:res.get(0);
+	}
+	
+	private boolean collect(String name, List<LightElement> res, boolean firstOnly) {
+	  if (children!=null) for (Object o:children) if (o instanceof LightElement) {
+		LightElement el=(LightElement)o;
+		if ("*".equals(name)||el.tagName.equals(name)) {
+		  res.add(el);
+		  if (firstOnly) return true;
+		}
+		if (el.collect(name,res,firstOnly)) return true;
+	  }
+	  return false;
+	}
+	
+	public LightElement getChild(String name) {
+	  if (children!=null) for (Object o:children) 
+		if (o instanceof LightElement&&((LightElement)o).tagName.equals(name)) 
+		  return (LightElement)o;
+	  return null;
+	}
+  }
+  
   @Retention(value=RetentionPolicy.RUNTIME)
   @Target(value=ElementType.FIELD)
   public static @interface ML {
@@ -289,67 +460,206 @@ public class Xml {
   public static <T> T setPropertiesFrom(
     org.w3c.dom.Element node,
     T obj
+  ) {
+	return setPropertiesFrom(DOM_ACCESS,node,obj);
+  }
+  
+  public static <T> T setPropertiesFrom(
+	LightElement node,
+	Class<T> cls
+  ) {
+	T v=null;
+    try {
+		v=setPropertiesFrom(node,(T)cls.newInstance());
+	} catch (IllegalAccessException e) {
+		e.printStackTrace();
+	} catch (InstantiationException e) {
+		e.printStackTrace();
+	}	
+    return v;
+  }
+  
+  public static <T> T setPropertiesFrom(
+	LightElement node,
+	T obj
+  ) {
+	return setPropertiesFrom(LIGHT_ACCESS,node,obj);
+  }
+  
+  /**
+   * One @ML annotation of a field, the annotations of an ML_alternatives 
+   * field make a Binding each
+   */
+  private static class Binding {
+	final Field field;
+	final Class type;
+	final ML an;
+	final boolean useAttr, indirect;
+	final String tag;
+	
+	Binding(Field field, ML an) {
+	  this.field=field;
+	  this.an=an;
+	  type=field.getType();
+	  useAttr=an.attr().length()>0;
+	  indirect=an.indirect();
+	  String anv=an.value();
+	  String tag=useAttr?an.tag():(anv.length()==0?an.tag():anv);
+	  this.tag="".equals(tag)?null:tag;
+	}
+  }
+  
+  // the bindings of a class and its superclasses in the order setPropertiesFrom applies them
+  private final static PerClass<Binding[]> bindings=new PerClass<Binding[]>() {
+	@Override
+	protected Binding[] compute(Class<?> cls) {
+	  ArrayList<Binding> res=new ArrayList<Binding>();
+	  for (Class cl:BaseUtils.getSuperClasses(cls)) for (Field fl:cl.getDeclaredFields()) {
+		ML anns[]=null;
+		if (fl.isAnnotationPresent(ML.class)) 
+		  anns=new ML[] { fl.getAnnotation(ML.class) };
+		else if (fl.isAnnotationPresent(ML_alternatives.class)) 
+		  anns=fl.getAnnotation(ML_alternatives.class).value();
+		if (anns!=null) {
+		  fl.setAccessible(true);
+		  for (ML an:anns) res.add(new Binding(fl,an));
+		}
+	  }
+	  return res.toArray(new Binding[res.size()]);
+	}
+  };
+  
+  /**
+   * What setPropertiesFrom needs of a tree, the same binding code runs 
+   * over W3C DOM and over LightElement 
+   */
+  private static abstract class NodeAccess<N> {
+	abstract List<N> getElementsByTagName(N node, String name);
+	abstract Object getParentNode(N node);
+	abstract N getTag(N node, String name, boolean indirect);
+	abstract boolean hasAttribute(N el, String name);
+	abstract String getAttribute(N el, String name);
+	abstract String getInnerText(N el);
+	abstract CharSequence getContent(N el); // domToText(el,false,true)
+  }
+  
+  private final static NodeAccess<Element> DOM_ACCESS=new NodeAccess<Element>() {
+	@Override
+	List<Element> getElementsByTagName(Element node, String name) {
+	  final NodeList nl=node.getElementsByTagName(name);
+	  return nl==null?null:new AbstractList<Element>() {
+		@Override
+		public Element get(int i) {
+		  return (Element)nl.item(i);
+		}
+		@Override
+		public int size() {
+		  return nl.getLength();
+		}
+	  };
+	}
+	@Override
+	Object getParentNode(Element node) {
+	  return node.getParentNode();
+	}
+	@Override
+	Element getTag(Element node, String name, boolean indirect) {
+	  return Xml.getTag(node,name,indirect);
+	}
+	@Override
+	boolean hasAttribute(Element el, String name) {
+	  return el.hasAttribute(name);
+	}
+	@Override
+	String getAttribute(Element el, String name) {
+	  return el.getAttribute(name);
+	}
+	@Override
+	String getInnerText(Element el) {
+	  return Xml.getInnerText(el);
+	}
+	@Override
+	CharSequence getContent(Element el) {
+	  return domToText(el,false,true);
+	}
+  };
+  
+  private final static NodeAccess<LightElement> LIGHT_ACCESS=new NodeAccess<LightElement>() {
+	@Override
+	List<LightElement> getElementsByTagName(LightElement node, String name) {
+	  return node.getElementsByTagName(name);
+	}
+	@Override
+	Object getParentNode(LightElement node) {
+	  return node.getParent();
+	}
+	@Override
+	LightElement getTag(LightElement node, String name, boolean indirect) {
+	  return Xml.getTag(node,name,indirect);
+	}
+	@Override
+	boolean hasAttribute(LightElement el, String name) {
+	  return el.hasAttribute(name);
+	}
+	@Override
+	String getAttribute(LightElement el, String name) {
+	  return el.getAttribute(name);
+	}
+	@Override
+	String getInnerText(LightElement el) {
+	  return Xml.getInnerText(el);
+	}
+	@Override
+	CharSequence getContent(LightElement el) {
+	  return domToText(el,false,true);
+	}
+  };
+  
+  private static <N,T> T setPropertiesFrom(
+    NodeAccess<N> acc,
+    N node,
+    T obj
   ) {
 	if (node==null)  Log.d(TAG,"node==null");
 	boolean ok=true;
 	
-	Class cls=obj.getClass();
-	ArrayList<Class> clss=new ArrayList<Class>(10);
-	do {
-		clss.add(cls);
-		cls=cls.getSuperclass();
-	} while (cls!=null);
-	
-	for (Class cl:clss) for (Field fl:cl.getDeclaredFields()) {
-      fl.setAccessible(true);
-      
-      ML anns[]=null;
-      
-      if (fl.isAnnotationPresent(ML.class)) 
-    	anns=new ML[] { fl.getAnnotation(ML.class) };
-      else if (fl.isAnnotationPresent(ML_alternatives.class)) 
-    	anns=fl.getAnnotation(ML_alternatives.class).value();
-    	  
-      
-      if (anns!=null) {
-    	Class flType=fl.getType();
-    	  
-        for (ML an:anns) try {
+	for (Binding b:bindings.get(obj.getClass())) {
+        Field fl=b.field;
+        Class flType=b.type;
+        ML an=b.an;
+        try {
           String sVal=null;
 
-          boolean useAttr=an.attr().length()>0,indirect=an.indirect();
-          
-          String anv=an.value();
-          String tag=useAttr?an.tag():(anv.length()==0?an.tag():anv);
-          if ("".equals(tag)) tag=null;
+          boolean useAttr=b.useAttr,indirect=b.indirect;
+          String tag=b.tag;
           
           //Log.d(TAG,"@@ "+fl.getName()+" tag:"+tag+" node:"+node);
           
           if (flType.isArray()) {
-            NodeList nl=node.getElementsByTagName(tag);
+            List<N> nl=acc.getElementsByTagName(node,tag);
             if (nl==null) {
                if (useAttr&&an.value().length()>0) {
-                 nl=node.getElementsByTagName(an.value());
+                 nl=acc.getElementsByTagName(node,an.value());
                }    
                if (nl==null) continue;
                useAttr=false;
             } 
             if (nl!=null){
-            	int nll=nl.getLength();
+            	int nll=nl.size();
             	if (!indirect) {
-            	   for (int i=0;i<nl.getLength();i++) 
-            		  if (node!=nl.item(i).getParentNode()) nll--;
+            	   for (int i=0;i<nl.size();i++) 
+            		  if (node!=acc.getParentNode(nl.get(i))) nll--;
             		  
             	}
             	if (nll>0) {
             		Class cc=flType.getComponentType();
             		Object ar=java.lang.reflect.Array.newInstance(cc, nll);
-            		for (int i=0,j=0;i<nl.getLength();i++) {
-            		  Node nli=nl.item(i);
-            		  if (indirect||(node==nli.getParentNode())) {
+            		for (int i=0,j=0;i<nl.size();i++) {
+            		  N nli=nl.get(i);
+            		  if (indirect||(node==acc.getParentNode(nli))) {
             			Object ob=null;
             			if (isSimpleClass(cc)) {
-            			   String txt=getInnerText(nli);
+            			   String txt=acc.getInnerText(nli);
             			   if (cc==String.class) {
                               ob=txt;
             			   } else if (cc==Double.class||cc==double.class) { 
@@ -359,7 +669,7 @@ public class Xml {
          			       }
             			} else {
             			  ob=cc.newInstance();
-            			  setPropertiesFrom((org.w3c.dom.Element)nli,ob);
+            			  setPropertiesFrom(acc,nli,ob);
             			}
             			Array.set(ar, j++, ob);
             		  }
@@ -372,13 +682,12 @@ public class Xml {
           } else {
         	 // Log.d(TAG,"@55@ "+fl.getName()+" tag:"+tag+" node:"+node);
         	  
-              org.w3c.dom.Element 
-                 el=(tag==null)?((org.w3c.dom.Element)node):getTag(node,tag,indirect);  
+              N el=(tag==null)?node:acc.getTag(node,tag,indirect);  
         	  
               if (el==null) {
             	 // Log.d(TAG,"el==null "+domToText(node));
                 if (useAttr&&an.value().length()>0) {
-                  el=getTag(node,an.value(),indirect);
+                  el=acc.getTag(node,an.value(),indirect);
                 }
                 if (el==null) continue;
                 useAttr=false;
@@ -386,8 +695,8 @@ public class Xml {
               
               if (useAttr) {
             	 // Log.d(TAG,"useAttr ");
-                if (el.hasAttribute( an.attr())) 
-                	sVal=el.getAttribute(an.attr());
+                if (acc.hasAttribute(el, an.attr())) 
+                	sVal=acc.getAttribute(el, an.attr());
                 else
                 	continue;
               } else {
@@ -395,12 +704,12 @@ public class Xml {
             		  Object fo=flType.newInstance();
             		 //if (fo!=null) {
             		//  Log.d(TAG,"%%%% !simpleClass");
-            		  fl.set(obj,setPropertiesFrom(el,fo)); 
+            		  fl.set(obj,setPropertiesFrom(acc,el,fo)); 
             		 // Log.d(TAG,"%%%% is set "+fl.getName()+" "+fl.get(obj));
             		 //}
             	   continue;
             	}
-            	CharSequence val=domToText(el,false, true);
+            	CharSequence val=acc.getContent(el);
             	if (val!=null) sVal= val.toString();//getInnerText(el);
 
               }
@@ -447,7 +756,6 @@ public class Xml {
           //ex.printStackTrace();
         }
         //setPropertyFrom(node,an.value(),fl.getName(),obj);
-      }
     }
     return ok?obj:null;
   }
@@ -513,6 +821,70 @@ public class Xml {
 	return sb;
   }
   
+  public static CharSequence domToText(LightElement el) {
+	return domToText(el,true, false);
+  }
+  
+  public static CharSequence domToText(LightElement el, boolean withEnvelope, boolean topLevel) {
+	StringBuilder sb=new StringBuilder();
+	domToText(el,withEnvelope,sb);
+	return (!withEnvelope&&topLevel&&el.nChildNodes==0)?null:sb;
+  }
+  
+  private static void domToText(LightElement el, boolean withEnvelope, StringBuilder sb) {
+    if (withEnvelope) {
+      sb.append("\n<");
+      sb.append(el.tagName);
+      for (int i=0;i<el.attrs.length;i+=2) {
+    	 sb.append(' ');
+    	 sb.append(el.attrs[i]);
+    	 sb.append("=\"");
+    	 sb.append(TextUtils.htmlEncode(el.attrs[i+1]));
+    	 sb.append('"');
+      }
+    }
+    if (el.nChildNodes>0) {
+    	if (withEnvelope) sb.append('>');
+    	if (el.children!=null) for (Object o:el.children) {
+    	  if (o instanceof LightElement) domToText((LightElement)o,true,sb); else {
+    		String t=(o instanceof CData)?((CData)o).text:(String)o;
+    		sb.append(withEnvelope?TextUtils.htmlEncode(t):t);
+    	  }
+    	}
+    	if (withEnvelope) {
+    		sb.append("</");
+    		sb.append(el.tagName);
+    		sb.append('>');   
+    	}
+    } else
+      if (withEnvelope) sb.append("/>");
+  }
+  
+  // unlike domToText, skips CDATA just as getInnerText(Node) does 
+  public static String getInnerText(LightElement el) {
+	StringBuilder sb=new StringBuilder();
+	return innerText(el,sb)?sb.toString():null;
+  }
+  
+  private static boolean innerText(LightElement el, StringBuilder sb) {
+	boolean found=false;
+	if (el.children!=null) for (Object o:el.children) 
+	  if (o instanceof String) {
+		sb.append((String)o);
+		found=true;
+	  } else if (o instanceof LightElement) 
+		found|=innerText((LightElement)o,sb);
+	return found;
+  }
+  
+  public static LightElement getTag(LightElement node, String name, boolean idirect) {
+	 if (idirect) {
+		LightElement el=node.getFirstByTagName(name);
+		if (el!=null) return el;
+	 }
+	 return node.getChild(name);
+  }
+  
   public static String getInnerText(Node node) {
 	if (node.getNodeType()==Node.TEXT_NODE) return node.getNodeValue();
     NodeList nl=node.getChildNodes();
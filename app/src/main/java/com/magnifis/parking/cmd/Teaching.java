@@ -11,7 +11,6 @@ import com.magnifis.parking.R;
 import com.magnifis.parking.VR;
 import com.magnifis.parking.VoiceIO;
 import com.magnifis.parking.XMLFetcher;
-import com.magnifis.parking.Xml;
 import com.magnifis.parking.cmd.etc.CmdHandlerHolder;
 import com.magnifis.parking.cmd.i.ClientStateInformer;
 import com.magnifis.parking.cmd.i.LocalCommandHandler;
@@ -23,7 +22,6 @@ import com.magnifis.parking.model.UnderstandingStatus;
 import com.magnifis.parking.tts.MyTTS;
 import com.magnifis.parking.utils.Utils;
 
-import org.w3c.dom.Element;
 
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -484,9 +482,14 @@ public class Teaching extends CmdHandlerBase implements LocalCommandHandler, Mag
 		}
 		
 		@Override
-		protected MagReply consumeXmlData(Element root) {
-			if (root!=null) try {
-				return consumeUnderstanding(Xml.setPropertiesFrom(root, Understanding.class));
+		protected Class<?> getModelClass() {
+			return Understanding.class;
+		}
+		
+		@Override
+		protected MagReply consumeModel(Object model) {
+			try {
+				return consumeUnderstanding((Understanding)model);
 			} catch (Throwable t) {
 				t.printStackTrace();
 			}
@@ -1,5 +1,15 @@
 package com.magnifis.parking.db;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import com.magnifis.parking.Log;
 import com.magnifis.parking.model.CalleeAssociation;
 import com.magnifis.parking.model.DlStat;
@@ -20,10 +30,111 @@ public class RobinDB extends SqliteDB {
 	final static private String DATABASE_PATH=Environment.getExternalStorageDirectory()+
 			  "/.MagnifisRobin/robin_db.db";
 	
+	private static volatile RobinDB opened=null;
+	
 	public <O extends SQLiteOpenHelper> RobinDB(Context context,
 			String databaseName) {
 		super(context, databaseName);
-
+		load();
+		opened=this;
+	}
+	
+	/*
+	 * The said phrases and the props are loaded once, when the database is opened, 
+	 * and are read from memory then without locking. A change goes to memory at once 
+	 * and is queued, the queue is written in one transaction FLUSH_DELAY later or 
+	 * on flush().
+	 */
+	private final static long FLUSH_DELAY=2000;
+	
+	private final Set<Integer> saidPhrases=Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>());
+	private final ConcurrentHashMap<String,String> props=new ConcurrentHashMap<String,String>();
+	private final ConcurrentLinkedQueue<Object> pending=new ConcurrentLinkedQueue<Object>();
+	private final AtomicBoolean flushScheduled=new AtomicBoolean(false);
+	
+	private static ScheduledThreadPoolExecutor writer=null;
+	
+	private static synchronized ScheduledThreadPoolExecutor getWriter() {
+		if (writer==null) writer=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "RobinDB writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return writer;
+	}
+	
+	private void load() {
+		forEachWhere(null, null, SaidPhrase.class, new RowHandler<SaidPhrase>() {
+			@Override
+			public boolean onRow(SaidPhrase sp) {
+				saidPhrases.add(sp.getPhraseId());
+				return true;
+			}
+		});
+		forEachWhere(null, null, RobinProps.class, new RowHandler<RobinProps>() {
+			@Override
+			public boolean onRow(RobinProps p) {
+				if (p.getKey()!=null&&p.getValue()!=null) props.put(p.getKey(), p.getValue());
+				return true;
+			}
+		});
+		Log.d(TAG, "loaded "+saidPhrases.size()+" said phrases, "+props.size()+" props");
+	}
+	
+	private void enqueue(Object record) {
+		pending.add(record);
+		if (flushScheduled.compareAndSet(false, true)) getWriter().schedule(new Runnable() {
+			@Override
+			public void run() {
+				flushScheduled.set(false);
+				flush();
+			}
+		}, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+	}
+	
+	// the writer thread, onTrimMemory and onTerminate may flush at the same time,
+	// the batches are taken and written under one lock, so an older one can't overwrite a newer one 
+	private final Object flushLock=new Object();
+	
+	/**
+	 * writes the queued changes now, on the calling thread
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			ArrayList<Object> records=new ArrayList<Object>();
+			for (Object r;(r=pending.poll())!=null;) records.add(r);
+			if (!records.isEmpty()) try {
+				saveAll(records);
+			} catch (Throwable t) {
+				Log.e(TAG, " -- ", t);
+			}
+		}
+	}
+	
+	/**
+	 * flushes the database if it has been opened, does not open it
+	 */
+	public static void flushPending() {
+		RobinDB rdb=opened;
+		if (rdb!=null) rdb.flush();
+	}
+	
+	public boolean isPhraseSaid(int id) {
+		return saidPhrases.contains(id);
+	}
+	
+	public void markPhraseSaid(int id) {
+		if (saidPhrases.add(id)) enqueue(new SaidPhrase().setPhraseId(id));
+	}
+	
+	// returns false if the prop has been set already 
+	public boolean setPropIfAbsent(String key, String value) {
+		if (value==null||props.putIfAbsent(key, value)!=null) return false;
+		enqueue(new RobinProps().setKey(key).setValue(value));
+		return true;
 	}
 	
 	@Override
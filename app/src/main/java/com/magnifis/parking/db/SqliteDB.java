@@ -13,13 +13,13 @@ import java.lang.reflect.Method;
 import java.sql.Date;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.WeakHashMap;
 
 import com.magnifis.parking.Xml.ML;
@@ -38,6 +38,7 @@ import android.database.sqlite.SQLiteStatement;
 import com.magnifis.parking.Log;
 import com.magnifis.parking.utils.Utils;
 import com.robinlabs.utils.BaseUtils;
+import com.robinlabs.utils.PerClass;
 
 public class SqliteDB {
 	
@@ -145,14 +146,259 @@ public class SqliteDB {
         return (an.value()=="")?fl.getName():an.value();	
 	}
 	
+	// read only, shared
 	static public Map<String,Field> getTableFields(Class tbl) {
-		List<Field> lst=Utils.getAnnotatedFields(tbl, DB.class, true);
-		if (!Utils.isEmpty(lst)) {
-			Map<String,Field> res=new HashMap<String,Field>();
-			for (Field f:lst) res.put(getTableFieldName(f), f);
-			return res;
+		return plans.get(tbl).tableFields;
+	}
+	
+	/**
+	 * What the mappers need to know of a record class, it is built on the first use 
+	 * of the class and is shared then, so nothing of it is modified afterwards
+	 */
+	private static class TablePlan {
+		final String table;
+		final List<Field> dbFields; // @DB fields of the class and its superclasses, in order
+		final String columnNames[]; // of dbFields
+		final DB dbAnns[]; // of dbFields
+		final Map<String,Field> columns; // dbFields by column name
+		final Map<String,Field> tableFields; // the same, but null if there are no fields
+		final String selectList; // "select a,b,c"
+		final String pkField; // the column of the isPrimaryKey field, if any
+		
+		// what _insertOr needs: when no field is the primary key, the key is declared 
+		// by the class annotation and its value comes from getPrimaryKey() 
+		final String createStmt;
+		final LinkedHashMap<String,Field> insertFields=new LinkedHashMap<String,Field>(); // pkName->null for getPrimaryKey()
+		final String insertColumns; // " (a,b,c) "
+		final String insertValues; // " values (?,?,?)"
+		String pkName=null; 
+		Method pkm=null; 
+		
+		TablePlan(Class cls) {
+			table=getTableName(cls);
+			dbFields=Utils.getAnnotatedFields(cls, DB.class, true);
+			columnNames=new String[dbFields.size()];
+			dbAnns=new DB[columnNames.length];
+			
+			StringBuilder select=new StringBuilder("select ");
+			String stmt="create table if not exists "+table+" (";
+			boolean primaryKeyFound=false;
+			String pkf=null;
+			LinkedHashMap<String,Field> tf=new LinkedHashMap<String,Field>();
+			for (int i=0;i<columnNames.length;i++) {
+				Field fl=dbFields.get(i);
+				DB an=dbAnns[i]=fl.getAnnotation(DB.class);
+				String fldn=columnNames[i]=getTableFieldName(fl);
+				select.append(fldn).append(',');
+				tf.put(fldn, fl);
+				if (pkf==null&&an.isPrimaryKey()) pkf=an.value();
+				
+				stmt=completeColumnDeclaration(fldn,fl,an,stmt).toString();
+				if (an.isPrimaryKey()) {
+					stmt+=" primary key"; 
+					if (an.autoincrement()) stmt+=" autoincrement";
+					primaryKeyFound=true;
+				}
+				stmt+=",";
+				insertFields.put(fldn, fl);
+			}
+			columns=Collections.unmodifiableMap(tf);
+			tableFields=tf.isEmpty()?null:columns;
+			selectList=select.substring(0, select.length()-1);
+			pkField=pkf;
+			
+			if (primaryKeyFound) { 
+				stmt=stmt.substring(0,  stmt.length()-1); // remove trailing ","
+			} else {// generate primary key field
+				try {
+				  DB clsan=(DB) cls.getAnnotation(DB.class);
+				  pkName=clsan.primaryKey();	
+				  if (pkName.indexOf(',')>0) {
+					 // composite key
+					  stmt+="primary key ("+pkName+")";
+				  } else {
+				    pkm=cls.getMethod("getPrimaryKey");
+				    Class rt=pkm.getReturnType();
+				    stmt+=pkName+" "+typesMap.containsKey(rt)+" primary key";
+				    insertFields.put(pkName, null);
+				  }
+				} catch (Throwable  e) {
+				  stmt=stmt.substring(0,  stmt.length()-1); // remove trailing ","
+				  Log.e(TAG," -- ",e);
+				}	
+			} 
+			createStmt=stmt+")";
+			
+			StringBuilder sb=new StringBuilder(" ("), vs=new StringBuilder(" values (");
+			int jj=0;
+			for (String cn:insertFields.keySet()) {
+				  if (jj>0) {
+					  sb.append(",");
+					  vs.append(",");
+				  }
+				  sb.append(cn);
+				  vs.append("?");
+				  ++jj;
+			}
+			sb.append(") ");
+			vs.append(")");
+			insertColumns=sb.toString();
+			insertValues=vs.toString();
+		}
+	}
+	
+	private final static PerClass<TablePlan> plans=new PerClass<TablePlan>() {
+		@Override
+		protected TablePlan compute(Class<?> cls) {
+			return new TablePlan(cls);
+		}
+	};
+	
+	/*
+	 * The write path: the table of a class is created once per connection and 
+	 * the insert statement is compiled once per class and operator, all of it 
+	 * is guarded by the lock since a statement is not to be shared by threads
+	 */
+	private SQLiteDatabase preparedFor=null;
+	private final HashSet<Class> createdTables=new HashSet<Class>();
+	private final HashMap<String,SQLiteStatement> inserts=new HashMap<String,SQLiteStatement>();
+	
+	// the records of a batch which are written in one transaction
+	public final static int BATCH_SIZE=500;
+	
+	private void checkConnection() {
+		if (preparedFor!=db) {
+			for (SQLiteStatement st:inserts.values()) try {
+				st.close();
+			} catch(Throwable t) {}
+			inserts.clear();
+			createdTables.clear();
+			preparedFor=db;
+		}
+	}
+	
+	private void forget(Class cls) {
+		createdTables.remove(cls);
+		for (Iterator<Map.Entry<String,SQLiteStatement>> it=inserts.entrySet().iterator();it.hasNext();) {
+			Map.Entry<String,SQLiteStatement> en=it.next();
+			if (en.getKey().startsWith(cls.getName()+' ')) {
+				try {
+					en.getValue().close();
+				} catch(Throwable t) {}
+				it.remove();
+			}
+		}
+	}
+	
+	private void createTable(Class cls, TablePlan plan) {
+		checkConnection();
+		if (!createdTables.contains(cls)) {
+			Log.d(TAG, plan.createStmt);
+			db.execSQL(plan.createStmt); // create table if not exists
+			createdTables.add(cls);
+		}
+	}
+	
+	private SQLiteStatement getInsert(String operator, Class cls, TablePlan plan) {
+		createTable(cls, plan);
+		String key=cls.getName()+' '+operator;
+		SQLiteStatement st=inserts.get(key);
+		if (st==null) {
+			String sql="INSERT OR "+operator+" INTO "+plan.table+plan.insertColumns+plan.insertValues;
+			Log.d(TAG, sql);
+			st=db.compileStatement(sql);
+			inserts.put(key, st);
+		}
+		return st;
+	}
+	
+	private static void bind(SQLiteStatement st, int i, Object v) {
+		if (v==null) st.bindNull(i); else 
+		if (v instanceof byte[]) st.bindBlob(i, (byte[])v); else
+		if (v instanceof Long) st.bindLong(i, (Long)v); else
+		if (v instanceof Integer) st.bindLong(i, (Integer)v); else
+		if (v instanceof Short) st.bindLong(i, (Short)v); else
+		if (v instanceof Byte) st.bindLong(i, (Byte)v); else
+	    if (v instanceof java.util.Date) st.bindLong(i, ((java.util.Date)v).getTime() ); else
+		if (v instanceof Boolean) st.bindLong(i, ((Boolean)v?1:0)); else
+			st.bindString(i, v.toString());
+	}
+	
+	// returns the rowid or -1 if the record has not been written
+	private long insert(String operator, Object record) {
+		Class cls=record.getClass();
+		TablePlan plan=plans.get(cls);
+		SQLiteStatement st=getInsert(operator, cls, plan);
+		st.clearBindings();
+		int i=0;
+		for (Field fl:plan.insertFields.values()) {
+			Object v=null;
+			try {
+				v=(fl==null)?plan.pkm.invoke(record):fl.get(record);
+				if (fl!=null&&!typesMap.containsKey(fl.getType())) {
+					// handle BLOB
+					v=Utils.obj2bytes(v);
+				}
+			} catch (Throwable t) {
+				Log.e(TAG, " -- ",t);
+			}
+			bind(st, ++i, v);
+		}
+		try {
+			return st.executeInsert();
+		} catch(SQLiteException ex) {
+			// the table might have been changed behind our back, so it is checked again next time 
+			forget(cls);
+			throw ex;
 		}
-		return null;
+	}
+	
+	/**
+	 * Writes the records in transactions of BATCH_SIZE records, a failure rolls back
+	 * the current batch and is thrown.
+	 * 
+	 * Returns the number of records which have been written.
+	 */
+	public int insertOrAll(String operator, Collection<?> records) {
+		int n=0;
+		if (Utils.isEmpty(records)) return n;
+		synchronized(lock) {
+			Iterator<?> it=records.iterator();
+			while (it.hasNext()) {
+				db.beginTransaction();
+				try {
+					for (int k=0;k<BATCH_SIZE&&it.hasNext();k++)
+						if (insert(operator, it.next())!=-1) ++n;
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * runs the writes of the runnable in one transaction, one which throws rolls it back
+	 */
+	public void inTransaction(Runnable r) {
+		synchronized(lock) {
+			db.beginTransaction();
+			try {
+				r.run();
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+	
+	public int saveAll(Collection<?> records) {
+		return insertOrAll("REPLACE", records);
+	}
+	
+	public int insertOrIgnoreAll(Collection<?> records) {
+		return insertOrAll("IGNORE", records);
 	}
 	
 	public <T> boolean doesExist(Object key, Class<T> cls) {
@@ -163,17 +409,7 @@ public class SqliteDB {
 	private final static String duplicate_column_name="duplicate column name";
 	
 	public <T> boolean doesExist(String keyField, Object key, Class<T> cls) {
-		try {
-			String tbl=getTableName(cls);
-			Cursor cr=db.query(tbl, new String[] {keyField}, keyField+"=?", new String[] {key.toString()}, 
-					null, null, null);
-			return cr.getCount()>0;
-		} catch(SQLiteException ex) {
-			if (!ex.getMessage().contains(no_such_table)) {
-				Log.e(TAG, " -- ", ex);
-			}
-		}
-		return false;
+		return existsWhere(keyField+"=?", new String[] {key.toString()}, cls);
 	}
 	
 	public <T> List<T>  getAll(Class<T> cls, String ...orderBy) {
@@ -181,8 +417,7 @@ public class SqliteDB {
 	}
 	
 	public <T> T getBy(Object key, Class<T> cls,String ...orderBy) {
-		List<T> res=getBy(getPkName(cls),key,"=",cls,orderBy);
-		return  Utils.isEmpty(res)?null:res.get(0);
+		return getOneBy(getPkName(cls),key,cls,orderBy);
 	}
 	
 	public <T> List<T> getBy(String keyField, Object key, Class<T> cls, String ...orderBy) {
@@ -190,7 +425,7 @@ public class SqliteDB {
 	}
 	
 	public <T> T getOneBy(String keyField, Object key, Class<T> cls,String ...orderBy) {
-		List<T> res=getBy(keyField, key, cls, orderBy);
+		List<T> res=getWhere(keyField+"=?", new String[] {key==null?null:key.toString()}, cls, 1, orderBy);
 		return  Utils.isEmpty(res)?null:res.get(0);
 	}	
 	
@@ -233,130 +468,215 @@ public class SqliteDB {
 			
 	} 
 	
+	/**
+	 * Maps the rows of a cursor to records, the columns and the way each of them is read 
+	 * are resolved once, when the mapper is made for the cursor
+	 */
+	public static class RowMapper<T> {
+		private final static int 
+		  K_STRING=0, K_INT=1, K_INTEGER=2, K_LONG=3, K_LONG_OBJ=4, K_BOOL=5, K_BOOLEAN=6, 
+		  K_BLOB=7, K_DATE=8, K_OBJECT=9;
+		
+		private final Class<T> cls;
+		private final int cis[], kinds[];
+		private final Field fls[];
+		private int nc=0;
+		
+		public RowMapper(Cursor cr, Class<T> cls, Map<String,Field> fields) {
+			this.cls=cls;
+			cis=new int[fields.size()];
+			kinds=new int[cis.length];
+			fls=new Field[cis.length];
+			for (Map.Entry<String,Field> en:fields.entrySet()) {
+				int ci=cr.getColumnIndex(en.getKey());
+				if (ci>=0) {
+					Field fl=en.getValue();
+					cis[nc]=ci;
+					kinds[nc]=kindOf(fl.getType());
+					fls[nc++]=fl;
+				}
+			}
+		}
+		
+		private static int kindOf(Class t) {
+			if (t==String.class) return K_STRING;
+			if (t==int.class) return K_INT;
+			if (t==Integer.class) return K_INTEGER;
+			if (t==long.class) return K_LONG;
+			if (t==Long.class) return K_LONG_OBJ;
+			if (t==boolean.class) return K_BOOL;
+			if (t==Boolean.class) return K_BOOLEAN;
+			if (t==byte [].class) return K_BLOB;
+			if (/*Utils.isSubclassOf(t, java.util.Date.class)*/t==java.util.Date.class) return K_DATE;
+			return K_OBJECT;
+		}
+		
+		/**
+		 * the record of the current row, null if it cannot be made
+		 */
+		public T map(Cursor cr) {
+			T obj;
+			try {
+				obj=cls.newInstance();
+			} catch (Throwable e) {
+				Log.e(TAG, " -- ", e);
+				return null;
+			}
+			for (int k=0;k<nc;k++) try {
+				Field fl=fls[k];
+				int ci=cis[k];
+				switch (kinds[k]) {
+				case K_STRING: fl.set(obj, cr.getString(ci)); break;
+				case K_INT: fl.setInt(obj, cr.getInt(ci)); break;
+				case K_INTEGER: fl.set(obj, cr.getInt(ci)); break;
+				case K_LONG: fl.setLong(obj, cr.getLong(ci)); break;
+				case K_LONG_OBJ: fl.set(obj, cr.getLong(ci)); break;
+				case K_BOOL: if (!cr.isNull(ci)) fl.setBoolean(obj, cr.getLong(ci)!=0); break;
+				case K_BOOLEAN: fl.set(obj, cr.isNull(ci)?null:Boolean.valueOf(cr.getLong(ci)!=0)); break;
+				case K_BLOB: fl.set(obj, cr.getBlob(ci)); break;
+				case K_DATE: fl.set(obj, cr.isNull(ci)?null:new java.util.Date(cr.getLong(ci))); break;
+				default: fl.set(obj, Utils.bytes2obj(cr.getBlob(ci)));
+				}
+			} catch (Throwable e0) {
+				Log.e(TAG, " -- ", e0);
+			}
+			return obj;
+		}
+	}
+	
+	public interface RowHandler<T> {
+		/**
+		 * returns false to stop at this row
+		 */
+		boolean onRow(T record);
+	}
+	
 	public static <T> List<T> convert(Cursor c, Class<T> cls) {
       return SqliteDB.convert(c, cls, SqliteDB.getTableFields(cls));
 	}
 	
 	public static <T> List<T> convert(Cursor cr, Class<T> cls, Map<String,Field> fields) {
+		final ArrayList<T> res=new ArrayList<T>(Math.max(cr.getCount(), 0));
+		each(cr, cls, fields, new RowHandler<T>() {
+			@Override
+			public boolean onRow(T record) {
+				res.add(record);
+				return true;
+			}
+		});
+		return res.isEmpty()?null:res;
+	}
+	
+	/**
+	 * hands the rows to the handler one by one as they are read, 
+	 * returns the number of the rows handled
+	 */
+	public static <T> int each(Cursor cr, Class<T> cls, Map<String,Field> fields, RowHandler<T> h) {
+		int n=0;
 		if (cr.moveToFirst()) {
-			ArrayList<T> res=new ArrayList<T>();
+			RowMapper<T> m=new RowMapper<T>(cr, cls, fields);
 			do {
-				try {
-					T obj=cls.newInstance();
-					res.add(obj);
-					for (Map.Entry<String,Field> en:fields.entrySet()) try {
-						Field fl=en.getValue();
-						Class t=fl.getType();
-						int ci=cr.getColumnIndex(en.getKey());
-						if (ci>=0)  {
-							if (t==String.class) {
-								fl.set(obj, cr.getString(ci));
-							} else 
-								if (t==Integer.class||t==int.class) {
-									fl.set(obj, cr.getInt(ci));
-								} else
-									if (t==Long.class||t==long.class) {
-										fl.set(obj, cr.getLong(ci));
-									} else
-										if (t==boolean.class) {
-											if (!cr.isNull(ci)) fl.setBoolean(obj, cr.getLong(ci)!=0);
-										} else if (t==Boolean.class) {
-											fl.set(obj, cr.isNull(ci)?null:Boolean.valueOf(cr.getLong(ci)!=0));
-										} else if (t==byte [].class) {
-											fl.set(obj, cr.getBlob(ci));
-										} else if (/*Utils.isSubclassOf(t, java.util.Date.class)*/t==java.util.Date.class) {
-											fl.set(obj, cr.isNull(ci)?null:new java.util.Date(cr.getLong(ci)));
-										} else  {
-											fl.set(obj, Utils.bytes2obj(cr.getBlob(ci)));
-										} 						
-						}
-					} catch (Throwable e0) {
-						Log.e(TAG, " -- ", e0);
-					}
-				} catch (Throwable e) {
-					Log.e(TAG, " -- ", e);
+				T obj=m.map(cr);
+				if (obj!=null) {
+					++n;
+					if (!h.onRow(obj)) break;
 				}
 			} while (cr.moveToNext());
-			return res;
-		} 
-		return null;
+		}
+		return n;
 	}
 	
-	public <T> List<T> getWhere(String condition, String args[], Class<T> cls, String ...orderBy) {
-		return getWhere(getTableName(cls), condition, args, cls, orderBy);
-	}
-	  
-	public <T> List<T> getWhere(String tbl, String condition, String args[], Class<T> cls, String ...orderBy) {
-	   List<Class> clss=Utils.getSuperClasses(cls);
-	   String stmt="select ";
-	   
-		HashMap<String,Field> fields=new HashMap<String,Field>();
-		for (Class cl:clss) for (Field fl:cl.getDeclaredFields()) {
-		      fl.setAccessible(true);
-		      if (fl.isAnnotationPresent(DB.class)) {
-		      	Class flType=fl.getType();
-		        DB an=fl.getAnnotation(DB.class);
-		        String fldn=getTableFieldName(fl);
-                stmt+=fldn+",";
-                fields.put(fldn, fl);
-		      }
-		}	   
-		
-		stmt=stmt.substring(0,  stmt.length()-1)+" from "+tbl;
+	private String selectStmt(String select, String tbl, String condition, int limit, String orderBy[]) {
+		StringBuilder stmt=new StringBuilder(select);
+		stmt.append(" from ").append(tbl);
 		
 		if (condition!=null) {
-			stmt+=" where "+condition;
+			stmt.append(" where ").append(condition);
 		}
 		
 		if (!BaseUtils.isEmpty(orderBy)) {
-			stmt+=" order by ";
+			stmt.append(" order by ");
 			for (int i=0;i<orderBy.length;i++) {
-			  if (i>0) stmt+=',';
-			  stmt+=orderBy[i];
+			  if (i>0) stmt.append(',');
+			  stmt.append(orderBy[i]);
 			}
 		}
 		
-		Log.d(getClass().getCanonicalName(), stmt);
-		
-		Cursor cr;
+		if (limit>0) stmt.append(" limit ").append(limit);
 		
+		Log.d(getClass().getCanonicalName(), stmt.toString());
+		return stmt.toString();
+	}
+	
+	private Cursor query(String stmt, String args[]) {
 		try {
-	      cr=db.rawQuery(stmt, args);
+	      return db.rawQuery(stmt, args);
 		} catch(SQLiteException ex) {
 			if (!ex.getMessage().contains(no_such_table)) {
 				Log.e(TAG, " -- ", ex);
 			}
 			return null;
 		}
-		
+	}
+	
+	public <T> List<T> getWhere(String condition, String args[], Class<T> cls, String ...orderBy) {
+		return getWhere(plans.get(cls).table, condition, args, cls, 0, orderBy);
+	}
+	
+	public <T> List<T> getWhere(String condition, String args[], Class<T> cls, int limit, String ...orderBy) {
+		return getWhere(plans.get(cls).table, condition, args, cls, limit, orderBy);
+	}
+	  
+	public <T> List<T> getWhere(String tbl, String condition, String args[], Class<T> cls, String ...orderBy) {
+		return getWhere(tbl, condition, args, cls, 0, orderBy);
+	}
+	
+	/**
+	 * limit<=0 is "all the rows"
+	 */
+	public <T> List<T> getWhere(String tbl, String condition, String args[], Class<T> cls, int limit, String ...orderBy) {
+		TablePlan plan=plans.get(cls);
+		Cursor cr=query(selectStmt(plan.selectList, tbl, condition, limit, orderBy), args);
 		if (cr!=null) try {
-			return convert(cr,cls,fields);
+			return convert(cr,cls,plan.columns);
 		} finally {
 		  cr.close();
 		}
-	
 	    return null;
-		
 	} 
 	
+	/**
+	 * Streams the rows to the handler without building a list, 
+	 * returns the number of the rows handled
+	 */
+	public <T> int forEachWhere(String condition, String args[], Class<T> cls, RowHandler<T> h, String ...orderBy) {
+		TablePlan plan=plans.get(cls);
+		Cursor cr=query(selectStmt(plan.selectList, plan.table, condition, 0, orderBy), args);
+		if (cr!=null) try {
+			return each(cr, cls, plan.columns, h);
+		} finally {
+		  cr.close();
+		}
+		return 0;
+	}
+	
+	/**
+	 * whether there is a row, no record is made and only one row is looked up
+	 */
+	public boolean existsWhere(String condition, String args[], Class cls) {
+		Cursor cr=query(selectStmt("select 1", plans.get(cls).table, condition, 1, null), args);
+		if (cr!=null) try {
+			return cr.moveToFirst();
+		} finally {
+		  cr.close();
+		}
+		return false;
+	}
+	
 	static public String getPkName(Class cls) {
 	   DB clsan=(DB) cls.getAnnotation(DB.class);
 	   if (clsan.primaryKey()!="") return clsan.primaryKey();
-		
-		
-	   List<Class> clss=Utils.getSuperClasses(cls);
-	   
-	   HashMap<String,Field> fields=new HashMap<String,Field>();
-	   for (Class cl:clss) for (Field fl:cl.getDeclaredFields()) {
-		      fl.setAccessible(true);
-		      if (fl.isAnnotationPresent(DB.class)) {	   
-		    	 DB an=fl.getAnnotation(DB.class);
-		    	 if (an.isPrimaryKey()) {
-		    		return an.value()!=null?an.value():fl.getName();
-		    	 }
-		      }
-	   };
-	   return null;
+	   return plans.get(cls).pkField;
 	}
 	
 	static public String getTableName(Class cls) {
@@ -396,15 +716,13 @@ public class SqliteDB {
 	}
 	
 	public void updateTableStructure(Class cls) {
-		String tbl=getTableName(cls);
-		List<Class> clss=Utils.getSuperClasses(cls);
+		TablePlan plan=plans.get(cls);
+		String tbl=plan.table;
 		
-		for (Class cl:clss) for (Field fl:cl.getDeclaredFields()) {
-		      fl.setAccessible(true);
-		      if (fl.isAnnotationPresent(DB.class)) {
-		      	 Class flType=fl.getType();
-		         DB an=fl.getAnnotation(DB.class);
-		         String fldn=getTableFieldName(fl);
+		for (int i=0;i<plan.columnNames.length;i++) {
+		         Field fl=plan.dbFields.get(i);
+		         DB an=plan.dbAnns[i];
+		         String fldn=plan.columnNames[i];
 		         if (!an.isPrimaryKey()) {
 		        	// try to update the field
 		        	 /*
@@ -430,7 +748,6 @@ public class SqliteDB {
 		    			}     		 
 		        	 }
 		         }
-		      }
 		}	
 		
 	}
@@ -541,152 +858,20 @@ public class SqliteDB {
 		
 		boolean processWholeObject=dbfToUpdate==null||dbfToUpdate.length==0;
 		
-		String tbl=getTableName(cls);
-		
-		String stmt="create table if not exists "+tbl+" (";
-		List<Class> clss=Utils.getSuperClasses(cls);
-		
-		boolean primaryKeyFound=false;
-		
-		LinkedHashMap<String,Field> fields=new LinkedHashMap<String,Field>();
-		boolean first=true;
-		for (Class cl:clss) for (Field fl:cl.getDeclaredFields()) {
-		      fl.setAccessible(true);
-		      if (fl.isAnnotationPresent(DB.class)) {
-		      //	Class flType=fl.getType();
-		        DB an=fl.getAnnotation(DB.class);
-		        String fldn=getTableFieldName(fl);
-		        if (processWholeObject) {
-		        	/*
-		        	stmt+=fldn+" "+(typesMap.containsKey(flType)?typesMap.get(flType):"BLOB");
-		        	if (an.notnull()) stmt+=" NOT NULL default '"+
-       			      DatabaseUtils.sqlEscapeString(an.defaultValue())+"'";
-       			      */
-		        	stmt=completeColumnDeclaration(fldn,fl,an,stmt).toString();
-		        	if (an.isPrimaryKey()) {
-		        		stmt+=" primary key"; 
-		        		if (an.autoincrement()) stmt+=" autoincrement";
-		        		primaryKeyFound=true;
-		        	}
-		        	stmt+=",";
-		        }
-                
-                if (processWholeObject||Utils.contains(dbfToUpdate, fldn)) 
-                  fields.put(fldn, fl);
-		      }
-		}
-		
-		String pkName=null; Method pkm=null; 
-		
-		if (primaryKeyFound) { 
-			stmt=stmt.substring(0,  stmt.length()-1); // remove trailing ","
-		} else {// generate primary key field
-			try {
-			  DB clsan=(DB) cls.getAnnotation(DB.class);
-			  pkName=clsan.primaryKey();	
-			  if (pkName.indexOf(',')>0) {
-				 // composite key
-				  stmt+="primary key ("+pkName+")";
-			  } else {
-			    pkm=cls.getMethod("getPrimaryKey");
-			    Class rt=pkm.getReturnType();
-			    if (processWholeObject) stmt+=pkName+" "+typesMap.containsKey(rt)+" primary key";
-			    fields.put(pkName, null);
-			  }
-			} catch (Throwable  e) {
-			  stmt=stmt.substring(0,  stmt.length()-1); // remove trailing ","
-			  Log.e(this.getClass().getCanonicalName()," -- ",e);
-			}	
-		} 
+		TablePlan plan=plans.get(cls);
+		String tbl=plan.table;
+		LinkedHashMap<String,Field> fields=plan.insertFields;
+		String pkName=plan.pkName; Method pkm=plan.pkm; 
 		
 		if (processWholeObject) {
-			stmt+=")";
-			Log.d(SqliteDB.class.getCanonicalName(), stmt);
-			db.execSQL(stmt); // create table if not exists
-		}
-		//-------------------------------------------------------------------------------------
-		
-		// then do insert
-		if (processWholeObject) {
-			StringBuilder sb=new StringBuilder("INSERT OR "+operator+" INTO ");
-			Object ar=isArray?_record:new Object[] {_record};
-			Class acls=ar.getClass();
-			int arSize=Array.getLength(ar);
-			sb.append(tbl);
-			sb.append(" (");
-			
-			int nValues=fields.size(),jj=0;
-			for (Field fl:fields.values()) if (fl!=null) {
-				  DB an=fl.getAnnotation(DB.class);
-				  /*
-				  if (an!=null&&an.isPrimaryKey()&&an.autoincrement()) {
-					  // skip autoincrement pk
-					  --nValues; continue;
-				  }*/
-				  if (jj>0) sb.append(",");
-				  sb.append( getTableFieldName(fl) );
-				  ++jj;
-			}
-
-		    Object values[]=new Object[nValues*arSize];
-
-			sb.append(") ");
-
-			int j=0;
-			for (int z=0;z<arSize;z++) {
-				if (z>0) sb.append(" union ");
-				sb.append(" select ");
-				Object record=Array.get(ar, z);
-				/////////////////////////////////////////////////////////
-				
-				for (Entry<String,Field> fld:fields.entrySet()) {
-					Field fl=fld.getValue();
-					/*
-					if (fl!=null) {
-						DB an=fl.getAnnotation(DB.class);
-						if (an!=null&&an.isPrimaryKey()&&an.autoincrement()) {
-							// skip autoincrement pk
-							continue;
-						}
-					}
-					*/
-
-					try {
-						values[j]=(fl==null)?pkm.invoke(record):fl.get(record);
-						if (fl!=null&&!typesMap.containsKey(fl.getType())) {
-							// handle BLOB
-							values[j]=Utils.obj2bytes(values[j]);
-						}
-					} catch (Throwable t) {
-						Log.e(this.getClass().getCanonicalName(), " -- ",t);
-					}
-					j++;
-				}
-				for (int i=0;i<nValues;i++) { if (i>0) sb.append(","); sb.append("?");  }
-				//sb.append(')');
-    	    }
-			Log.d(TAG, sb.toString());
-			SQLiteStatement st=db.compileStatement(sb.toString());
-			try {
-			  for (int i=1;i<=values.length;i++) {
-				Object v=values[i-1];
-				if (v==null) st.bindNull(i); else 
-				if (v instanceof byte[]) st.bindBlob(i, (byte[])v); else
-				if (v instanceof Long) st.bindLong(i, (Long)v); else
-				if (v instanceof Integer) st.bindLong(i, (Integer)v); else
-				if (v instanceof Short) st.bindLong(i, (Short)v); else
-				if (v instanceof Byte) st.bindLong(i, (Byte)v); else
-			    if (v instanceof java.util.Date) st.bindLong(i, ((java.util.Date)v).getTime() ); else
-				if (v instanceof Boolean) st.bindLong(i, ((Boolean)v?1:0)); else
-					st.bindString(i, v.toString());
-			  }
-			  st.execute();
-			} finally {
-				st.close();
+			if (isArray) {
+				int arSize=Array.getLength(_record);
+				ArrayList<Object> records=new ArrayList<Object>(arSize);
+				for (int z=0;z<arSize;z++) records.add(Array.get(_record, z));
+				insertOrAll(operator, records);
+			} else synchronized(lock) {
+				insert(operator, _record);
 			}
-				
-			//Log.d(TAG, sb.toString());
-			//db.execSQL(sb.toString(),values);
 		} else {
 			ContentValues values=new ContentValues();
 			
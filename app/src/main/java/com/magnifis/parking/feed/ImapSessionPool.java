@@ -0,0 +1,164 @@
+package com.magnifis.parking.feed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.URLName;
+
+import com.magnifis.parking.App;
+import com.magnifis.parking.Log;
+import com.magnifis.parking.model.MailService;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPSSLStore;
+
+/**
+ * Keeps the logged in IMAP store of an account, with its inbox open, between the commands,
+ * so that only the first of them pays for the TLS handshake and the LOGIN.
+ *
+ * A connection is used by one thread at a time: acquire() takes the idle one of the account
+ * out of the pool (or connects a new one) and release() puts it back. A connection which has
+ * been idle for a while is checked with a NOOP before it is given out again, and is closed
+ * after IDLE_TIMEOUT.
+ */
+class ImapSessionPool {
+	final static String TAG=ImapSessionPool.class.getSimpleName();
+
+	final static int PORT=993;
+	final static long NOOP_AFTER=60000, IDLE_TIMEOUT=5*60000;
+
+	static class Connection {
+		final String key;
+		final IMAPSSLStore store;
+		private IMAPFolder inbox=null;
+		private long lastUsed=System.currentTimeMillis();
+
+		Connection(String key, IMAPSSLStore store) {
+			this.key=key;
+			this.store=store;
+		}
+
+		/**
+		 * the inbox, open in the mode (Folder.READ_ONLY or READ_WRITE), it is reopened
+		 * only if the mode differs, a read only one never sets \Seen as a side effect
+		 */
+		IMAPFolder getInbox(int mode) throws MessagingException {
+			if (inbox!=null&&inbox.isOpen()&&inbox.getMode()==mode) return inbox;
+			if (inbox!=null&&inbox.isOpen()) inbox.close(false);
+			inbox=(IMAPFolder)store.getFolder("Inbox");
+			inbox.open(mode);
+			return inbox;
+		}
+
+		// a NOOP on the store and a check of the folder
+		boolean isAlive() {
+			try {
+				return store.isConnected()&&(inbox==null||inbox.isOpen());
+			} catch (Throwable t) {
+				return false;
+			}
+		}
+
+		void close() {
+			try {
+				if (inbox!=null&&inbox.isOpen()) inbox.close(false);
+			} catch (Throwable t) {}
+			try {
+				store.close();
+			} catch (Throwable t) {}
+		}
+	}
+
+	private final static HashMap<String,Connection> idle=new HashMap<String,Connection>();
+
+	private static ScheduledThreadPoolExecutor reaper=null;
+
+	private static synchronized ScheduledThreadPoolExecutor getReaper() {
+		if (reaper==null) reaper=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, TAG);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return reaper;
+	}
+
+	private static String key(MailService ms, String password) {
+		return ms.getImapServer()+'|'+ms.getMailAddress()+'|'+password.hashCode();
+	}
+
+	/**
+	 * A connected store of the account, the caller has it alone until release().
+	 * Throws AuthenticationFailedException as Store.connect() does.
+	 */
+	static Connection acquire(MailService ms, String password) throws MessagingException {
+		String k=key(ms, password);
+		Connection c;
+		synchronized(idle) {
+			c=idle.remove(k);
+		}
+		if (c!=null) {
+			if (System.currentTimeMillis()-c.lastUsed<NOOP_AFTER||c.isAlive()) {
+				Log.d(TAG, "reused "+ms.getImapServer());
+				return c;
+			}
+			c.close();
+		}
+
+		Session session=Session.getInstance(new Properties());
+		session.setDebug(!App.self.isReleaseBuild);
+		final URLName unusedUrlName=null;
+		IMAPSSLStore store=new IMAPSSLStore(session, unusedUrlName);
+		store.connect(ms.getImapServer(), PORT, ms.getMailAddress(), password);
+		Log.d(TAG, "connected "+ms.getImapServer());
+		return new Connection(k, store);
+	}
+
+	/**
+	 * puts the connection back, or closes it if the work has failed on it
+	 */
+	static void release(Connection c, boolean ok) {
+		if (c==null) return;
+		if (!ok) {
+			c.close();
+			return;
+		}
+		c.lastUsed=System.currentTimeMillis();
+		Connection old;
+		synchronized(idle) {
+			old=idle.put(c.key, c);
+		}
+		if (old!=null&&old!=c) old.close();
+		getReaper().schedule(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, IDLE_TIMEOUT+1000, TimeUnit.MILLISECONDS);
+	}
+
+	// closes the connections which have been idle for too long
+	private static void reap() {
+		long now=System.currentTimeMillis();
+		ArrayList<Connection> old=new ArrayList<Connection>();
+		synchronized(idle) {
+			for (Iterator<Connection> it=idle.values().iterator();it.hasNext();) {
+				Connection c=it.next();
+				if (now-c.lastUsed>=IDLE_TIMEOUT) {
+					it.remove();
+					old.add(c);
+				}
+			}
+		}
+		for (Connection c:old) c.close();
+	}
+
+}
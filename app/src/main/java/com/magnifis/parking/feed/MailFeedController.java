@@ -5,12 +5,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import android.app.Activity;
@@ -38,18 +38,18 @@ import static com.magnifis.parking.VoiceIO.*;
 import static com.magnifis.parking.tts.MyTTS.speakText;
 import static com.magnifis.parking.utils.Utils.*;
 
-import com.sun.mail.imap.IMAPSSLStore;
+import com.sun.mail.imap.IMAPFolder;
 import javax.mail.Address;
 import javax.mail.AuthenticationFailedException;
 import javax.mail.BodyPart;
+import javax.mail.FetchProfile;
 import javax.mail.Flags.Flag;
 import javax.mail.Folder;
 import javax.mail.Header;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Part;
-import javax.mail.Session;
-import javax.mail.URLName;
+import javax.mail.UIDFolder;
 import javax.mail.search.MessageIDTerm;
 import javax.mail.search.StringTerm;
 
@@ -101,10 +101,10 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 	
 	Pattern enableImapPattern=Pattern.compile("\\[[^\\]]+\\]|\\([^\\)]+\\)");
 	
-	private void _consume(final MailService ms , final SuccessFailure<IMAPSSLStore> storeHandler) {
+	private void _consume(final MailService ms , final SuccessFailure<ImapSessionPool.Connection> storeHandler) {
 		try {	
 			//boolean fSASL=false;
-			IMAPSSLStore store=null;
+			ImapSessionPool.Connection conn=null;
 			
 			/*if (fSASL) {
 			
@@ -136,12 +136,6 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 				Log.d(TAG, store!=null?"sto!=null":"hmm");
 			
 			} else*/ {
-				Properties props = new Properties();
-				Session session = Session.getInstance(props);
-				session.setDebug(!App.self.isReleaseBuild);
-				final URLName unusedUrlName = null;
-				store = new IMAPSSLStore(session, unusedUrlName);
-				
 				String password=PasswordPreference.getDecoded(ms.getPasswordPrefKey());
 				
 				final boolean emptyPassword=isEmpty(password);
@@ -149,12 +143,8 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 				try {
 				   if (emptyPassword) throw new AuthenticationFailedException();
 					
-				   store.connect(
-						ms.getImapServer(),
-						993,
-						ms.getMailAddress(),
-						password
-						);
+				   // the pooled connection of the account, if it is still alive
+				   conn=ImapSessionPool.acquire(ms, password);
 				   
 				} catch (AuthenticationFailedException afe) {
 				   String msg=afe.getMessage();
@@ -218,8 +208,8 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 				}
 				
 			}
-			if (store!=null&&store.isConnected()) {
-				storeHandler.onSuccess(store);
+			if (conn!=null) {
+				storeHandler.onSuccess(conn);
 			} else {
 				storeHandler.onFailure();
 			}
@@ -231,7 +221,7 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 	
 	private MailService mailService=MailService.fromPreferences();
 	
-	public void consume(final SuccessFailure<IMAPSSLStore> storeHandler) {
+	public void consume(final SuccessFailure<ImapSessionPool.Connection> storeHandler) {
 		mailService=MailService.fromPreferences();
 		if (mailService==null) {
 			storeHandler.onFailure();
@@ -249,8 +239,25 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 		
 	}
 	
+	/*
+	 * The last list and the converted messages by UID, held strongly: the messages are
+	 * small and few, and losing them to a GC means fetching their bodies again.
+	 */
 	static class Cache {
-	    SoftReference<List<Message>> cache=null;
+		final static int MAX_MESSAGES=100;
+		
+	    List<Message> cache=null;
+	    
+	    // of the folder, which is the account and the UIDVALIDITY of its inbox
+	    String folderKey=null;
+	    final LinkedHashMap<Long,Message> byUid=new LinkedHashMap<Long,Message>(16, 0.75f, true) {
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long,Message> eldest) {
+				return size()>MAX_MESSAGES;
+			}
+	    };
 	   
 		public synchronized List<Message> get(
 				int N, 
@@ -259,7 +266,7 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 				boolean exclId
 		) {
 		  if (sinceId!=null&&cache!=null) {
-			  List<Message> ceds=cache.get();
+			  List<Message> ceds=cache;
 			  if (ceds!=null) {
 				  Message found=null;
 				  int i=0;
@@ -289,7 +296,19 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 		}
 		
 		public synchronized void put(List<Message> ms) {
-			cache=new SoftReference<List<Message>>(ms);
+			cache=ms;
+		}
+		
+		public synchronized Message get(String folderKey, long uid) {
+			return folderKey.equals(this.folderKey)?byUid.get(uid):null;
+		}
+		
+		public synchronized void put(String folderKey, long uid, Message m) {
+			if (!folderKey.equals(this.folderKey)) {
+				byUid.clear();
+				this.folderKey=folderKey;
+			}
+			byUid.put(uid, m);
 		}
 	
 	}
@@ -317,10 +336,10 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 		
 	  MyTTS.speakText(R.string.P_COMMUNICATION_WMS);
 	  consume(
-		new SuccessFailure<IMAPSSLStore>() {
+		new SuccessFailure<ImapSessionPool.Connection>() {
 
 			@Override
-			public void onSuccess(IMAPSSLStore store) {
+			public void onSuccess(ImapSessionPool.Connection store) {
 				//final SuccessFailure<List<Message>> actualHandler=handler;
 				if (useCache&&fAdvance) {
 					 final boolean pos=N>0;
@@ -396,7 +415,7 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 	
 
 	private void _getN(
-			final IMAPSSLStore store,
+			final ImapSessionPool.Connection conn,
 			final int N, 
 			final String sinceId, 
 			final boolean fNew, 
@@ -407,6 +426,7 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 	)  {
 				
               final AThread th=(AThread)Thread.currentThread();
+              boolean connOk=false;
 	    	  
 	    	  try {
 	    		  
@@ -414,12 +434,12 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
                  th.condAbort();
                  boolean success=false;
                  final ArrayList<Message> msgs=new ArrayList<Message>();
-                 if (!cancel&&store!=null&&store.isConnected()) try {
+                 if (!cancel&&conn!=null) try {
                 	th.condAbort();
-                	Folder f=store.getFolder("Inbox");
-                	f.open(markAsRead?Folder.READ_WRITE:Folder.READ_ONLY);
+                	IMAPFolder f=conn.getInbox(markAsRead?Folder.READ_WRITE:Folder.READ_ONLY);
                 	if (f!=null) {
                 	  Log.d(TAG,"f!=null");
+                	  String folderKey=conn.key+'/'+f.getUIDValidity();
                 	  int cnt=0;
                 	  //boolean anyNew=f.hasNewMessages();
                 	  
@@ -443,7 +463,7 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
                 			   if (exclId) {
                 				   if (pos) --from; else ++from;
                 			   } else if (N==1) {
-                				   msgs.add(convert(ms[0],fetchBody));
+                				   msgs.add(convert(f,folderKey,ms[0],fetchBody));
                 				   if (markAsRead&&!ms[0].isSet(Flag.SEEN)) {
                 					   ms[0].setFlag(Flag.SEEN, true);
                 				   }
@@ -462,7 +482,14 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
                 	  
                 	  boolean firstIsNew=false;
                 	  
-                	  if (from>0&&from<=mc) for (int i=from;pos?i>=to:i<=to ;i+=inc) {
+                	  if (from>0&&from<=mc) {
+                		 // the range the loop may read, prefetched in one command
+                		 int last=pos?Math.max(to, from-Math.abs(N)+1):Math.min(to, from+Math.abs(N)-1);
+                		 javax.mail.Message range[]=f.getMessages(Math.min(from, last), Math.max(from, last));
+                		 f.fetch(range, fetchProfile(fetchBody));
+                		 th.condAbort();
+                		 
+                		 for (int i=from;pos?i>=to:i<=to ;i+=inc) {
                 		  th.condAbort();
                 		  
                 		  
@@ -479,11 +506,13 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
                 		 
                 		 th.condAbort();
 
-                		 msgs.add(convert(m,fetchBody));
+                		 msgs.add(convert(f,folderKey,m,fetchBody));
+                		 }
                 	  }
                 	}
                 	success=true;
                  } finally {
+                   connOk=success;
                    if (success||cancel) {
                 	  final boolean s=success;
                    	  MainActivity.get().runOnUiThread(
@@ -502,6 +531,10 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 	    		  
 			} catch (Throwable e) {
 				if (e!=null) e.printStackTrace();
+				// an abort between the commands leaves the connection usable
+				connOk=e instanceof AThread.AbortedException;
+			} finally {
+				ImapSessionPool.release(conn, connOk);
 			}
 	        MainActivity.get().runOnUiThread(
 	          new Runnable() {
@@ -514,6 +547,17 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 
 	}
 	
+	// envelopes (with the Message-ID) and flags, and the structure of the body if it is to be read
+	private FetchProfile fetchProfile(boolean fetchBody) {
+		FetchProfile fp=new FetchProfile();
+		fp.add(FetchProfile.Item.ENVELOPE);
+		fp.add(FetchProfile.Item.FLAGS);
+		fp.add(UIDFolder.FetchProfileItem.UID);
+		if (mailService.isSuppportsSearchById()) fp.add(MESSAGE_ID);
+		if (fetchBody) fp.add(FetchProfile.Item.CONTENT_INFO);
+		return fp;
+	}
+	
 	private static String getHeaderFirst(javax.mail.Message m, String name) {
 	  try {
 		String t[]=m.getHeader(name);
@@ -526,6 +570,20 @@ Redirect URIs:    urn:ietf:wg:oauth:2.0:oob
 		return getHeaderFirst(m,MESSAGE_ID);
 	}
 	
+	// the converted message from the cache if it has what is needed, the flags are fresh anyway
+	private Message convert(UIDFolder f, String folderKey, javax.mail.Message m, boolean fetchBody) throws MessagingException, IOException {
+		long uid=f.getUID(m);
+		Message msg=cache.get(folderKey, uid);
+		if (msg!=null&&(!fetchBody||msg.getBody()!=null)) {
+			if (!mailService.isSuppportsSearchById()) msg.setId(Integer.toString(m.getMessageNumber()));
+			msg.setRead(m.isSet(Flag.SEEN));
+			return msg;
+		}
+		msg=convert(m, fetchBody);
+		cache.put(folderKey, uid, msg);
+		return msg;
+	}
+	
 	private Message convert(javax.mail.Message m, boolean fetchBody) throws MessagingException, IOException {
 		Message msg=new Message();
 		msg.setType(Message.TYPE_EMAIL);
@@ -5,6 +5,7 @@ import android.app.PendingIntent;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -33,7 +34,13 @@ import com.magnifis.parking.utils.Utils;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static com.magnifis.parking.VoiceIO.sayAndShow;
 import static com.magnifis.parking.utils.Utils.formatMessageDate;
@@ -62,10 +69,13 @@ public class SmsFeedController extends MessageFeedController {
     private SmsFeedController(Context context) {
         super(context);
         selfWr = new WeakReference<SmsFeedController>(this);
+        startWarming();
     }
 
     final static String TAG = SmsFeedController.class.getSimpleName();
 
+    final static Uri inboxUri = Uri.parse("content://sms/inbox");
+
     final static String sms_cols[] = new String[]{
             "_id",
 //		"thread_id",
@@ -139,83 +149,261 @@ public class SmsFeedController extends MessageFeedController {
 
     @Override
     public void getN(int N, String sinceId, boolean fNew, boolean exclId, SuccessFailure<List<Message>> handler) {
-        String cond = sinceId == null
-                ? null
-                : ((N > 0
-                ? (exclId ? "_id<" : "_id<=")
-                : (exclId ? "_id>" : "_id>=")
-        )
-                + sinceId);
+        try {
+            List<Message> res = sinceId == null && N > 0 ? takeWarmPage(N) : null;
+            if (res != null) {
+                handler.onSuccess(firstN(res, N, fNew));
+                return;
+            }
+            handler.onSuccess(query(N, sinceId, fNew, exclId));
+        } catch (Throwable t) {
+            t.printStackTrace(System.err);
+            handler.onFailure();
+        }
+    }
+
+    // the first N of the page (newest first), only the unread ones in front if fNew
+    private static List<Message> firstN(List<Message> page, int N, boolean fNew) {
+        if (page.isEmpty()) return null;
+        List<Message> res = new ArrayList<Message>();
+        for (Message m : page) {
+            if (fNew && m.isRead()) break;
+            if (res.size() >= N) break;
+            res.add(m);
+        }
+        return res;
+    }
+
+    /**
+     * The |N| messages older (N>0, newest first) or newer (N<0, oldest first) than sinceId,
+     * null if there are none. The page is cut by the provider: the messages are ordered by
+     * (date, _id) and sinceId is turned into a key of that order, so no more than |N| rows
+     * are read whatever the size of the inbox is.
+     */
+    private List<Message> query(int N, String sinceId, boolean fNew, boolean exclId) {
+        String cond = null;
+        if (sinceId != null) {
+            long id = Long.parseLong(sinceId);
+            String lt = N > 0 ? "<" : ">", le = exclId ? lt : lt + "=";
+            Long d = dateOf(id);
+            cond = d == null
+                    ? "_id" + le + id // the message is gone
+                    : "(date" + lt + d + " or (date=" + d + " and _id" + le + id + "))";
+        }
 
         Cursor cr = null;
         try {
-            try {
-                cr = App.self.getContentResolver().query(
-                        Uri.parse("content://sms/inbox"),
-                        sms_cols,
-                        cond, //"type in (1,2)",
-                        null,
-                        (N < 0) ? "date" : "date desc"
-                );
-                if (cr.moveToFirst()) {
-                    int cnt = 0;
-                    List<Message> res = new ArrayList<Message>();
-                    PhoneBook pb = PhoneBook.getInstance();
-                    //SimpleDateFormat df=new SimpleDateFormat();
+            cr = App.self.getContentResolver().query(
+                    inboxUri,
+                    sms_cols,
+                    cond, //"type in (1,2)",
+                    null,
+                    ((N < 0) ? "date, _id" : "date desc, _id desc") + " limit " + Math.max(Math.abs(N), 1)
+            );
+            if (cr == null || !cr.moveToFirst()) return null;
 
-                    boolean firstIsNew = cr.getInt(readId) == 0;
+            int cnt = 0;
+            List<Message> res = new ArrayList<Message>();
 
-                    do {
+            do {
 
-                        boolean fRead = cr.getInt(readId) == 1;
+                boolean fRead = cr.getInt(readId) == 1;
 
-                        if (fNew && fRead) break;
-                        if (++cnt > Math.abs(N)) break;
+                if (fNew && fRead) break;
+                if (++cnt > Math.abs(N)) break;
 
-                        Message msg = new Message();
-                        msg.setType(Message.TYPE_SMS);
+                Message msg = new Message();
+                msg.setType(Message.TYPE_SMS);
 
-                        try {
-                            msg.setId(Long.toString(cr.getLong((_idId))));
-                        } catch (Throwable t) {
-                            t.printStackTrace();
-                        }
+                try {
+                    msg.setId(Long.toString(cr.getLong((_idId))));
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
 
-                        msg.setBody(cr.getString(bodyId));
-                        Addressable sender = new PhoneAddressable();
-                        String phone = cr.getString(addressId);
-                        sender.setAddress(phone);
+                msg.setBody(cr.getString(bodyId));
+                Addressable sender = new PhoneAddressable();
+                String phone = cr.getString(addressId);
+                sender.setAddress(phone);
 
-                        List<ContactRecord> lst = pb.byPhone(phone, true);
-                        if (!isEmpty(lst))
-                            sender.setDisplayName(lst.get(0).getName());
+                String name = getSenderName(phone);
+                if (!isEmpty(name))
+                    sender.setDisplayName(name);
 
-                        if (isEmpty(sender.getDisplayName(false)))
-                            sender.setDisplayName(Utils.phoneNumberToSpeech(phone).toString());
+                if (isEmpty(sender.getDisplayName(false)))
+                    sender.setDisplayName(Utils.phoneNumberToSpeech(phone).toString());
 
-                        msg.setSender(sender);
-                        Long d = cr.getLong(dateId);
-                        if (d != null) {
-                            msg.setReceived(new Date(d));
-                        }
+                msg.setSender(sender);
+                Long d = cr.getLong(dateId);
+                if (d != null) {
+                    msg.setReceived(new Date(d));
+                }
 
-                        msg.setRead(fRead);
+                msg.setRead(fRead);
 
-                        res.add(msg);
+                res.add(msg);
 
-                    } while (cr.moveToNext());
+            } while (cr.moveToNext());
+
+            return res;
+        } finally {
+            if (cr != null) cr.close();
+        }
+    }
+
+    // the date of the message, null if it is not in the inbox
+    private static Long dateOf(long id) {
+        Cursor cr = App.self.getContentResolver().query(
+                inboxUri, new String[]{"date"}, "_id=" + id, null, null
+        );
+        if (cr == null) return null;
+        try {
+            return cr.moveToFirst() ? cr.getLong(0) : null;
+        } finally {
+            cr.close();
+        }
+    }
+
+    // the contact names of the senders by their address ("" if there is none)
+    private final static int MAX_NAMES = 500;
+    private final LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> e) {
+            return size() > MAX_NAMES;
+        }
+    };
+    private int namesGeneration = -1;
+
+    /**
+     * the name of the contact with the phone, null if there is none; the phonebook is searched
+     * once for a sender as long as the phonebook stays the same
+     */
+    private String getSenderName(String phone) {
+        if (isEmpty(phone)) return null;
+        PhoneBook pb = PhoneBook.getInstance();
+        synchronized (names) {
+            if (namesGeneration != pb.getGeneration()) {
+                names.clear();
+                namesGeneration = pb.getGeneration();
+            }
+            String name = names.get(phone);
+            if (name != null) return isEmpty(name) ? null : name;
+        }
+        List<ContactRecord> lst = pb.byPhone(phone, true);
+        String name = isEmpty(lst) ? null : lst.get(0).getName();
+        synchronized (names) {
+            names.put(phone, name == null ? "" : name);
+        }
+        return name;
+    }
+
+    /*
+     * The newest page of the inbox is read (and its senders resolved) in the background, so
+     * that "read my messages" does not wait for the provider and the phonebook. It is read
+     * again after a change of the SMS provider, or after it has been taken, as long as the
+     * controller is there. The provider reports a new message and a message marked read by
+     * another app on content://sms/<id>, which is outside of the inbox, so all of it is observed.
+     */
+    private final static long WARM_DELAY = 2000;
+
+    private static ScheduledThreadPoolExecutor warmer = null;
+
+    private static synchronized ScheduledThreadPoolExecutor getWarmer() {
+        if (warmer == null) warmer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, TAG);
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        return warmer;
+    }
+
+    /**
+     * holds the controller weakly as selfWr does, and unregisters itself on the first change
+     * after the controller is gone
+     */
+    private static class InboxObserver extends ContentObserver {
+        private final WeakReference<SmsFeedController> wr;
 
-                    handler.onSuccess(res);
-                    return;
+        InboxObserver(SmsFeedController fc) {
+            super(null);
+            wr = new WeakReference<SmsFeedController>(fc);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            SmsFeedController fc = wr.get();
+            if (fc == null) {
+                App.self.getContentResolver().unregisterContentObserver(this);
+                return;
+            }
+            fc.inboxChanged();
+        }
+    }
+
+    private InboxObserver inboxObserver = null;
+    private int inboxGeneration = 0;
+    private List<Message> warmPage = null;
+    private ScheduledFuture<?> warming = null;
+
+    private final Runnable warm = new Runnable() {
+        @Override
+        public void run() {
+            int gen;
+            synchronized (SmsFeedController.this) {
+                gen = inboxGeneration;
+            }
+            try {
+                long t0 = System.currentTimeMillis();
+                List<Message> page = query(getPageSize(), null, false, false);
+                synchronized (SmsFeedController.this) {
+                    if (gen == inboxGeneration) warmPage = page == null ? new ArrayList<Message>() : page;
                 }
-                handler.onSuccess(null);
+                Log.d(TAG, "warm: " + (page == null ? 0 : page.size()) + " messages in " + (System.currentTimeMillis() - t0) + "ms");
             } catch (Throwable t) {
-                t.printStackTrace(System.err);
-                handler.onFailure();
+                Log.e(TAG, " -- ", t);
             }
-        } finally {
-            if (cr != null) cr.close();
         }
+    };
+
+    private synchronized void scheduleWarming() {
+        if (warming != null) warming.cancel(false);
+        warming = getWarmer().schedule(warm, WARM_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void inboxChanged() {
+        synchronized (this) {
+            ++inboxGeneration;
+            warmPage = null;
+        }
+        scheduleWarming();
+    }
+
+    private void startWarming() {
+        try {
+            inboxObserver = new InboxObserver(this);
+            App.self.getContentResolver().registerContentObserver(Uri.parse("content://sms"), true, inboxObserver);
+        } catch (Throwable t) {
+            Log.e(TAG, " -- ", t);
+            inboxObserver = null;
+        }
+        scheduleWarming();
+    }
+
+    // the read ahead page if it can serve the first N messages, the next one is read then
+    private List<Message> takeWarmPage(int N) {
+        List<Message> page;
+        synchronized (this) {
+            page = warmPage;
+            // without the observer the page could be stale
+            if (page == null || inboxObserver == null || N > getPageSize()) return null;
+            warmPage = null;
+        }
+        scheduleWarming();
+        return page;
     }
 
     private Message lastMessageRead = null;
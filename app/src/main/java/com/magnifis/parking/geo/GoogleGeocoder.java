@@ -9,7 +9,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 
-import org.w3c.dom.Document;
 
 import com.magnifis.parking.Log;
 import com.magnifis.parking.Xml;
@@ -98,10 +97,10 @@ public class GoogleGeocoder {
 				 uc.connect();
 				 InputStream is=uc.getInputStream();
 				 if (is!=null) try {
-					 Document doc=Xml.loadXmlFile(is);
-					 if (doc!=null) {
-						 GcResponse rsp=Xml.setPropertiesFrom(doc.getDocumentElement(), GcResponse.class);
-						 Log.d(TAG,Xml.domToText(doc.getDocumentElement()).toString());
+					 Xml.LightElement root=Xml.loadXmlTree(is);
+					 if (root!=null) {
+						 GcResponse rsp=Xml.setPropertiesFrom(root, GcResponse.class);
+						 Log.d(TAG,Xml.domToText(root).toString());
 						 if (rsp.isSuccessful()&&!isEmpty(rsp.getResults())) {
                             return rsp.getResults();
 						 }
@@ -149,10 +148,10 @@ public class GoogleGeocoder {
 				uc.connect();
 				InputStream is=uc.getInputStream();
 				if (is!=null) try {
-				  Document doc=Xml.loadXmlFile(is);
-				  if (doc!=null) {
-					  GcResponse rsp=Xml.setPropertiesFrom(doc.getDocumentElement(), GcResponse.class);
-					  //Log.d(TAG,Xml.domToText(doc.getDocumentElement()).toString());
+				  Xml.LightElement root=Xml.loadXmlTree(is);
+				  if (root!=null) {
+					  GcResponse rsp=Xml.setPropertiesFrom(root, GcResponse.class);
+					  //Log.d(TAG,Xml.domToText(root).toString());
 					  if (rsp.isSuccessful()&&!isEmpty(rsp.getResults())) {
 						  return rsp.getResults();
 						  /*
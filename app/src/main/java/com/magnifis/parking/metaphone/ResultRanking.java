@@ -1,29 +1,47 @@
 package com.magnifis.parking.metaphone;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 // import Metaphone3;
 
+/**
+ * Ranks the candidates by the weighted sum of the edit distances between their spelling
+ * and between their Metaphone3 encodings and those of the search string.
+ *
+ * An instance holds the settings of one search. The ranking itself (rank()) is static and
+ * thread-safe: each thread has its own encoder and edit distance rows, the encodings are
+ * cached, and a long list of candidates is split among a few threads. Candidates of equal
+ * distance keep their order in the list, so the result does not depend on the threads.
+ */
 public class ResultRanking
 {
 	private String searchString;
 	private List<String> candidates = new ArrayList<String>();
-	private List<String> resultList = new ArrayList<String>();
-	private SortedMap<Integer, List<String>> workingList = new TreeMap<Integer, List<String>>();
 	private int spellingMultiplier = 1;
 	private int phoneticMultiplier = 1; 
+	private int maxDistance = -1;
 
-	Metaphone3 m3 = new Metaphone3();
+	// a list shorter than that is ranked on the calling thread
+	private final static int PARALLEL_THRESHOLD = 512;
+	private final static int N_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private final static int ENCODING_CACHE_SIZE = 4096;
 
 	public ResultRanking()
 	{
-		m3.SetEncodeExact(true);
-		m3.SetEncodeVowels(true);
 	}
 
 	public void setSearchStringAndCandidates(String searchString, List<String> candidates)
@@ -32,113 +50,282 @@ public class ResultRanking
 		this.candidates = candidates;
 	}
 
+	/**
+	 * the candidates ranked farther than that are dropped, -1 (the default) keeps them all
+	 */
+	public void setMaxDistance(int maxDistance)
+	{
+		this.maxDistance = maxDistance;
+	}
+
 	public List<String> getRankedResultList()
 	{
-		rankResultList();
-		Iterator<Integer> iterator = workingList.keySet().iterator();
-		while(iterator.hasNext())
+		return rank(searchString, candidates, spellingMultiplier, phoneticMultiplier, maxDistance);
+	}
+	
+	public SortedMap<Integer, List<String>> rankResultList()
+	{
+		SortedMap<Integer, List<String>> workingList = new TreeMap<Integer, List<String>>();
+		int distances[] = distances(searchString, candidates, spellingMultiplier, phoneticMultiplier, maxDistance);
+		for(int i = 0; i < distances.length; i++)
 		{
-			Object key = iterator.next();
-			List<String> tempList = workingList.get(key);
-			for(String word : tempList)
+			if(distances[i] < 0) continue;
+			List<String> tempList = workingList.get(distances[i]);
+			if(tempList == null)
 			{
-				resultList.add(word);
+				tempList = new ArrayList<String>();
+				workingList.put(distances[i], tempList);
 			}
+			tempList.add(candidates.get(i));
+		}
+		return workingList;
+	}
+
+	/**
+	 * The candidates ordered by distance, the ones of equal distance in the order of the list.
+	 * A negative maxDistance means no limit.
+	 */
+	public static List<String> rank(String searchString, List<String> candidates,
+			int spellingMultiplier, int phoneticMultiplier, int maxDistance)
+	{
+		final int distances[] = distances(searchString, candidates, spellingMultiplier, phoneticMultiplier, maxDistance);
+		Integer order[] = new Integer[distances.length];
+		int n = 0;
+		for(int i = 0; i < distances.length; i++)
+		{
+			if(distances[i] >= 0) order[n++] = i;
+		}
+		// the sort is stable
+		Arrays.sort(order, 0, n, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				int da = distances[a], db = distances[b];
+				return da < db ? -1 : (da == db ? 0 : 1);
+			}
+		});
+		List<String> resultList = new ArrayList<String>(n);
+		for(int i = 0; i < n; i++)
+		{
+			resultList.add(candidates.get(order[i]));
 		}
 		return resultList;
 	}
-	
-	public SortedMap<Integer, List<String>> rankResultList()
+
+	// the distance of each candidate, -1 for the ones beyond maxDistance
+	private static int[] distances(final String searchString, final List<String> candidates,
+			final int spellingMultiplier, final int phoneticMultiplier, int maxDistance)
 	{
-		workingList.clear();
-		m3.SetWord(searchString);
-		m3.Encode();
-		String searchStringEncoded = m3.GetMetaph();
-		for(String candidate : candidates)
+		final int distances[] = new int[candidates.size()];
+		final int max = maxDistance < 0 ? Integer.MAX_VALUE : maxDistance;
+		final String searchStringEncoded = phoneticMultiplier > 0 ? encode(searchString) : null;
+		int nChunks = distances.length < PARALLEL_THRESHOLD ? 1 : N_THREADS;
+		if(nChunks == 1)
 		{
-			m3.SetWord(candidate);
-			m3.Encode();
-			String candidateEncoded = m3.GetMetaph();
-			
-			int phoneticDistance = 0;
-			int spellingDistance = 0;
+			score(searchString, searchStringEncoded, candidates, 0, distances.length,
+					spellingMultiplier, phoneticMultiplier, max, distances);
+			return distances;
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>(nChunks);
+		int chunk = (distances.length + nChunks - 1) / nChunks;
+		for(int from = 0; from < distances.length; from += chunk)
+		{
+			final int f = from, t = Math.min(distances.length, from + chunk);
+			futures.add(getExecutor().submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					score(searchString, searchStringEncoded, candidates, f, t,
+							spellingMultiplier, phoneticMultiplier, max, distances);
+				}
+			}));
+		}
+		try
+		{
+			for(Future<?> fu : futures) fu.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		return distances;
+	}
+
+	private static void score(String searchString, String searchStringEncoded, List<String> candidates,
+			int from, int to, int spellingMultiplier, int phoneticMultiplier, int max, int distances[])
+	{
+		Scratch sc = scratch.get();
+		for(int i = from; i < to; i++)
+		{
+			String candidate = candidates.get(i);
+			// each part is bounded by what is left of the limit
+			int distance = 0;
 			if(phoneticMultiplier > 0)
 			{
-				phoneticDistance = LevenshteinDistance(searchStringEncoded, candidateEncoded);				
+				int d = sc.distance(searchStringEncoded, encode(candidate), max / phoneticMultiplier);
+				distance = d * phoneticMultiplier;
 			}
-			if(spellingMultiplier > 0)
+			if(distance <= max && spellingMultiplier > 0)
 			{
-				spellingDistance = LevenshteinDistance(searchString, candidate);
+				int d = sc.distance(searchString, candidate, (max - distance) / spellingMultiplier);
+				distance += d * spellingMultiplier;
 			}
-			int distance = (phoneticDistance  * phoneticMultiplier) + (spellingDistance * spellingMultiplier);
-			
-			List<String> tempList = workingList.get(distance);
-			if(tempList == null)
+			distances[i] = distance <= max && distance >= 0 ? distance : -1;
+		}
+	}
+
+	private static ExecutorService executor = null;
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if(executor == null)
+		{
+			executor = Executors.newFixedThreadPool(N_THREADS, new ThreadFactory()
 			{
-				tempList = new ArrayList<String>();
-			}
-			tempList.add(candidate);
-			workingList.put(distance, tempList);
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "ResultRanking");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		}
-		return workingList;
+		return executor;
 	}
 
-	public static int LevenshteinDistance(String str1, String str2)
+	// the encoder and the rows of the edit distance of a thread
+	private static class Scratch
 	{
-		int[][] distance = new int[64][64];
-		int len1 = str1.length();
-		int len2 = str2.length();
-		int cost = 0;
+		final Metaphone3 m3 = new Metaphone3();
+		int prev[] = new int[64], cur[] = new int[64];
 
-		for(int i = 0; i <= len1; i++)
+		Scratch()
 		{
-			distance[i][0] = i;
+			m3.SetEncodeExact(true);
+			m3.SetEncodeVowels(true);
 		}
 
-		for(int j = 0; j <= len2; j++)
+		String encode(String word)
 		{
-			distance[0][j] = j;
+			m3.SetWord(word);
+			m3.Encode();
+			return m3.GetMetaph();
 		}
 
-		for(int i = 1; i <= len1; i++)
+		/**
+		 * The edit distance if it is not greater than max, max+1 otherwise. Only the band
+		 * of the width 2*max+1 around the diagonal is computed, and it stops as soon as
+		 * a whole row is beyond max.
+		 */
+		int distance(CharSequence a, CharSequence b, int max)
 		{
-			for(int j = 1; j <= len2; j++)
+			if(a.length() < b.length())
 			{
-				if(str1.charAt(i - 1) == str2.charAt(j - 1))
-				{
-					cost = 0;
-				} 
-				else
+				CharSequence t = a;
+				a = b;
+				b = t;
+			}
+			int len1 = a.length(), len2 = b.length();
+			if(max > len1) max = len1;
+			if(len1 - len2 > max) return max + 1;
+			int big = max + 1;
+			if(prev.length <= len2)
+			{
+				prev = new int[len2 + 1];
+				cur = new int[len2 + 1];
+			}
+			int p[] = prev, c[] = cur;
+			for(int j = 0; j <= len2; j++)
+			{
+				p[j] = j <= max ? j : big;
+			}
+			for(int i = 1; i <= len1; i++)
+			{
+				int from = Math.max(1, i - max), to = Math.min(len2, i + max);
+				c[0] = i <= max ? i : big;
+				if(from > 1) c[from - 1] = big;
+				int rowMin = from == 1 ? c[0] : big;
+				char ch = a.charAt(i - 1);
+				for(int j = from; j <= to; j++)
 				{
-					cost = 1;
+					// minimum of deletion, insertion and substitution
+					int min = p[j] + 1;
+					int ins = c[j - 1] + 1;
+					if(ins < min) min = ins;
+					int subs = p[j - 1] + (ch == b.charAt(j - 1) ? 0 : 1);
+					if(subs < min) min = subs;
+					if(min > big) min = big;
+					c[j] = min;
+					if(min < rowMin) rowMin = min;
 				}
+				if(to < len2) c[to + 1] = big;
+				if(rowMin > max) return big;
+				int t[] = p;
+				p = c;
+				c = t;
+			}
+			return p[len2];
+		}
+	}
 
-				// ///////////////////////////////////////////////////
-				// d[i][j] = minimum(d[i-1, j] + 1, // deletion, //
-				// d[i, j-1] + 1, // insertion, //
-				// d[i-1, j-1] + cost) // substitution //
-				// ///////////////////////////////////////////////////
-
-				int del = distance[i - 1][j] + 1;
-				int ins = distance[i][j - 1] + 1;
-				int subs = distance[i - 1][j - 1] + cost;
-				int min = del;
+	private final static ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{
+			return new Scratch();
+		}
+	};
 
-				if(ins < min)
-				{
-					min = ins;
-				}
+	// the last used encodings, the candidates are the same names again and again
+	private final static Map<String, String> encodings = new LinkedHashMap<String, String>(256, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
 
-				if(subs < min)
-				{
-					min = subs;
-				}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+		{
+			return size() > ENCODING_CACHE_SIZE;
+		}
+	};
 
-				distance[i][j] = min;
-			}
+	/**
+	 * the exact Metaphone3 encoding of the word, with the vowels
+	 */
+	public static String encode(String word)
+	{
+		synchronized(encodings)
+		{
+			String e = encodings.get(word);
+			if(e != null) return e;
 		}
+		String e = scratch.get().encode(word);
+		synchronized(encodings)
+		{
+			encodings.put(word, e);
+		}
+		return e;
+	}
 
-		return distance[len1][len2];
+	public static int LevenshteinDistance(String str1, String str2)
+	{
+		return scratch.get().distance(str1, str2, Integer.MAX_VALUE - 1);
+	}
+
+	/**
+	 * the edit distance if it is not greater than max, max+1 otherwise
+	 */
+	public static int LevenshteinDistance(String str1, String str2, int max)
+	{
+		return scratch.get().distance(str1, str2, max);
 	}
 	
 	public int getSpellingMultiplier()
@@ -8,7 +8,6 @@ import android.app.Activity;
 import android.content.ContentResolver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.provider.ContactsContract;
@@ -16,6 +15,7 @@ import android.telephony.PhoneNumberUtils;
 
 import com.magnifis.parking.App;
 import com.magnifis.parking.R;
+import com.magnifis.parking.utils.BitmapCache;
 import com.magnifis.parking.utils.Utils;
 import com.robinlabs.utils.BaseUtils;
 
@@ -119,9 +119,34 @@ public class ContactRecord extends ContactRecordBase {
 
 	protected Drawable icon = null;
 
+	// the size the contact lists draw the photos at
+	public static int getIconSize() {
+		return (int) (32 * App.self.getResources().getDisplayMetrics().density  / 0.5f);
+	}
+	
+	private static String photoKey(long photoId) {
+		return "contact-photo:"+photoId;
+	}
+	
+	// the photo if it is decoded already
+	public static Bitmap getCachedPhoto(long photoId) {
+		return BitmapCache.get(photoKey(photoId));
+	}
+	
+	// decodes the photo sampled down to the icon size and keeps it in memory
+	public static Bitmap decodePhoto(long photoId, byte b[]) {
+		int sz=getIconSize();
+		Bitmap bmp=BitmapCache.decode(b, sz, sz);
+		BitmapCache.put(photoKey(photoId), bmp);
+		return bmp;
+	}
 
 	public void loadIcon(Drawable defaultUserpic) {
 	  if (icon==null) {
+		Bitmap cached=(photoId!=null&&photoId!=0)?getCachedPhoto(photoId):null;
+		if (cached!=null) 
+			setIcon(new BitmapDrawable(cached));
+		else
 		if (photoId!=null&&photoId!=0) {
 			ContentResolver cnr=App.self.getContentResolver();
 			
@@ -135,7 +160,7 @@ public class ContactRecord extends ContactRecordBase {
 	          if (cr.moveToFirst()) do {
 	        	 byte b[]=cr.getBlob(0);
 	        	 if (b!=null) {
-	        		    Bitmap bmp=BitmapFactory.decodeByteArray(b, 0, b.length);
+	        		    Bitmap bmp=decodePhoto(photoId, b);
 	        		    setIcon(new BitmapDrawable(bmp));
 						break;		
 	        	 }
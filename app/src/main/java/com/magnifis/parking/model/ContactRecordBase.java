@@ -125,6 +125,10 @@ public abstract class ContactRecordBase {
 		return encodedNames;
 	}
 	
+	public void setEncodedNames(Setized encodedNames) {
+		this.encodedNames = encodedNames;
+	}
+	
 	public Collection<String> getNames() {
 	  if (BaseUtils.isEmpty(names)) {
 		  List<String> lst=new ArrayList<String>(1);
@@ -20,32 +20,21 @@ public class SaidPhrase {
 		return this;
 	}
 	
+    // the phrases are looked up in memory, see RobinDB
     public static void mark(int id) {
        RobinDB rdb=RobinDB.getInstance(App.self);
-       rdb.insertOrIgnore(new SaidPhrase().setPhraseId(id));
+       if (rdb!=null) rdb.markPhraseSaid(id);
     }	
     
     public static boolean test(int id) {
     	RobinDB rdb=RobinDB.getInstance(App.self);
-    	try  {
-    	  return rdb.getBy(id, SaidPhrase.class)!=null;
-    	} catch(Throwable t) {}
-    	return false;
+    	return rdb!=null&&rdb.isPhraseSaid(id);
     }
     
     public static boolean test(int  ids[]) {
     	if (!Utils.isEmpty(ids)) {
-    	RobinDB rdb=RobinDB.getInstance(App.self);
-    	try  {
-    	  StringBuilder sb=new StringBuilder("phrase_id in (");
-    	  sb.append(ids[0]);
-    	  for (int i=1;i<ids.length;i++) {
-    		  sb.append(',');
-    		  sb.append(ids[i]);
-    	  }
-    	  sb.append(')');
-    	  return rdb.getWhere(sb.toString(),null, SaidPhrase.class)!=null;
-    	} catch(Throwable t) {}
+    	  RobinDB rdb=RobinDB.getInstance(App.self);
+    	  if (rdb!=null) for (int id:ids) if (rdb.isPhraseSaid(id)) return true;
     	}
     	return false;
     }
@@ -4,6 +4,7 @@ import static com.robinlabs.utils.BaseUtils.isEmpty;
 import static com.robinlabs.utils.BaseUtils.toLowerCase;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -12,6 +13,8 @@ import android.telephony.PhoneNumberUtils;
 
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.magnifis.parking.App;
+import com.magnifis.parking.Config;
+import com.magnifis.parking.Log;
 import com.magnifis.parking.db.RobinDB;
 import com.magnifis.parking.model.BrokenPhoneNumber;
 import com.magnifis.parking.model.CalleeAssociation;
@@ -20,6 +23,7 @@ import com.magnifis.parking.model.ContactRecordBase;
 import com.robinlabs.utils.BaseUtils;
 
 public class CalleeAssocEngine {
+	final static String TAG=CalleeAssocEngine.class.getSimpleName();
 	
 	final int     initialPhoneType;
 	final private PhoneNumberUtil phoneNumberUtils=PhoneNumberUtil.getInstance();
@@ -38,7 +42,20 @@ public class CalleeAssocEngine {
 	  rdb = RobinDB.getInstance(App.self);
 	}
 	
+	// answered from memory, see CalleeAssocIndex
 	public String [] getCalleeAssociations(String contactNames[], Long tillMilliseconds) {
+		String rv[]=CalleeAssocIndex.get(rdb).lookup(toLowerCase(contactNames), initialPhoneType, tillMilliseconds);
+		if (Config.debug) {
+			// the index must answer exactly as the query it has replaced
+			String q[]=queryCalleeAssociations(contactNames, tillMilliseconds);
+			if (!Arrays.equals(rv, q)) 
+				Log.e(TAG, "index and query differ: "+Arrays.toString(rv)+" "+Arrays.toString(q));
+		}
+		return rv;
+	}
+	
+	// the query the index has replaced, kept for checking it in the debug builds
+	private String [] queryCalleeAssociations(String contactNames[], Long tillMilliseconds) {
 		StringBuilder cond=new StringBuilder(" counter>=1 and (desiredPhoneType=");
 		cond.append(initialPhoneType);
 		cond.append(" or (actualPhoneTypeMask&");
@@ -132,6 +149,7 @@ public class CalleeAssocEngine {
 	
 	public void clearCalleeAssociations(String phone, String cnames[]) {
 		if (!isEmpty(cnames)) {	
+		  CalleeAssocIndex ix=CalleeAssocIndex.get(rdb);
 		  BrokenPhoneNumber bp=new BrokenPhoneNumber(phoneNumberUtils,phone);
 			
 		  StringBuilder sb=new StringBuilder(
@@ -154,18 +172,22 @@ public class CalleeAssocEngine {
 			sb.append('?');
 		  } 
 		  sb.append(')');
-		  rdb.update(CalleeAssociation.class, sb.toString(), BaseUtils.toLowerCase(cnames));
+		  String cnss[]=BaseUtils.toLowerCase(cnames);
+		  rdb.update(CalleeAssociation.class, sb.toString(), cnss);
+		  ix.decrement(cnss, initialPhoneType, bp.countryCode, bp.nationalNumber, bp.emergencyNumber);
 		}
 	}
 	
 	public void touch(String phone, String cnames[]) {
 		if (!isEmpty(cnames)) {	
+			  CalleeAssocIndex ix=CalleeAssocIndex.get(rdb);
 			  BrokenPhoneNumber bp=new BrokenPhoneNumber(phoneNumberUtils,phone);
+			  long now=System.currentTimeMillis();
 				
 			  StringBuilder sb=new StringBuilder(
 				"last_used="
 			  );
-			  sb.append(System.currentTimeMillis());
+			  sb.append(now);
 			  sb.append(" where counter>0 and desiredPhoneType=");
 			  sb.append(initialPhoneType);
 			  sb.append(" and countryCode in (-1");
@@ -184,19 +206,22 @@ public class CalleeAssocEngine {
 				sb.append('?');
 			  } 
 			  sb.append(')');
-			  rdb.update(CalleeAssociation.class, sb.toString(), BaseUtils.toLowerCase(cnames));
+			  String cnss[]=BaseUtils.toLowerCase(cnames);
+			  rdb.update(CalleeAssociation.class, sb.toString(), cnss);
+			  ix.touch(cnss, initialPhoneType, bp.countryCode, bp.nationalNumber, bp.emergencyNumber, now);
 			}		
 	}
 	
 	
 	public void saveCalleeAssociations(ContactRecordBase rec, String cnames[]) {
-		String cnss[]=toLowerCase(cnames);
+		final String cnss[]=toLowerCase(cnames);
 		
 		if (!isEmpty(cnss)) {
+			final CalleeAssocIndex ix=CalleeAssocIndex.get(rdb);
+            final BrokenPhoneNumber bp=new BrokenPhoneNumber(phoneNumberUtils,rec.getPhone());
+            final long now=System.currentTimeMillis();
 			
-            BrokenPhoneNumber bp=new BrokenPhoneNumber(phoneNumberUtils,rec.getPhone());
-			
-            CalleeAssociation sels[]=new CalleeAssociation[cnss.length];
+            final CalleeAssociation sels[]=new CalleeAssociation[cnss.length];
 			for (int i=0;i<cnss.length;i++) {
 				CalleeAssociation ccs = new CalleeAssociation();
 				ccs.set(bp);
@@ -204,13 +229,12 @@ public class CalleeAssocEngine {
 				ccs.setDesiredPhoneType(initialPhoneType);
 				ccs.setActualPhoneTypeMask(
 					CalleeAssociation.calculateActualPhoneTypeMask(rec.getTypes()));
-				ccs.setLastUsed(new Date());
+				ccs.setLastUsed(new Date(now));
 				sels[i]=ccs;
 			}
-			rdb.insertOrIgnore(sels);
 
-			StringBuilder sb=new StringBuilder("counter=counter+1, last_used=");
-			sb.append(System.currentTimeMillis());
+			final StringBuilder sb=new StringBuilder("counter=counter+1, last_used=");
+			sb.append(now);
 			sb.append(" where countryCode=");
 			sb.append(bp.countryCode);
 			sb.append(" and desiredPhoneType=");
@@ -226,7 +250,17 @@ public class CalleeAssocEngine {
 				sb.append('?');
 			}
 			sb.append(')');
-			rdb.update(CalleeAssociation.class,sb.toString(),cnss);
+			
+			// the new associations and the counters are written at once
+			rdb.inTransaction(new Runnable() {
+				@Override
+				public void run() {
+					rdb.insertOrIgnoreAll(Arrays.asList(sels));
+					rdb.update(CalleeAssociation.class,sb.toString(),cnss);
+				}
+			});
+			for (CalleeAssociation ccs:sels) ix.add(ccs);
+			ix.increment(cnss, initialPhoneType, bp.countryCode, bp.nationalNumber, bp.emergencyNumber, now);
 		}
 	}	
 
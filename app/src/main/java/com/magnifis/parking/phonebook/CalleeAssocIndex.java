@@ -0,0 +1,202 @@
+package com.magnifis.parking.phonebook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import com.magnifis.parking.Log;
+import com.magnifis.parking.db.RobinDB;
+import com.magnifis.parking.db.SqliteDB.RowHandler;
+import com.magnifis.parking.model.CalleeAssociation;
+import com.magnifis.parking.model.CalleeAssociationCR;
+
+/**
+ * The rows of callee_association in memory, indexed by the matched (lower cased) name.
+ *
+ * It is read from the table once, on the first use, and then CalleeAssocEngine applies
+ * each of its writes to both, so that a lookup needs neither a query nor mapping.
+ */
+public class CalleeAssocIndex {
+	final static String TAG=CalleeAssocIndex.class.getSimpleName();
+
+	static class Row {
+		final String match;
+		final int desiredPhoneType, countryCode, leadingZeros, actualPhoneTypeMask;
+		final String nationalNumber;
+		final boolean emergencyNumber;
+		long counter;
+		Long lastUsed;
+
+		Row(CalleeAssociation ca) {
+			match=ca.getMatch();
+			desiredPhoneType=ca.getDesiredPhoneType();
+			countryCode=ca.getCountryCode();
+			nationalNumber=ca.getNationalNumber();
+			emergencyNumber=ca.isEmergencyNumber();
+			leadingZeros=ca.getLeadingZeros();
+			actualPhoneTypeMask=ca.getActualPhoneTypeMask();
+			counter=ca.getCounter();
+			lastUsed=ca.getLastUsed()==null?null:ca.getLastUsed().getTime();
+		}
+
+		boolean isNumber(int cc, String nn, boolean em) {
+			return countryCode==cc&&emergencyNumber==em&&
+			  (nationalNumber==null?nn==null:nationalNumber.equals(nn));
+		}
+
+		// the same as CalleeAssociationCR.getPhone()
+		String getPhone() {
+			StringBuilder sb=new StringBuilder();
+			if (countryCode!=-1) {
+			   sb.append('+');
+			   sb.append(countryCode);
+			} else {
+			  for (int i=0;i<leadingZeros;i++) sb.append('0');
+			}
+			sb.append(nationalNumber);
+			return sb.toString();
+		}
+	}
+
+	// the rows of a number, as grouped by the lookup
+	private static class Group {
+		final Row first;
+		int count=0;
+		long maxCounter=0;
+
+		Group(Row first) {
+			this.first=first;
+		}
+	}
+
+	private static CalleeAssocIndex instance=null;
+
+	/**
+	 * the index, which is read from the database on the first call
+	 */
+	public static synchronized CalleeAssocIndex get(RobinDB rdb) {
+		if (instance==null) {
+			final CalleeAssocIndex ix=new CalleeAssocIndex();
+			int n=rdb.forEachWhere(null, null, CalleeAssociation.class, new RowHandler<CalleeAssociation>() {
+				@Override
+				public boolean onRow(CalleeAssociation ca) {
+					ix.add(ca);
+					return true;
+				}
+			});
+			Log.d(TAG, "loaded "+n+" associations");
+			instance=ix;
+		}
+		return instance;
+	}
+
+	private final HashMap<String,ArrayList<Row>> byMatch=new HashMap<String,ArrayList<Row>>();
+
+	CalleeAssocIndex() {}
+
+	private Row find(String match, int desiredPhoneType, int cc, String nn, boolean em) {
+		ArrayList<Row> rows=byMatch.get(match);
+		if (rows!=null) for (Row r:rows)
+			if (r.desiredPhoneType==desiredPhoneType&&r.isNumber(cc, nn, em)) return r;
+		return null;
+	}
+
+	/**
+	 * "insert or ignore", the key is (match, desiredPhoneType, countryCode, nationalNumber, emergencyNumber)
+	 */
+	public synchronized void add(CalleeAssociation ca) {
+		if (ca.getMatch()==null||find(
+			  ca.getMatch(), ca.getDesiredPhoneType(), ca.getCountryCode(),
+			  ca.getNationalNumber(), ca.isEmergencyNumber()
+		    )!=null
+		) return;
+		ArrayList<Row> rows=byMatch.get(ca.getMatch());
+		if (rows==null) byMatch.put(ca.getMatch(), rows=new ArrayList<Row>(2));
+		rows.add(new Row(ca));
+	}
+
+	/**
+	 * counter=counter+1, last_used=now for the exact number
+	 */
+	public synchronized void increment(String matches[], int desiredPhoneType, int cc, String nn, boolean em, long now) {
+		for (String m:new HashSet<String>(Arrays.asList(matches))) {
+			Row r=find(m, desiredPhoneType, cc, nn, em);
+			if (r!=null) {
+				++r.counter;
+				r.lastUsed=now;
+			}
+		}
+	}
+
+	// the rows which clear() and touch() update: counter>0 and countryCode in (-1,cc)
+	private List<Row> used(String matches[], int desiredPhoneType, int cc, String nn, boolean em) {
+		ArrayList<Row> res=new ArrayList<Row>();
+		for (String m:new HashSet<String>(Arrays.asList(matches))) {
+			ArrayList<Row> rows=byMatch.get(m);
+			if (rows!=null) for (Row r:rows)
+				if (r.counter>0&&r.desiredPhoneType==desiredPhoneType&&
+					(r.isNumber(-1, nn, em)||r.isNumber(cc, nn, em))
+				) res.add(r);
+		}
+		return res;
+	}
+
+	public synchronized void decrement(String matches[], int desiredPhoneType, int cc, String nn, boolean em) {
+		for (Row r:used(matches, desiredPhoneType, cc, nn, em)) --r.counter;
+	}
+
+	public synchronized void touch(String matches[], int desiredPhoneType, int cc, String nn, boolean em, long now) {
+		for (Row r:used(matches, desiredPhoneType, cc, nn, em)) r.lastUsed=now;
+	}
+
+	/**
+	 * What the query of CalleeAssocEngine returned: the numbers associated with the matches
+	 * (counter>=1, fitting the phone type, not used after tillMilliseconds if it is given),
+	 * grouped by number, the groups which have two matches or a counter of two and more,
+	 * ordered by the number of matches descending. Equal counts come in the order of
+	 * the number, as the group by of SQLite leaves them.
+	 */
+	public synchronized String [] lookup(String matches[], int desiredPhoneType, Long tillMilliseconds) {
+		int mask=CalleeAssociationCR.calculateDesiredPhoneTypeMask(desiredPhoneType);
+		HashMap<String,Group> groups=new HashMap<String,Group>();
+		for (String m:new HashSet<String>(Arrays.asList(matches))) {
+			ArrayList<Row> rows=byMatch.get(m);
+			if (rows!=null) for (Row r:rows) if (
+				r.counter>=1&&
+				(r.desiredPhoneType==desiredPhoneType||(r.actualPhoneTypeMask&mask)!=0)&&
+				(tillMilliseconds==null||r.lastUsed==null||r.lastUsed<=tillMilliseconds)
+			) {
+				String gk=r.countryCode+"/"+r.nationalNumber+"/"+r.emergencyNumber;
+				Group g=groups.get(gk);
+				if (g==null) groups.put(gk, g=new Group(r));
+				++g.count;
+				if (r.counter>g.maxCounter) g.maxCounter=r.counter;
+			}
+		}
+
+		ArrayList<Group> res=new ArrayList<Group>(groups.size());
+		for (Group g:groups.values()) if (g.count>=2||g.maxCounter>=2) res.add(g);
+		if (res.isEmpty()) return null;
+
+		Collections.sort(res, new Comparator<Group>() {
+			@Override
+			public int compare(Group a, Group b) {
+				if (a.count!=b.count) return a.count>b.count?-1:1;
+				Row x=a.first, y=b.first;
+				if (x.countryCode!=y.countryCode) return x.countryCode<y.countryCode?-1:1;
+				int c=String.valueOf(x.nationalNumber).compareTo(String.valueOf(y.nationalNumber));
+				if (c!=0) return c;
+				return x.emergencyNumber==y.emergencyNumber?0:(x.emergencyNumber?1:-1);
+			}
+		});
+
+		String rv[]=new String[res.size()];
+		for (int i=0;i<rv.length;i++) rv[i]=res.get(i).first.getPhone();
+		return rv;
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.magnifis.parking.phonebook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.magnifis.parking.model.ContactRecord;
+import com.magnifis.parking.utils.Langutils;
+import com.magnifis.parking.utils.Langutils.Likenesses;
+import com.magnifis.parking.utils.Setized;
+
+/**
+ * The distinct encoded name tokens of the cached contacts.
+ *
+ * Contacts share a lot of tokens (first names mostly), so the matcher scores
+ * every distinct token once per query instead of once per contact and then
+ * assembles the per contact Likenesses from the scores.
+ *
+ * The index is built from a collection which is not modified afterwards.
+ */
+public class ContactNameIndex {
+
+	private static volatile ContactNameIndex current=null;
+
+	public static void publish(ContactNameIndex index) {
+		current=index;
+	}
+
+	// returns the index only if it has been built for exactly this collection
+	public static ContactNameIndex of(Collection<ContactRecord> contacts) {
+		ContactNameIndex index=current;
+		return index!=null&&index.contacts==contacts?index:null;
+	}
+
+	private final Collection<ContactRecord> contacts;
+	private final IdentityHashMap<ContactRecord,int[]> tokenIds;
+	private final String tokens[];
+
+	private final static int NO_TOKENS[]={};
+
+	public ContactNameIndex(Collection<ContactRecord> contacts) {
+		this.contacts=contacts;
+		tokenIds=new IdentityHashMap<ContactRecord,int[]>(contacts.size());
+		HashMap<String,Integer> ids=new HashMap<String,Integer>();
+		List<String> tks=new ArrayList<String>();
+		for (ContactRecord r:contacts) {
+			Setized names=r.getEncodedNames();
+			int tids[]=NO_TOKENS;
+			if (names!=null&&names.size()>0) {
+				tids=new int[names.size()];
+				int i=0;
+				for (CharSequence cs:names) {
+					String t=cs.toString();
+					Integer id=ids.get(t);
+					if (id==null) {
+						id=tks.size();
+						ids.put(t, id);
+						tks.add(t);
+					}
+					tids[i++]=id;
+				}
+			}
+			tokenIds.put(r, tids);
+		}
+		tokens=tks.toArray(new String[tks.size()]);
+	}
+
+	public int countTokens() {
+		return tokens.length;
+	}
+
+	public Scorer getScorer(Collection<String> matchers) {
+		return new Scorer(matchers);
+	}
+
+	/**
+	 * Computes what new Likenesses(r.getEncodedNames(), matchers) would,
+	 * each token likeness is calculated once and only when it is needed.
+	 */
+	public class Scorer {
+
+		private final String matchers[];
+		private final double scores[];
+		private final boolean known[];
+
+		private Scorer(Collection<String> matchers) {
+			this.matchers=matchers.toArray(new String[matchers.size()]);
+			scores=new double[this.matchers.length*tokens.length];
+			known=new boolean[scores.length];
+		}
+
+		private double score(int k, int t) {
+			int ix=k*tokens.length+t;
+			if (!known[ix]) {
+				scores[ix]=Langutils.likeness(matchers[k], tokens[t]);
+				known[ix]=true;
+			}
+			return scores[ix];
+		}
+
+		public Likenesses likenesses(ContactRecord r) {
+			int tids[]=tokenIds.get(r);
+			if (tids==null) return new Likenesses(r.getEncodedNames(),Arrays.asList(matchers));
+			if (tids.length==0||matchers.length==0) return new Likenesses(null,0,0,0);
+
+			double best=0, bestFromWorst=Double.MAX_VALUE, total=0;
+			boolean exactHit=true;
+			String bestMatcher=null;
+
+			// the same order of operations as in the Likenesses constructor
+			for (int k=0;k<matchers.length;k++) {
+				String m=matchers[k];
+				double _bestfromWorst=0;
+				boolean _exactHit=false;
+				for (int t:tids) {
+					double lk=score(k,t);
+					if (!_exactHit) _exactHit=m.equals(tokens[t]);
+					if (lk>_bestfromWorst) _bestfromWorst=lk;
+					if (lk>best) {
+						best=lk;
+						bestMatcher=m;
+					}
+				}
+				total+=_bestfromWorst;
+				exactHit&=_exactHit;
+				if (_bestfromWorst<bestFromWorst) bestFromWorst=_bestfromWorst;
+			}
+
+			Likenesses lks=new Likenesses(bestMatcher,best,bestFromWorst,total);
+			lks.exactHit=exactHit;
+			return lks;
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.magnifis.parking.phonebook;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.magnifis.parking.App;
+import com.magnifis.parking.Log;
+import com.magnifis.parking.model.ContactRecord;
+import com.magnifis.parking.utils.Setized;
+
+/**
+ * The phone rows of the contacts, as PhoneBook has read them (one record per row, not yet
+ * merged by number) with their encoded names, kept in a file between the runs.
+ *
+ * PhoneBook starts with the snapshot and brings it up to date in the background, so that
+ * a lookup does not wait for the whole phonebook to be walked again. fullSyncAt is the time
+ * of the last full walk and syncedAt the time of the last delta, both are the time the walk
+ * has started at, so a change made during the walk is seen again by the next delta.
+ */
+class ContactSnapshot {
+	final static String TAG=ContactSnapshot.class.getSimpleName();
+
+	private final static String FILE_NAME="contacts.bin";
+	private final static int VERSION=1;
+
+	final long fullSyncAt, syncedAt;
+	final List<ContactRecord> rows;
+
+	ContactSnapshot(long fullSyncAt, long syncedAt, List<ContactRecord> rows) {
+		this.fullSyncAt=fullSyncAt;
+		this.syncedAt=syncedAt;
+		this.rows=rows;
+	}
+
+	private static File getFile() {
+		return new File(App.self.getFilesDir(), FILE_NAME);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s==null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte b[]=s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int n=in.getInt();
+		if (n<0) return null;
+		byte b[]=new byte[n];
+		in.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	// written aside and renamed over the file, as the snapshots of StateStore are
+	synchronized static void write(ContactSnapshot ss) {
+		File f=getFile(), tmp=new File(f.getPath()+".tmp");
+		try {
+			FileOutputStream fos=new FileOutputStream(tmp);
+			try {
+				DataOutputStream out=new DataOutputStream(new BufferedOutputStream(fos, 1<<16));
+				out.writeInt(VERSION);
+				out.writeLong(ss.fullSyncAt);
+				out.writeLong(ss.syncedAt);
+				out.writeInt(ss.rows.size());
+				for (ContactRecord r:ss.rows) {
+					out.writeLong(r.getId());
+					out.writeLong(r.getRawContactId());
+					out.writeLong(r.getContactId());
+					writeString(out, r.getName());
+					writeString(out, r.getPhone());
+					out.writeLong(r.getPhotoId()==null?Long.MIN_VALUE:r.getPhotoId());
+					out.writeLong(r.getLastContactTime()==null?Long.MIN_VALUE:r.getLastContactTime());
+					out.writeInt(r.getTimesContacted());
+					out.writeBoolean(r.isFavorite());
+					int types[]=r.getTypes();
+					out.writeInt(types==null?0:types.length);
+					if (types!=null) for (int t:types) out.writeInt(t);
+					Setized en=r.getEncodedNames();
+					out.writeInt(en==null?-1:en.size());
+					if (en!=null) for (CharSequence cs:en) writeString(out, cs.toString());
+				}
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			if (!tmp.renameTo(f)) {
+				f.delete();
+				tmp.renameTo(f);
+			}
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * the snapshot of the file, null if there is no usable one
+	 */
+	synchronized static ContactSnapshot read() {
+		File f=getFile();
+		if (!f.exists()) return null;
+		try {
+			FileInputStream fis=new FileInputStream(f);
+			try {
+				FileChannel fc=fis.getChannel();
+				MappedByteBuffer in=fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+				if (in.getInt()!=VERSION) return null;
+				long fullSyncAt=in.getLong(), syncedAt=in.getLong();
+				int n=in.getInt();
+				List<ContactRecord> rows=new ArrayList<ContactRecord>(n);
+				for (;n>0;n--) {
+					ContactRecord r=new ContactRecord();
+					r.setId(in.getLong());
+					r.setRawContactId(in.getLong());
+					r.setContactId(in.getLong());
+					r.setName(readString(in));
+					r.setPhone(readString(in));
+					long photoId=in.getLong(), lastContactTime=in.getLong();
+					if (photoId!=Long.MIN_VALUE) r.setPhotoId(photoId);
+					if (lastContactTime!=Long.MIN_VALUE) r.setLastContactTime(lastContactTime);
+					r.setTimesContacted(in.getInt());
+					r.setFavorite(in.get()!=0);
+					int types[]=new int[in.getInt()];
+					for (int i=0;i<types.length;i++) types[i]=in.getInt();
+					// addType() puts the type in front
+					for (int i=types.length-1;i>=0;i--) r.addType(types[i]);
+					int nt=in.getInt();
+					if (nt>=0) {
+						String tokens[]=new String[nt];
+						for (int i=0;i<nt;i++) tokens[i]=readString(in);
+						r.setEncodedNames(Setized.of(tokens));
+					}
+					rows.add(r);
+				}
+				Log.d(TAG, "read "+rows.size()+" rows");
+				return new ContactSnapshot(fullSyncAt, syncedAt, rows);
+			} finally {
+				fis.close();
+			}
+		} catch (Throwable t) { // BufferUnderflowException & Co.
+			Log.e(TAG, " -- ", t);
+			return null;
+		}
+	}
+
+}
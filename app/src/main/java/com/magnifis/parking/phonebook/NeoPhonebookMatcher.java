@@ -18,6 +18,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.telephony.PhoneNumberUtils;
 import android.util.Pair;
@@ -221,6 +230,9 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
 	}
 	
 	
+	/**
+	 * Returns null if the search has been aborted
+	 */
 	private List<Candidate> getRawMatches(
 			LinkedHashSet<LinkedHashSet<String>> mchs,
 			Collection<ContactRecord> phones, 
@@ -228,14 +240,116 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
 			boolean withPhoneOnly,
 			double bestTrashold,
 			double worstTrashold
+	) {
+		SearchScope scope=currentScope.get();
+		if (scope==null) scope=new SearchScope(); // nobody can abort this one
+		
+		int nChunks=Config.parallel_contact_scoring
+				?Math.min(SCORING_THREADS+1, phones.size()/MIN_SCORING_CHUNK)
+				:1;
+		
+		List<Candidate> rank=null;
+		
+		if (nChunks<=1) 
+			rank=rankRecords(mchs,phones,ContactNameIndex.of(phones),onlyType,withPhoneOnly,worstTrashold,scope);
+		else {
+			List<ContactRecord> all=Arrays.asList(phones.toArray(new ContactRecord[phones.size()]));
+			List<Future<List<Candidate>>> futures=new ArrayList<Future<List<Candidate>>>(nChunks-1);
+			int chunkSize=(all.size()+nChunks-1)/nChunks;
+			
+			// the first chunk is ranked by the calling thread
+			for (int from=chunkSize;from<all.size();from+=chunkSize) 
+				futures.add(
+				  getScoringExecutor().submit(
+				    new RankingTask(
+				       mchs,
+				       all.subList(from, Math.min(from+chunkSize, all.size())),
+				       ContactNameIndex.of(phones),
+				       onlyType,withPhoneOnly,worstTrashold,scope
+				    )
+				  )
+				);
+			
+			List<Candidate> chunkRank=rankRecords(
+					mchs,all.subList(0, chunkSize),ContactNameIndex.of(phones),
+					onlyType,withPhoneOnly,worstTrashold,scope
+			);
+			
+			// merging in the chunk order makes the result independent of the timing
+			try {
+				for (int i=0;;i++) {
+					if (chunkRank==null) { // aborted
+						rank=null;
+						break;
+					}
+					if (rank==null) rank=chunkRank; else
+						for (Candidate c:chunkRank) addToRank(rank,c);
+					if (i>=futures.size()) break;
+					chunkRank=futures.get(i).get();
+				}
+			} catch (InterruptedException e) {
+				rank=null;
+				// the chunks still running are stopped, the caller sees the interrupt too
+				for (Future<List<Candidate>> f:futures) f.cancel(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				for (Future<List<Candidate>> f:futures) f.cancel(false);
+			}
+		}
+		
+		if (rank==null) Log.d(TAG,"contact search aborted");
+		return rank;
+	}
+	
+	// inserts the candidate keeping the rank ordered and no longer than MAX_RAW_CANDIDATES 
+	private static void addToRank(List<Candidate> rank, Candidate found) {
+		// would be inserted past the end and removed right away
+		if (rank.size()>=MAX_RAW_CANDIDATES&&
+			candidateComparator.compare(found, rank.get(rank.size()-1))>0) return;
+		if (rank.size()==0) rank.add(found); else {
+		   int ix=Collections.binarySearch(rank, found, candidateComparator);
+		   if (ix<0) {
+			 rank.add(-(ix+1), found);
+		   } else
+			 rank.add(ix,found);
+		}
+		if (rank.size()>MAX_RAW_CANDIDATES) rank.remove(MAX_RAW_CANDIDATES); // we don't want too many candidates
+	}
+	
+	/*
+	 *  Ranks a part of the phonebook, returns null if the search has been aborted.
+	 *  The scorers are not thread safe, so every call creates its own ones.
+	 */
+	private static List<Candidate> rankRecords(
+			LinkedHashSet<LinkedHashSet<String>> mchs,
+			Collection<ContactRecord> phones, 
+			ContactNameIndex index,
+			Set<Integer> onlyType,
+			boolean withPhoneOnly,
+			double worstTrashold,
+			SearchScope scope
 	) {
 		List<Candidate> rank=new ArrayList<Candidate>();
 		double best = 0.;
+		
+		// score each distinct name token once if the phonebook has been indexed
+		List<ContactNameIndex.Scorer> scorers=null;
+		if (index!=null) {
+			scorers=new ArrayList<ContactNameIndex.Scorer>(mchs.size());
+			for (Collection<String> mch : mchs) if (!isEmpty(mch)) scorers.add(index.getScorer(mch));
+		}
+		
+		int nWalked=0;
+		
 		l_records:for (ContactRecord r : phones) if (
 				(isEmpty(onlyType)||BaseUtils.anyIntersection(onlyType,r.getTypes()))&&
 				(!(withPhoneOnly&&isEmpty(r.getPhone())))
 				) {
 			
+			if ((++nWalked&ABORT_CHECK_MASK)==0&&scope.isAborted()) return null;
+			
 			/////////////////////////////////////////////////
 			
 
@@ -254,10 +368,14 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
             	
             	double factor=1.2; // max factor
             	
+            	int k=0;
+            	
             	for (Collection<String> mch : mchs) 
             		if (!isEmpty(mch)) {
             	//		Log.d(TAG,"encn="+r.getEncodedNames());
-            			Langutils.Likenesses lkss=new  Langutils.Likenesses(/*rs*/r.getEncodedNames(),mch);
+            			Langutils.Likenesses lkss=scorers!=null
+            				?scorers.get(k++).likenesses(r)
+            				:new  Langutils.Likenesses(/*rs*/r.getEncodedNames(),mch);
             			
     		//			Log.d(TAG, "XXX " + lkss.worst + ": " + dump(rs)
     		//					+ " " + dump(mch));
@@ -274,21 +392,102 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
             			if (factor>1) factor-=0.1;
             		}
             	
-            	if (found!=null) {
-            		if (rank.size()==0) rank.add(found); else {
-            		   int ix=Collections.binarySearch(rank, found, candidateComparator);
-            		   if (ix<0) {
-            			 rank.add(-(ix+1), found);
-            		   } else
-            			 rank.add(ix,found);
-            		}
-            		if (rank.size()>18) rank.remove(18); // we don't want too many candidates
-            	}
+            	if (found!=null) addToRank(rank,found);
 			
             
 			/////////////////////////////////////////////////
 		}
-		return rank;
+		return scope.isAborted()?null:rank;
+	}
+	
+	private static class RankingTask implements Callable<List<Candidate>> {
+		
+		private final LinkedHashSet<LinkedHashSet<String>> mchs;
+		private final Collection<ContactRecord> phones;
+		private final ContactNameIndex index;
+		private final Set<Integer> onlyType;
+		private final boolean withPhoneOnly;
+		private final double worstTrashold;
+		private final SearchScope scope;
+		
+		RankingTask(
+				LinkedHashSet<LinkedHashSet<String>> mchs,
+				Collection<ContactRecord> phones,
+				ContactNameIndex index,
+				Set<Integer> onlyType,
+				boolean withPhoneOnly,
+				double worstTrashold,
+				SearchScope scope
+		) {
+			this.mchs=mchs;
+			this.phones=phones;
+			this.index=index;
+			this.onlyType=onlyType;
+			this.withPhoneOnly=withPhoneOnly;
+			this.worstTrashold=worstTrashold;
+			this.scope=scope;
+		}
+
+		@Override
+		public List<Candidate> call() {
+			return rankRecords(mchs,phones,index,onlyType,withPhoneOnly,worstTrashold,scope);
+		}
+	}
+	
+	/**
+	 * The contact searches made by one owner (e.g. an understanding processor). 
+	 * Aborting the scope aborts only the searches started within it.
+	 */
+	public static class SearchScope {
+		private volatile boolean aborted=false;
+		
+		public void abort() {
+			aborted=true;
+		}
+		
+		public boolean isAborted() {
+			return aborted;
+		}
+	}
+	
+	private final static ThreadLocal<SearchScope> currentScope=new ThreadLocal<SearchScope>();
+	
+	/**
+	 * Makes the searches started by the calling thread belong to the scope
+	 * @return the previous scope of the thread, to be passed to {@link #leaveScope}
+	 */
+	public static SearchScope enterScope(SearchScope scope) {
+		SearchScope prev=currentScope.get();
+		currentScope.set(scope);
+		return prev;
+	}
+	
+	public static void leaveScope(SearchScope prev) {
+		if (prev==null) currentScope.remove(); else currentScope.set(prev);
+	}
+	
+	private static ExecutorService scoringExecutor=null;
+	
+	private static synchronized ExecutorService getScoringExecutor() {
+		if (scoringExecutor==null) {
+			ThreadPoolExecutor tpx=new ThreadPoolExecutor(
+				SCORING_THREADS, SCORING_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger(1);
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t=new Thread(r, "Contact scoring #" + mCount.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				}
+			);
+			tpx.allowCoreThreadTimeOut(true);
+			scoringExecutor=tpx;
+		}
+		return scoringExecutor;
 	}
 	
 	private static Comparator<Candidate> candidateComparator=
@@ -466,6 +665,11 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
 				   ?getByPhoneType(phones, onlyType)	
 				   :getRawMatches(mchs,phones,onlyType,withPhoneOnly,best,worst);	
 				   
+			if (rank==null) {
+				results.aborted=true;
+				return results;
+			}
+			
 			if (!rank.isEmpty()) {
 				 //////////////////////////////////////////////////////
 				/*
@@ -605,6 +809,12 @@ public class NeoPhonebookMatcher implements IPhonebookMatcher {
 		return results;
 	}
 
-	final public static int MAX_SET_SIZE=Config.debug?6:5, MAX_BEST_CASES=5, MAX_VIPS_ADVANCED=Config.debug?3:3;
+	final public static int MAX_SET_SIZE=Config.debug?6:5, MAX_BEST_CASES=5, MAX_VIPS_ADVANCED=Config.debug?3:3, MAX_RAW_CANDIDATES=18;
+	
+	// the calling thread ranks a chunk too, so a search uses up to SCORING_THREADS+1 cores
+	final static int 
+	   SCORING_THREADS=Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()-1)),
+	   MIN_SCORING_CHUNK=400,
+	   ABORT_CHECK_MASK=0x3f;
 	final public static double STD_BEST=1.7,STD_WORST=0.5;
 }
@@ -38,11 +38,13 @@ import com.magnifis.parking.cmd.CallCmdHandler;
 import com.magnifis.parking.model.ContactRecord;
 import com.magnifis.parking.model.ContactRecord;
 import com.magnifis.parking.model.ContactRecord;
+import com.magnifis.parking.utils.Setized;
 import com.magnifis.parking.utils.Utils;
 import com.magnifis.parking.utils.Walker;
 
 import compat.org.apache.commons.codec.language.DoubleMetaphone;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -57,7 +59,9 @@ import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.location.Address;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
@@ -80,9 +84,23 @@ public class PhoneBook {
 	// TODO: move all static stuff 
 	private Boolean isPrecached = false; 
 	private Set<ContactRecord> contactCache = new HashSet<ContactRecord>(); 
+	// replaced as a whole by the caching thread and read without the lock
+	private volatile PhoneIndex phoneIndex = new PhoneIndex();
 	private Object contactCacheSO=new Object();
 	Thread cachingThread = null;
 	
+	private boolean syncRequested = false;
+	
+	// bumped whenever the cache is replaced, the names got by phone before are stale then
+	private volatile int generation = 0;
+	
+	public int getGeneration() {
+		return generation;
+	}
+	
+	// a full walk is done once a day anyway, the deltas do not see all of the changes (times contacted)
+	private final static long FULL_SYNC_AFTER = 24L*3600L*1000L;
+	
 	public static String TAG = PhoneBook.class.getSimpleName();
 	public static Drawable defaultUserPic;  
 	public static SoftReference<PhoneBook> selfWr=null;
@@ -121,15 +139,9 @@ public class PhoneBook {
         
     };
     
+    // the lookups go on with the current cache while it is brought up to date
     private void reloadCache() {
-		synchronized (contactCacheSO) {
-		   isPrecached = false; 
-		   if (cachingThread!=null) {
-			   if (cachingThread.isAlive())cachingThread.interrupt();
-			   cachingThread=null;
-		   }
-		   startPrecaching();
-		}
+		startPrecaching();
     }
 	
 	private PhoneBook() {
@@ -361,59 +373,186 @@ public class PhoneBook {
 	}
 	
 	private void startPrecaching() {
-		
-		if (isPrecached||(cachingThread!=null)&&cachingThread.isAlive())
-			return; 
-		
-		class CachingThread extends Thread {
-
-			public CachingThread() {
-				super("Phonebook CachingThread");
-			}
+		synchronized (contactCacheSO) {
+			syncRequested = true;
+			if (cachingThread!=null) return; // it will sync once more
+			cachingThread = new CachingThread(); 
+			cachingThread.setPriority(Thread.MIN_PRIORITY); 
+			cachingThread.start(); 
+		}
+	}
+	
+	/**
+	 * Publishes the snapshot of the previous run (if it is there yet) and then syncs
+	 * as long as the syncs are requested.
+	 */
+	private class CachingThread extends Thread {
 
-			@Override
-			public void run() {
-				defaultUserPic = App.self.getResources().getDrawable(R.drawable.ic_contact_picture);
-				final Set<ContactRecord> _contactCache = new HashSet<ContactRecord>(); 
-				
-				walkOverContactsByUri(
-				  ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-				  new Walker<ContactRecord>() {
+		public CachingThread() {
+			super("Phonebook CachingThread");
+		}
 
-					@Override
-					public boolean walk(ContactRecord rec) {
-						if (isInterrupted()) return false;
-						if (!_contactCache.contains(rec)) {
-							   if (!isEmpty(rec.getPhone())) {
-							      ContactRecord f=_byPhoneFirst(_contactCache,rec.getPhone(),false);
-							      if (f!=null) {
-							    	 f.updateWith(rec);
-							    	 return true;
-							      }
-							   }
-							   rec.calculateEncodedNames();
-							   _contactCache.add(rec);
-							}			
-						return true;
-					}
-					  
-				  }
-				);
-				
+		@Override
+		public void run() {
+			defaultUserPic = App.self.getResources().getDrawable(R.drawable.ic_contact_picture);
+			boolean loaded;
+			synchronized (contactCacheSO) {
+				loaded = isPrecached;
+			}
+			ContactSnapshot ss=null;
+			if (!loaded) {
+				ss=ContactSnapshot.read();
+				if (ss!=null) publish(ss);
+			}
+			for (;;) {
 				synchronized (contactCacheSO) {
-					if (!isInterrupted()) {
-					  contactCache=_contactCache;
-					  isPrecached = true; 
-					  contactCacheSO.notify(); 
+					if (!syncRequested) {
+						cachingThread = null;
+						return;
+					}
+					syncRequested = false;
+				}
+				try {
+					sync(ss);
+				} catch (Throwable t) {
+					Log.e(TAG, " -- ", t);
+				}
+				ss=null;
+			}
+		}
+	}
+	
+	// builds the cache of the rows, the rows of the same number are merged
+	private void publish(ContactSnapshot ss) {
+		final Set<ContactRecord> _contactCache = new HashSet<ContactRecord>(); 
+		final PhoneIndex _phoneIndex = new PhoneIndex();
+		
+		for (ContactRecord row:ss.rows) {
+			ContactRecord rec=new ContactRecord(row); // the row itself may be the base of the next delta
+			if (!_contactCache.contains(rec)) {
+				if (!isEmpty(rec.getPhone())) {
+					ContactRecord f=_phoneIndex.findFirst(rec.getPhone(),false);
+					if (f!=null) {
+						f.updateWith(rec);
+						continue;
 					}
 				}
+				_contactCache.add(rec);
+				_phoneIndex.add(rec);
 			}
+		}
+		
+		ContactNameIndex _nameIndex=new ContactNameIndex(_contactCache);
 		
+		synchronized (contactCacheSO) {
+			ContactNameIndex.publish(_nameIndex);
+			contactCache=_contactCache;
+			phoneIndex=_phoneIndex;
+			++generation;
+			isPrecached = true; 
+			contactCacheSO.notifyAll(); 
 		}
+	}
+	
+	// the encoded names of the previous rows are reused for the same names
+	private static Walker<ContactRecord> collector(final List<ContactRecord> to, List<ContactRecord> old) {
+		final HashMap<String,Setized> known=new HashMap<String,Setized>();
+		if (old!=null) for (ContactRecord r:old) 
+			if (r.getName()!=null&&r.getEncodedNames()!=null) known.put(r.getName(), r.getEncodedNames());
+		return new Walker<ContactRecord>() {
+			@Override
+			public boolean walk(ContactRecord rec) {
+				Setized en=rec.getName()==null?null:known.get(rec.getName());
+				if (en!=null) rec.setEncodedNames(en); else rec.calculateEncodedNames();
+				to.add(rec);
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * The rows are not kept in memory between the syncs, the cache holds every contact once,
+	 * they are read back from the snapshot file when prev is null
+	 */
+	private void sync(ContactSnapshot prev) {
+		if (prev==null) prev=ContactSnapshot.read();
+		List<ContactRecord> old=prev==null?null:prev.rows;
+		long _fullSyncAt=prev==null?0:prev.fullSyncAt, _syncedAt=prev==null?0:prev.syncedAt;
+		long now=System.currentTimeMillis(), t0=SystemClock.uptimeMillis();
+		ContactSnapshot ss;
+		if (old==null||Build.VERSION.SDK_INT<Build.VERSION_CODES.JELLY_BEAN_MR2||
+			now-_fullSyncAt>FULL_SYNC_AFTER||_syncedAt>now // the clock has been set back
+		) {
+			List<ContactRecord> _rows=new ArrayList<ContactRecord>();
+			walkOverContactsByUri(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, collector(_rows, old));
+			ss=new ContactSnapshot(now, now, _rows);
+			Log.d(TAG, "full sync: "+_rows.size()+" rows, "+(SystemClock.uptimeMillis()-t0)+"ms");
+		} else {
+			ss=delta(old, _fullSyncAt, _syncedAt, now);
+			Log.d(TAG, "delta sync: "+(ss==null?"no changes":ss.rows.size()+" rows")+", "+(SystemClock.uptimeMillis()-t0)+"ms");
+			if (ss==null) return;
+		}
+		publish(ss);
+		ContactSnapshot.write(ss);
+	}
+	
+	private static void collectIds(Uri uri, String idColumn, String tsColumn, long since, Set<Long> to) {
+		Cursor c=App.self.getContentResolver().query(
+		   uri, new String[] {idColumn}, tsColumn+">?", new String[] {Long.toString(since)}, null
+		);
+		if (c!=null) try {
+			while (c.moveToNext()) to.add(c.getLong(0));
+		} finally {
+			c.close();
+		}
+	}
+	
+	private final static Comparator<ContactRecord> byName=new Comparator<ContactRecord>() {
+		@Override
+		public int compare(ContactRecord a, ContactRecord b) {
+			String x=a.getName(), y=b.getName();
+			if (x==null) return y==null?0:-1;
+			return y==null?1:String.CASE_INSENSITIVE_ORDER.compare(x, y);
+		}
+	};
+	
+	/**
+	 * The rows of the contacts which have been changed or deleted since the last sync are
+	 * replaced, null if there are none
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private static ContactSnapshot delta(List<ContactRecord> old, long fullSyncAt, long since, long now) {
+		Set<Long> touched=new HashSet<Long>();
+		collectIds(
+		   ContactsContract.Contacts.CONTENT_URI, ContactsContract.Contacts._ID,
+		   ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP, since, touched
+		);
+		collectIds(
+		   ContactsContract.DeletedContacts.CONTENT_URI, ContactsContract.DeletedContacts.CONTACT_ID,
+		   ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP, since, touched
+		);
+		if (touched.isEmpty()) return null;
 		
-		cachingThread = new CachingThread(); 
-		cachingThread.setPriority(Thread.MIN_PRIORITY); 
-		cachingThread.start(); 
+		List<ContactRecord> fresh=new ArrayList<ContactRecord>();
+		walkOverContactsByUri(
+		   ContactsContract.CommonDataKinds.Phone.CONTENT_URI, collector(fresh, old),
+		   ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP+">?", Long.toString(since)
+		);
+		// a contact may have been changed between the queries
+		for (ContactRecord r:fresh) touched.add(r.getContactId());
+		
+		// merged near where the walk sorted by name would put them, the old rows are only roughly
+		// in this order (the provider collates the names), so they are walked once as they are
+		Collections.sort(fresh, byName);
+		List<ContactRecord> _rows=new ArrayList<ContactRecord>(old.size()+fresh.size());
+		int j=0;
+		for (ContactRecord r:old) if (!touched.contains(r.getContactId())) {
+			while (j<fresh.size()&&byName.compare(fresh.get(j), r)<0) _rows.add(fresh.get(j++));
+			_rows.add(r);
+		}
+		while (j<fresh.size()) _rows.add(fresh.get(j++));
+		Log.d(TAG, touched.size()+" contacts changed, "+fresh.size()+" rows read");
+		return new ContactSnapshot(fullSyncAt, now, _rows);
 	}
 	
 	
@@ -509,7 +648,7 @@ public class PhoneBook {
    					ContactRecord r=(ContactRecord)obj;
    					Drawable ic= ((ContactRecord)r).getIcon();
    					if (ic!=null) {
-   						int dpS = (int) (32 * res.getDisplayMetrics().density  / 0.5f);
+   						int dpS = ContactRecord.getIconSize();
    						ic.setBounds(0, 0, dpS, dpS);
    						tv.setCompoundDrawables(ic, null, null, null);
    						if (Config.vip_contact_red) tv.setTextColor(r.isVip()?Color.RED:Color.BLACK);
@@ -570,10 +709,11 @@ public class PhoneBook {
 		} 
 	}
 	
+	// waits only if there has been neither a snapshot nor a sync yet
 	private boolean waitForCached() {
 		synchronized (contactCacheSO) {
 			while (!isPrecached) {
-				cachingThread.setPriority(Thread.MAX_PRIORITY); 
+				if (cachingThread!=null) cachingThread.setPriority(Thread.MAX_PRIORITY); 
 				try {
 					Log.i(TAG, "Waiting for contacts cache to fill up...");
 					//contactCacheSO.wait(5000); // 5 seconds tops 
@@ -598,25 +738,7 @@ public class PhoneBook {
 	}
 	
 	private List<ContactRecord> _byPhone(String wanted, boolean anyNameRequired) {
-		   if (!isEmpty(contactCache)) {
-			  List<ContactRecord> res=new ArrayList<ContactRecord>();
-			  for (ContactRecord r:contactCache) 
-				  if (!(anyNameRequired&&isEmpty(r.getName()))&&PhoneNumberUtils.compare(r.getPhone(),wanted)) {
-				res.add(r);
-		      }
-			  return res; 
-		   }
-		   return null;
-	}
-	
-	private static ContactRecord _byPhoneFirst(Collection<ContactRecord>  contactCache, String wanted, boolean anyNameRequired) {
-		   if (!isEmpty(contactCache)) {
-			  for (ContactRecord r:contactCache) 
-				  if (!(anyNameRequired&&isEmpty(r.getName()))&&PhoneNumberUtils.compare(r.getPhone(),wanted)) {
-			      return r;
-		      }
-		   }
-		   return null;
+		   return isEmpty(contactCache)?null:phoneIndex.find(wanted,anyNameRequired);
 	}
 	
 	public List<ContactRecord> findContacts(String namesCsv) {
@@ -80,6 +80,7 @@ public class PhoneBookExp {
 	// TODO: move all static stuff 
 	private volatile Boolean isPrecached = false; 
 	private volatile Set<ContactRecord> contactCache = new HashSet<ContactRecord>(); 
+	private volatile PhoneIndex phoneIndex = new PhoneIndex();
 	private Object contactCacheSO=new Object();
 	private volatile Thread cachingThread = null;
 	
@@ -365,6 +366,7 @@ public class PhoneBookExp {
 			@Override
 			public void run() {
 				final Set<ContactRecord> _contactCache = new HashSet<ContactRecord>();
+				final PhoneIndex _phoneIndex = new PhoneIndex();
 				try {
 
 					walkOverContactsByUri(
@@ -377,13 +379,14 @@ public class PhoneBookExp {
 										return false;
 									if (!_contactCache.contains(rec)) {
 										if (!isEmpty(rec.getPhone())) {
-											ContactRecord f = _byPhoneFirst(rec.getPhone(), false);
+											ContactRecord f = _phoneIndex.findFirst(rec.getPhone(), false);
 											if (f != null) {
 												f.updateWith(rec);
 												return true;
 											}
 										}
 										_contactCache.add(rec);
+										_phoneIndex.add(rec);
 									}
 									return true;
 								}
@@ -393,6 +396,7 @@ public class PhoneBookExp {
 					synchronized (contactCacheSO) {
 						if (!isInterrupted()) {
 							contactCache = _contactCache;
+							phoneIndex = _phoneIndex;
 							isPrecached = true;
 							contactCacheSO.notify();
 						}
@@ -496,7 +500,7 @@ public class PhoneBookExp {
    					ContactRecord r=(ContactRecord)obj;
    					Drawable ic= ((ContactRecord)r).getIcon();
    					if (ic!=null) {
-   						int dpS = (int) (32 * res.getDisplayMetrics().density  / 0.5f);
+   						int dpS = ContactRecord.getIconSize();
    						ic.setBounds(0, 0, dpS, dpS);
    						tv.setCompoundDrawables(ic, null, null, null);
    						if (Config.vip_contact_red) tv.setTextColor(r.isVip()?Color.RED:Color.BLACK);
@@ -582,26 +586,7 @@ public class PhoneBookExp {
 	
 	private List<ContactRecord> _byPhone(String wanted, boolean anyNameRequired) {
 		   this.waitForCached();
-		   if (!isEmpty(contactCache)) {
-			  List<ContactRecord> res=new ArrayList<ContactRecord>();
-			  for (ContactRecord r:contactCache) 
-				  if (!(anyNameRequired&&isEmpty(r.getName()))&&PhoneNumberUtils.compare(r.getPhone(),wanted)) {
-				res.add(r);
-		      }
-			  return res; 
-		   }
-		   return null;
-	}
-	
-	private ContactRecord _byPhoneFirst(String wanted, boolean anyNameRequired) {
-		   this.waitForCached();
-		   if (!isEmpty(contactCache)) {
-			  for (ContactRecord r:contactCache) 
-				  if (!(anyNameRequired&&isEmpty(r.getName()))&&PhoneNumberUtils.compare(r.getPhone(),wanted)) {
-			      return r;
-		      }
-		   }
-		   return null;
+		   return isEmpty(contactCache)?null:phoneIndex.find(wanted,anyNameRequired);
 	}
 	
 	public List<ContactRecord> findContacts(String namesCsv) {
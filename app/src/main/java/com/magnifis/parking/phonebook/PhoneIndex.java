@@ -0,0 +1,119 @@
+package com.magnifis.parking.phonebook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.telephony.PhoneNumberUtils;
+import android.util.SparseArray;
+
+import com.magnifis.parking.model.ContactRecord;
+
+import static com.magnifis.parking.utils.Utils.*;
+
+/**
+ * Buckets contact records by the trailing dialable characters of their phone number,
+ * up to the first PAUSE or WAIT.
+ *
+ * PhoneNumberUtils.compare never matches two numbers which differ in the last
+ * MIN_MATCH (7) dialable characters, so a lookup only has to run compare over the
+ * records sharing the key of the wanted number instead of over the whole phonebook.
+ * Numbers containing the WILD character can match anything and are kept aside.
+ *
+ * Is not thread safe while being filled, the owner publishes it after the last add().
+ */
+class PhoneIndex {
+
+	private final static int KEY_LENGTH=7, NO_KEY=-1;
+
+	private final SparseArray<List<ContactRecord>> buckets=new SparseArray<List<ContactRecord>>();
+	private final List<ContactRecord> wild=new ArrayList<ContactRecord>();
+
+	// the end of the number as PhoneNumberUtils.compare sees it (indexOfLastNetworkChar),
+	// the pause or the wait and the extension dialed after it are not compared
+	private static int networkEnd(String phone) {
+		int end=phone.length();
+		int p=phone.indexOf(PhoneNumberUtils.PAUSE), w=phone.indexOf(PhoneNumberUtils.WAIT);
+		if (p>=0) end=p;
+		if (w>=0&&w<end) end=w;
+		return end;
+	}
+
+	// 14 codes (digits, '*', '#', '+') by 7 positions fit into a non negative int
+	static int keyOf(String phone) {
+		int key=0;
+		for (int i=networkEnd(phone)-1, n=0;i>=0&&n<KEY_LENGTH;i--) {
+			char c=phone.charAt(i);
+			int code;
+			if (c>='0'&&c<='9') code=c-'0'+1; else
+			switch (c) {
+			case '*': code=11; break;
+			case '#': code=12; break;
+			case '+': code=13; break;
+			case PhoneNumberUtils.WILD: return NO_KEY;
+			default: continue; // PhoneNumberUtils.compare skips non dialable chars too
+			}
+			key=key*14+code;
+			n++;
+		}
+		return key;
+	}
+
+	public void add(ContactRecord r) {
+		String phone=r.getPhone();
+		if (phone==null) return; // never matches anything
+		int key=keyOf(phone);
+		if (key==NO_KEY) {
+			wild.add(r);
+			return;
+		}
+		List<ContactRecord> bucket=buckets.get(key);
+		if (bucket==null) {
+			bucket=new ArrayList<ContactRecord>(1);
+			buckets.put(key, bucket);
+		}
+		bucket.add(r);
+	}
+
+	public int size() {
+		int sz=wild.size();
+		for (int i=0;i<buckets.size();i++) sz+=buckets.valueAt(i).size();
+		return sz;
+	}
+
+	public List<ContactRecord> find(String wanted, boolean anyNameRequired) {
+		List<ContactRecord> res=new ArrayList<ContactRecord>();
+		find(wanted,anyNameRequired,res);
+		return res;
+	}
+
+	public ContactRecord findFirst(String wanted, boolean anyNameRequired) {
+		return find(wanted,anyNameRequired,null);
+	}
+
+	// res==null means "the first match only"
+	private ContactRecord find(String wanted, boolean anyNameRequired, List<ContactRecord> res) {
+		if (wanted==null) return null;
+		int key=keyOf(wanted);
+		if (key==NO_KEY) {
+			// the wanted number itself has a wildcard, any bucket may match
+			for (int i=0;i<buckets.size();i++) {
+				ContactRecord r=scan(buckets.valueAt(i),wanted,anyNameRequired,res);
+				if (r!=null) return r;
+			}
+		} else {
+			ContactRecord r=scan(buckets.get(key),wanted,anyNameRequired,res);
+			if (r!=null) return r;
+		}
+		return scan(wild,wanted,anyNameRequired,res);
+	}
+
+	private static ContactRecord scan(List<ContactRecord> lst, String wanted, boolean anyNameRequired, List<ContactRecord> res) {
+		if (lst!=null) for (ContactRecord r:lst)
+			if (!(anyNameRequired&&isEmpty(r.getName()))&&PhoneNumberUtils.compare(r.getPhone(),wanted)) {
+				if (res==null) return r;
+				res.add(r);
+			}
+		return null;
+	}
+
+}
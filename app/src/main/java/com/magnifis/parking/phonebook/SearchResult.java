@@ -11,7 +11,6 @@ import com.magnifis.parking.model.ContactRecordBase;
 import android.content.ContentResolver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.provider.ContactsContract;
@@ -40,6 +39,16 @@ public abstract class SearchResult {
 		return stepNo;
 	}
 	
+	protected boolean aborted=false;
+	
+	/**
+	 * true if the search has been aborted before completion, 
+	 * so the result is empty even though there could be matches 
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+	
 	
 	public abstract double howMuchTheBestIsBetter();
 	
@@ -59,10 +68,14 @@ public abstract class SearchResult {
 		   sb.append(" in (");
 		   for (ContactRecord c:contacts) {
 			   Long pid=c.getPhotoId();
-			   if (pid!=null&&c.getIcon()==null) {
-				 if (nICs++>0) sb.append(',');
-				 sb.append(pid);
-
+			   if (pid!=null&&c.getIcon()==null&&!knownIcons.containsKey(pid)) {
+				 Bitmap bmp=ContactRecord.getCachedPhoto(pid);
+				 if (bmp!=null) 
+				   knownIcons.put(pid, new BitmapDrawable(bmp));
+				 else {
+				   if (nICs++>0) sb.append(',');
+				   sb.append(pid);
+				 }
 			   }
 			   c.initTypeLabel();
 		   }
@@ -79,8 +92,9 @@ public abstract class SearchResult {
 		        	if (cr.moveToFirst()) do {
 		        		byte b[]=cr.getBlob(0);
 		        		if (b!=null) {
-		        			Bitmap bmp=BitmapFactory.decodeByteArray(b, 0, b.length);
-		        			knownIcons.put(cr.getLong(1), new BitmapDrawable(bmp));	
+		        			long pid=cr.getLong(1);
+		        			Bitmap bmp=ContactRecord.decodePhoto(pid, b);
+		        			knownIcons.put(pid, new BitmapDrawable(bmp));	
 		        		}
 		        	} while (cr.moveToNext());		        	
 		        } finally {
@@ -46,7 +46,6 @@ import com.magnifis.parking.cmd.i.LocalCommandHandler;
 import com.magnifis.parking.db.RobinDB;
 import com.magnifis.parking.model.DlStat;
 import com.magnifis.parking.model.PushAd;
-import com.magnifis.parking.model.RobinProps;
 import com.magnifis.parking.model.Understanding;
 import com.magnifis.parking.model.UnderstandingStatus;
 import com.magnifis.parking.phonebook.CalleeAssocEngine;
@@ -494,11 +493,7 @@ public class SuzieService extends Service
 
                 try {
                     RobinDB.getInstance(this)
-                            .insertOrIgnore(
-                                    new RobinProps()
-                                            .setKey("installation_timestamp")
-                                            .setValue(Long.toString(System.currentTimeMillis()))
-                            );
+                            .setPropIfAbsent("installation_timestamp", Long.toString(System.currentTimeMillis()));
                 } catch (Throwable e) {
                     e.printStackTrace();
                 }
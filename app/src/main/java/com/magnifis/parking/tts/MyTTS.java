@@ -3,7 +3,10 @@ package com.magnifis.parking.tts;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.magnifis.parking.App;
 import com.magnifis.parking.Config;
@@ -13,6 +16,8 @@ import com.magnifis.parking.R;
 import com.magnifis.parking.VR;
 import com.magnifis.parking.suzie.SuziePopup;
 import com.magnifis.parking.suzie.SuzieService;
+import com.magnifis.parking.utils.CachingFileFetcher;
+import com.magnifis.parking.utils.DownloadScheduler;
 import com.magnifis.parking.utils.Utils;
 import com.robinlabs.utils.BaseUtils;
 
@@ -23,6 +28,8 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.speech.tts.TextToSpeech;
 import android.telephony.TelephonyManager;
 import android.util.Log;
@@ -384,18 +391,98 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	
 	private ArrayList que=new ArrayList();
 	
+	// the audio of this many queued items is got while the current one is said
+	private final static int LOOK_AHEAD=3;
+	
+	// the cache keys of the audio which has been prefetched
+	private final HashSet<String> prefetched=new HashSet<String>();
+	
 	private void que_add_with_conversion(Object obj) {
-		que.add(checkLang(obj));
+		que.add(obj);
+		lookAhead();
 	}
 	
-	public void removeFromQue(Object o) {
-		synchronized(MyTTS.class) {
-		  que.remove(o);
+	/**
+	 * The next item gets its player (which fetches and prepares the audio) and the audio
+	 * of the ones after it is fetched into the disk cache, so that they are not waited for
+	 * when their turn comes. The other items are converted when they come to the head.
+	 */
+	@SuppressWarnings("unchecked")
+	private void lookAhead() {
+		for (int i=0;i<que.size()&&i<LOOK_AHEAD;i++) {
+			Object o=que.get(i);
+			if (o instanceof TtsMediaPlayer||o instanceof SuspendMessage) continue;
+			if (i==0) 
+				que.set(0, checkLang(o));
+			else {
+				String audio[]=remoteAudio(o);
+				if (audio!=null&&prefetched.add(audio[1])) try {
+					new CachingFileFetcher(audio[0], audio[1], false, DownloadScheduler.PRIORITY_PREFETCH, MyTTS.class) {
+						{
+						   userAgent=TtsMediaPlayer.USER_AGENT;
+						}
+					};
+				} catch(Throwable t) {
+					Log.e(TAG, "prefetch: "+t.getMessage());
+				}
+			}
 		}
 	}
 	
+	// the items are converted as they are taken, a SuspendMessage has never been
+	private Object que_remove_first() {
+		Object o=que.remove(0);
+		if (!(o instanceof SuspendMessage)) o=checkLang(o);
+		lookAhead();
+		return o;
+	}
+	
+	private void que_clear() {
+		for (Object o:que) if (o instanceof TtsMediaPlayer) ((TtsMediaPlayer)o).discard();
+		que.clear();
+		prefetched.clear();
+		DownloadScheduler.cancelOwner(MyTTS.class);
+	}
+	
+	public void removeFromQue(final Object o) {
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				que.remove(o);
+			}
+		});
+	}
+	
+	/*
+	 * The state below is changed on the thread of the scheduler only. The other threads
+	 * post the events and read instance and inProcess (isSpeaking()), which are volatile.
+	 */
+	private final static SpeechScheduler scheduler=new SpeechScheduler(TAG);
+	
+	public static String getSchedulerStats() {
+		return scheduler.getStats();
+	}
+	
 	private static volatile MyTTS instance=null;
 	
+	// the texts posted by speakText() which the scheduler has not queued yet, they count as being
+	// spoken, as the instance used to be created before speakText() returned
+	private final static AtomicInteger toSpeak=new AtomicInteger(0);
+	
+	private static boolean isIdle() {
+		// toSpeak first, the scheduler sets the instance before it counts the text off
+		return toSpeak.get()==0&&instance==null;
+	}
+	
+	// the callbacks are run on the thread which has asked for them, if it has a looper
+	private static Handler callerHandler() {
+		return Looper.myLooper()==null?null:new Handler();
+	}
+	
+	private static void runOn(Handler h, Runnable r) {
+		if (h==null) r.run(); else h.post(r);
+	}
+	
 	
 	private Runnable completion=null;
 	
@@ -406,7 +493,7 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	
 	private boolean suspended=false;
 	
-	protected Object inProcess=null;
+	protected volatile Object inProcess=null;
 	
 	public static void suspend() {
 		suspend(null);
@@ -414,93 +501,98 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	
 	// stops current speaking only
 	public static void stopIt() {
-		synchronized(MyTTS.class) {
-			if (instance!=null&&instance.isSpeaking()&&(instance.inProcess instanceof SuspendMessage)) {
-				TTS tts=instance.tts;
-				if (tts!=null) {
-					instance.tts_stop();
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (instance!=null&&instance.isSpeaking()&&(instance.inProcess instanceof SuspendMessage)) {
+					TTS tts=instance.tts;
+					if (tts!=null) {
+						instance.tts_stop();
+					}
 				}
 			}
-		}
+		});
 	}
 	
 	public static void suspend(Object sayBefore) {
 		suspend(sayBefore,null);
 	}
 	
+	public static void suspend(final Object sayBefore,  final String showBefore) {
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				// the pause after the item is not waited for
+				if (instance!=null) instance.wakeUp();
+				_suspend(sayBefore, showBefore);
+			}
+		});
+	}
+	
+	// the message to say before goes in front of the queue
 	@SuppressWarnings("unchecked")
-	public static void suspend(Object sayBefore,  final String showBefore) {
-		synchronized(MyTTS.class) {
-			if (instance != null && instance.sleeping != null) 
-				MyTTS.class.notify();
-		}
-		
-		synchronized(MyTTS.class) {
-			if (instance!=null) {
-				/*if (!instance.suspended)*/ {
-				  if (instance.inProcess!=null) {
-					if (sayBefore==null) {
-					  if (!instance.suspended) {
-					    instance.suspended=true;
-					    instance.tts.stop();
-					  }
-					} 
-					else {
-					   instance.que.add(
-							0,
-							new SuspendMessage(sayBefore) {
-								Object savedCurrent = instance.inProcess;
-								
-								@Override
-								public void onSaid(boolean fAborted) {
-									Log.d(TAG,"suspend: onSaid");
-									super.onSaid(fAborted);
-
-									synchronized(MyTTS.class) {
-									   instance.inProcess=savedCurrent;
-									}
-								}
-								
-								@Override
-								public void onToSpeak() {
-									instance.suspended=true;
-									if (showBefore!=null)  
-										showAnswerBubble(new Wrapper(showBefore).setShowInNewBubble(true));
-									super.onToSpeak();
-								}							   
-							}
-					   );
-					   
-					   if (instance.suspended)
-						  instance._say(instance.inProcess=instance.que.remove(0)); // ??? bug here	
-					   else
-						   instance.tts.stop();
-					}
+	private static void _suspend(Object sayBefore,  final String showBefore) {
+		if (instance!=null) {
+			/*if (!instance.suspended)*/ {
+			  if (instance.inProcess!=null) {
+				if (sayBefore==null) {
+				  if (!instance.suspended) {
+				    instance.suspended=true;
+				    instance.tts.stop();
 				  }
+				} 
+				else {
+				   instance.que.add(
+						0,
+						new SuspendMessage(sayBefore) {
+							Object savedCurrent = instance.inProcess;
+							
+							@Override
+							public void onSaid(boolean fAborted) {
+								Log.d(TAG,"suspend: onSaid");
+								super.onSaid(fAborted);
+								instance.inProcess=savedCurrent;
+							}
+							
+							@Override
+							public void onToSpeak() {
+								instance.suspended=true;
+								if (showBefore!=null)  
+									showAnswerBubble(new Wrapper(showBefore).setShowInNewBubble(true));
+								super.onToSpeak();
+							}							   
+						}
+				   );
+				   
+				   if (instance.suspended)
+					  instance._say(instance.inProcess=instance.que.remove(0)); // ??? bug here	
+				   else
+					   instance.tts.stop();
 				}
-			} 
-			else if (sayBefore!=null) {
-				Log.d(TAG,"sayBefore!=null");
-				new MyTTS(App.self,
-					new SuspendMessage(sayBefore) {
-						  
-					  @Override
-					  public void onToSpeak() {
-						Log.d(TAG,"suspend: onToSpeak");
-						if (showBefore!=null)  showAnswerBubble(new Wrapper(showBefore).setShowInNewBubble(true));
-						super.onToSpeak();
-					  }	
-					  
-					  @Override
-					  public void onSaid(boolean fAborted) {
-						Log.d(TAG,"suspend: onSaid");
-						super.onSaid(fAborted);
-						if (instance!=null) instance.inProcess=null;
-					  }				
-				    }
-				);
-				instance.suspended=true;
+			  }
 			}
+		} 
+		else if (sayBefore!=null) {
+			Log.d(TAG,"sayBefore!=null");
+			new MyTTS(App.self,
+				new SuspendMessage(sayBefore) {
+					  
+				  @Override
+				  public void onToSpeak() {
+					Log.d(TAG,"suspend: onToSpeak");
+					if (showBefore!=null)  showAnswerBubble(new Wrapper(showBefore).setShowInNewBubble(true));
+					super.onToSpeak();
+				  }	
+				  
+				  @Override
+				  public void onSaid(boolean fAborted) {
+					Log.d(TAG,"suspend: onSaid");
+					super.onSaid(fAborted);
+					if (instance!=null) instance.inProcess=null;
+				  }				
+			    }
+			);
+			instance.suspended=true;
 		}
 	};
 	
@@ -509,6 +601,7 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	}
 	
 	public static boolean isSpeaking() {
+       if (toSpeak.get()>0) return true;
        try  {
     	 MyTTS i=instance;
 	     return i!=null&&i.inProcess!=null;
@@ -516,17 +609,30 @@ public class MyTTS implements TextToSpeech.OnInitListener {
        return false;
 	}
 	
-	public static void execAfterTheSpeech(Runnable r, boolean ifNotSetOnly) {
-		synchronized(MyTTS.class) {
-			if (instance==null) r.run(); else {
-				if (!ifNotSetOnly||instance.completion==null) instance.setCompletionListener(r);
-				if (!isSpeaking()) {
-					Runnable co=instance.completion;
-					instance.completion=null;
-					co.run();
+	/**
+	 * Runs at once if there is nothing to be said, else after the speech (the text posted
+	 * just before included). If the speech is over by the time the scheduler gets the
+	 * callback, it is run on the thread of the caller.
+	 */
+	public static void execAfterTheSpeech(final Runnable r, final boolean ifNotSetOnly) {
+		if (isIdle()) {
+			r.run();
+			return;
+		}
+		final Handler caller=callerHandler();
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (instance==null) runOn(caller, r); else {
+					if (!ifNotSetOnly||instance.completion==null) instance.setCompletionListener(r);
+					if (!isSpeaking()) {
+						Runnable co=instance.completion;
+						instance.completion=null;
+						runOn(caller, co);
+					}
 				}
 			}
-		}
+		});
 	}
 	
 	private void selfSpeakableStop() {
@@ -540,26 +646,19 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	}
 	
 	public static void resume() {
-		synchronized(MyTTS.class) {
-			if (instance!=null&&instance.suspended) {
-				instance.suspended=false;
-  				if (instance.inProcess!=null&&instance.inProcess instanceof SuspendMessage) {  
-				   instance.tts_stop(); return;
-				 }
-  			     new Thread () {
-  			       @Override
-  			       public void run() {
-  			    	  MyTTS i=instance;
-  			    	  if (i!=null) {
-  			    		Object ip=i.inProcess;
-  			    		if (ip!=null) i._say(ip);
-  			    	  }
-  			       }
-  			     }.start();
-  			     
-			   }
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (instance!=null&&instance.suspended) {
+					instance.suspended=false;
+	  				if (instance.inProcess!=null&&instance.inProcess instanceof SuspendMessage) {  
+					   instance.tts_stop(); return;
+					}
+	  			    Object ip=instance.inProcess;
+	  			    if (ip!=null) instance._say(ip);
+				}
 			}
-		
+		});
 	}
 
 	public static void shutdown() {
@@ -585,60 +684,80 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	boolean fAbort=false, fByMenuButton=false;
 	Runnable abortHandler=null;
 	
-	public static boolean abort(Runnable handler, boolean fByMenuButton, boolean fUnlock) {
+	/**
+	 * true if there is something being said, paused after or about to be said (posted by
+	 * speakText() before), which is stopped then. The abort itself is done on the thread of the
+	 * scheduler, the handler is called back on the thread of the caller if it has a looper
+	 * (the GUI thread, as before), so it is run after this returns
+	 */
+	public static boolean abort(final Runnable handler, final boolean fByMenuButton, final boolean fUnlock) {
 		Log.d(TAG,"abort");
-		synchronized(MyTTS.class) {
-			if (instance!=null) {
-				instance.fByMenuButton=fByMenuButton;
-				instance.fAbort=true;
-				
-				if (instance.completion!=null) {
-				  instance.completion=null;
-				  // a dirty trick
-				  if (fUnlock) {
-					  Log.d(OperationTracker.TAG,"dirty");
-					  App.self.voiceIO.getOperationTracker().release();
-				  }
-				 
-				  //
-				}
-                VR.unMute();
-				instance.que.clear();
-				
-				if (instance.sleeping==null) {
-					Object ip=instance.inProcess;
-					if (ip!=null&&ip instanceof SelfSpeakable) {
-						((SelfSpeakable)ip).abort();
+		if (isIdle()) return false;
+		final Handler caller=callerHandler();
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				_abort(handler==null?null:new Runnable() {
+					@Override
+					public void run() {
+						runOn(caller, handler);
 					}
+				}, fByMenuButton, fUnlock);
+			}
+		});
+		return true;
+	}
+	
+	private static void _abort(Runnable handler, boolean fByMenuButton, boolean fUnlock) {
+		if (instance!=null) {
+			instance.fByMenuButton=fByMenuButton;
+			instance.fAbort=true;
+			
+			if (instance.completion!=null) {
+			  instance.completion=null;
+			  // a dirty trick
+			  if (fUnlock) {
+				  Log.d(OperationTracker.TAG,"dirty");
+				  App.self.voiceIO.getOperationTracker().release();
+			  }
+			 
+			  //
+			}
+                VR.unMute();
+			instance.que_clear();
+			
+			if (!instance.isSleeping()) {
+				Object ip=instance.inProcess;
+				if (ip!=null&&ip instanceof SelfSpeakable) {
+					((SelfSpeakable)ip).abort();
+				}
 
-					if (instance.tts!=null) {
-						instance.tts_stop();
-						if (instance.tts!=null) instance.tts.shutdown();
-					}
-					instance=null;
-					if (handler!=null) handler.run();
-				} else {
-					instance.abortHandler=handler;
-					instance.sleeping.setPriority(Thread.MAX_PRIORITY);
-					//instance.sleeping.interrupt();
-					MyTTS.class.notify();
+				if (instance.tts!=null) {
+					instance.tts_stop();
+					if (instance.tts!=null) instance.tts.shutdown();
 				}
-				
-				return true;
+				instance=null;
+				if (handler!=null) handler.run();
+			} else {
+				instance.abortHandler=handler;
+				instance.wakeUp();
 			}
-	    }
-		return false;
+		}
 	}
 	
+	// true if there is something being said or about to be said, which is stopped then
 	public static boolean interrupt() {
-		synchronized(MyTTS.class) {
-			if (instance!=null) {
-				instance.que.clear();
-				instance.tts_stop();
-				return true;
+		if (isIdle()) return false;
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (instance!=null) {
+					instance.que_clear();
+					instance.tts_stop();
+				}
 			}
-		}
-		return false;
+		});
+		return true;
 	}
 	
 	public static void syncSayFromGUI(final Context context,final Object s) {
@@ -684,50 +803,54 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 		
 		if (obj == null) return null;
 		
+		String audio[]=remoteAudio(obj);
 		
-		//::;
+		if (audio==null) return obj;
+		
+	    Object mp=createPlayer(obj,audio);
+
+	    return mp==null?obj:mp;
+    }
+	
+	// the url and the cache key of the audio of obj, null if it is said by the local engine
+	private String[] remoteAudio(Object obj) {
         IPlayableUrl ipu = Wrapper.findInterface(obj, IPlayableUrl.class);
-        if (ipu!=null) {
-    		try {
-      		  TtsMediaPlayer mp=new TtsMediaPlayer(
-      				this,
-      				ipu.getPlayableUrl(),
-      				obj
-      		  );	
-      		  return mp;
-      		} catch(Throwable ttx) {
-      			Log.e(TAG, ttx.getMessage());
-      		}         	
-        	
-        }
+        if (ipu!=null) return new String[] {ipu.getPlayableUrl(), ipu.getPlayableUrl()};
 		
-				
 		ITextInLang itl=Wrapper.findInterface(obj, ITextInLang.class);
 		
-		if (itl==null) return obj;
+		if (itl==null) return null;
 		
 		String lang = itl.getLang();
 		
-		if (!MyTTS.useGoogleVoice(lang)) return obj;
+		if (!MyTTS.useGoogleVoice(lang)||_voiceFromSettings == SYSTEM_VOICE) return null;
 		
-		
-		if (_voiceFromSettings == SYSTEM_VOICE) {
-		   return obj;
-		} 
+		return translateTts(lang, itl.getText());
+	}
 	
-		String text = itl.getText();
-		
-		
-	    Object mp=createPlayer(obj,text,lang);
-
-	    return mp==null?obj:mp;
-    }
+	// the audio is cached by the language and the text, whatever the url is
+	private static String[] translateTts(String lang, String text) {
+		try {
+		  return new String[] {
+			"http://translate.google.com/translate_tts?tl=" + lang + "&q=" + URLEncoder.encode(text,"UTF-8"),
+			"tts:" + lang + ':' + text
+		  };
+		} catch(Throwable t) {
+			Log.e(TAG, "speak in lang: "+t.getMessage());
+		}
+		return null;
+	}
 	
 	private TtsMediaPlayer createPlayer(Object obj,String text,String lang)  {
+		return createPlayer(obj,translateTts(lang, text));
+	}
+	
+	private TtsMediaPlayer createPlayer(Object obj,String audio[])  {
 		try {
 		  return new TtsMediaPlayer(
 				this,
-				"http://translate.google.com/translate_tts?tl=" + lang + "&q=" + URLEncoder.encode(text,"UTF-8"),
+				audio[0],
+				audio[1],
 				obj
 		  );	
 		} catch(Throwable t) {
@@ -1011,17 +1134,24 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 
 	// s: string or int)eger or TextInLang
 	// in this case (if found language modifier) local TTS not used and request will send to google translate
-	private static void _speakText(Object s) {
-		
-		synchronized(MyTTS.class) {
-		   if (instance==null)
-			   new MyTTS(App.self, s);
-		   else
-			   if (s==null) 
-				   instance.handleEmptyText();
-			   else
-				   instance.que_add_with_conversion(s);
-		}
+	private static void _speakText(final Object s) {
+		toSpeak.incrementAndGet();
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+			   try {
+				   if (instance==null)
+					   new MyTTS(App.self, s);
+				   else
+					   if (s==null) 
+						   instance.handleEmptyText();
+					   else
+						   instance.que_add_with_conversion(s);
+			   } finally {
+				   toSpeak.decrementAndGet();
+			   }
+			}
+		});
 		//return instance;
 	}
 	
@@ -1108,94 +1238,124 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	   } 
 	}
 	
-	Thread sleeping=null;
+	// the pause after the said item, the rest of its completion is done when it is over
+	private ScheduledFuture<?> sleeping=null;
+	private Object sleepingAfter=null;
 	
-	private void justSleep(long to) {;
-		try {
-		   sleeping=Thread.currentThread();
-           MyTTS.class.wait(to);
-		} catch (InterruptedException e) {
-		} finally {
-		   sleeping=null;
-		}
+	private boolean isSleeping() {
+		return sleeping!=null;
+	}
+	
+	private void sleep(Object _inProcess, long to) {
+		sleepingAfter=_inProcess;
+		sleeping=scheduler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				wakeUp();
+			}
+		}, to);
+	}
+	
+	// ends the pause at once (suspend(), abort())
+	private void wakeUp() {
+		if (sleeping==null) return;
+		sleeping.cancel(false);
+		sleeping=null;
+		Object _inProcess=sleepingAfter;
+		sleepingAfter=null;
+		said(_inProcess);
 	}
 	
 	protected boolean dontShutMeDown=false;
 	
 	protected void onCompletion() {
+		scheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				completed();
+			}
+		});
+	}
+	
+	private void completed() {
 		Log.d(TAG, "onUtteranceCompleted");
 		
 		SuziePopup.resetAutoHideTimer();
 		
-		synchronized(MyTTS.class) {
-			Object _inProcess=inProcess;
-			if (inProcess!=null) {
-				if (shouldShowNewBubbleAfter(inProcess)) {
-				   MainActivity ma=MainActivity.get();
-				   if (ma!=null) ma.bubblesBreak("#main");
-				}
-				
-				long tts=getTimeToSleep(inProcess);
-				if (inProcess instanceof OnSaidListenerEx) {
-					if (tts!=0&&!fAbort) justSleep(tts);
-					((OnSaidListenerEx)inProcess).onSaid(fAbort, fByMenuButton);
-				} else
-				if (inProcess instanceof OnSaidListener) {
-					if (tts!=0&&!fAbort) justSleep(tts);
-					((OnSaidListener)inProcess).onSaid(fAbort&&!fByMenuButton);
-				} else if (inProcess instanceof Runnable) { 
-					if (tts!=0&&!fAbort) justSleep(tts);
-					((Runnable)inProcess).run();
-				}
-				if (dontShutMeDown) {
-					dontShutMeDown=false;
-					return;
-				}
+		Object _inProcess=inProcess;
+		if (_inProcess!=null) {
+			if (shouldShowNewBubbleAfter(_inProcess)) {
+			   MainActivity ma=MainActivity.get();
+			   if (ma!=null) ma.bubblesBreak("#main");
 			}
-			if (suspended) {
-				if (que.isEmpty()) {
-					if (tts!=null) {
-						tts.stop();
-						tts.shutdown();
-						tts=null;
+			
+			long tts=getTimeToSleep(_inProcess);
+			if (tts!=0&&!fAbort&&(_inProcess instanceof OnSaidListenerEx||_inProcess instanceof OnSaidListener||_inProcess instanceof Runnable)) {
+				sleep(_inProcess, tts);
+				return;
+			}
+		}
+		said(_inProcess);
+	}
+	
+	private void said(Object _inProcess) {
+		if (_inProcess!=null) {
+			if (_inProcess instanceof OnSaidListenerEx) {
+				((OnSaidListenerEx)_inProcess).onSaid(fAbort, fByMenuButton);
+			} else
+			if (_inProcess instanceof OnSaidListener) {
+				((OnSaidListener)_inProcess).onSaid(fAbort&&!fByMenuButton);
+			} else if (_inProcess instanceof Runnable) { 
+				((Runnable)_inProcess).run();
+			}
+			if (dontShutMeDown) {
+				dontShutMeDown=false;
+				return;
+			}
+		}
+		if (suspended) {
+			if (que.isEmpty()) {
+				if (tts!=null) {
+					tts.stop();
+					tts.shutdown();
+					tts=null;
 
                         VR.unMute();
 
                         hideBubbles(_inProcess);
-					}
-					instance=null;
 				}
-				if (abortHandler!=null) abortHandler.run();
-			   return;
+				instance=null;
 			}
-			if (!que.isEmpty()) {
-		      Log.d(TAG, "!que.isEmpty()");
-		      inProcess=que.remove(0);
-		//      suspended=inProcess instanceof SuspendMessage;
-		      _say(inProcess);
-			  return;
-			}
-			inProcess=null;
-			//tm.listen(psl, PhoneStateListener.LISTEN_NONE);
-			if (tts!=null) try {
-			  tts.stop();
-			  tts.shutdown();
-			  tts=null;
+			if (abortHandler!=null) abortHandler.run();
+		   return;
+		}
+		if (!que.isEmpty()) {
+	      Log.d(TAG, "!que.isEmpty()");
+	      inProcess=que_remove_first();
+	//      suspended=inProcess instanceof SuspendMessage;
+	      _say(inProcess);
+		  return;
+		}
+		inProcess=null;
+		//tm.listen(psl, PhoneStateListener.LISTEN_NONE);
+		if (tts!=null) try {
+		  tts.stop();
+		  tts.shutdown();
+		  tts=null;
 
                 VR.unMute();
 
                 //	  if (!isControllingBubblesAlone(_inProcess))
-			     hideBubbles(_inProcess);
-			  
-			} catch(Throwable t) {
-				t.printStackTrace();
-			}
-			if (fAbort) {
-				if (abortHandler!=null) abortHandler.run();
-				return; 
-			}
-			instance=null;
+		     hideBubbles(_inProcess);
+		  
+		} catch(Throwable t) {
+			t.printStackTrace();
+		}
+		if (fAbort) {
+			if (abortHandler!=null) abortHandler.run();
+			return; 
 		}
+		instance=null;
 		Runnable comp=completion;
 		completion=null;
 		if (comp!=null) {
@@ -1215,6 +1375,15 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 		  new AnTTS(context) {
 				@Override
 				protected void onInit() {
+					scheduler.post(new Runnable() {
+						@Override
+						public void run() {
+							init();
+						}
+					});
+				}
+				
+				private void init() {
                     MyTTS.this.tts = this;
 					if (!Utils.isEmpty(lang)) {
 						   if (!setLanguage(lang)) {
@@ -1267,9 +1436,7 @@ public class MyTTS implements TextToSpeech.OnInitListener {
 	
 	private MyTTS(final Context context,  final Object t) {
 
-		  synchronized(MyTTS.class) {
-			  instance=this;
-		  }
+		  instance=this;
 
 		  IMyTtsInstance  mti=Wrapper.findInterface(t, IMyTtsInstance.class);		
 	      if (mti!=null) mti.setMyTTS(this);	 
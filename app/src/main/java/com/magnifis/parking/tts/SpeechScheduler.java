@@ -0,0 +1,131 @@
+package com.magnifis.parking.tts;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * The thread which the state of MyTTS (the queue, the item being said, the suspension and
+ * the pause after an item) is changed on, by one event at a time, in the order the events
+ * have been posted.
+ *
+ * post() never blocks: the event is put into a lock free queue and the thread is started
+ * only if it is not draining the queue already. An event posted by the thread itself (a
+ * listener of a said item speaking again) is run at once, as the code which re-entered
+ * the monitor of MyTTS used to be.
+ */
+class SpeechScheduler {
+	final static String TAG=SpeechScheduler.class.getSimpleName();
+
+	private static class Event {
+		final Runnable r;
+		final long postedAt=System.nanoTime();
+
+		Event(Runnable r) {
+			this.r=r;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Event> inbox=new ConcurrentLinkedQueue<Event>();
+	private final AtomicBoolean draining=new AtomicBoolean(false);
+	private final ScheduledThreadPoolExecutor executor;
+	private volatile Thread consumer=null;
+
+	// the stats, the waits are in ns
+	private final AtomicInteger depth=new AtomicInteger(0), maxDepth=new AtomicInteger(0);
+	private final AtomicLong nPosted=new AtomicLong(0), nInline=new AtomicLong(0), nWakeUps=new AtomicLong(0),
+	  nRun=new AtomicLong(0), totalWait=new AtomicLong(0), maxWait=new AtomicLong(0);
+
+	SpeechScheduler(final String name) {
+		executor=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	boolean isSchedulerThread() {
+		return Thread.currentThread()==consumer;
+	}
+
+	void post(Runnable r) {
+		if (isSchedulerThread()) {
+			nInline.incrementAndGet();
+			run(r);
+			return;
+		}
+		inbox.add(new Event(r));
+		nPosted.incrementAndGet();
+		int d=depth.incrementAndGet();
+		for (int m;(m=maxDepth.get())<d&&!maxDepth.compareAndSet(m, d););
+		if (draining.compareAndSet(false, true)) {
+			nWakeUps.incrementAndGet();
+			executor.execute(drain);
+		}
+	}
+
+	/**
+	 * runs the event on the thread after the delay, unless the returned future is cancelled
+	 */
+	ScheduledFuture<?> postDelayed(final Runnable r, long ms) {
+		return executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				consumer=Thread.currentThread();
+				SpeechScheduler.this.run(r);
+			}
+		}, ms, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable drain=new Runnable() {
+		@Override
+		public void run() {
+			consumer=Thread.currentThread();
+			for (;;) {
+				Event e=inbox.poll();
+				if (e==null) {
+					draining.set(false);
+					// an event may have come between the poll and the reset of the flag
+					if (inbox.isEmpty()||!draining.compareAndSet(false, true)) return;
+					continue;
+				}
+				depth.decrementAndGet();
+				long w=System.nanoTime()-e.postedAt;
+				nRun.incrementAndGet();
+				totalWait.addAndGet(w);
+				for (long m;(m=maxWait.get())<w&&!maxWait.compareAndSet(m, w););
+				SpeechScheduler.this.run(e.r);
+			}
+		}
+	};
+
+	// an event which throws does not stop the ones after it
+	private void run(Runnable r) {
+		try {
+			r.run();
+		} catch (Throwable t) {
+			Log.e(TAG, " -- ", t);
+		}
+	}
+
+	/**
+	 * how long the events have waited for the thread and how many of them have been queued
+	 */
+	String getStats() {
+		long n=nRun.get();
+		return "posted="+nPosted.get()+" inline="+nInline.get()+" wakeUps="+nWakeUps.get()
+		  +" avgWait="+(n==0?0:totalWait.get()/n/1000)+"us maxWait="+maxWait.get()/1000
+		  +"us maxDepth="+maxDepth.get();
+	}
+
+}
@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.net.URL;
 
 import android.media.MediaPlayer;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.magnifis.parking.Consts;
@@ -19,6 +20,7 @@ import com.magnifis.parking.tts.MyTTS.SelfSpeakable;
 import com.magnifis.parking.tts.MyTTS.Wrapper;
 import com.magnifis.parking.utils.DiskCache;
 import com.magnifis.parking.utils.CachingFileFetcher;
+import com.magnifis.parking.utils.DownloadScheduler;
 
 public class TtsMediaPlayer extends MediaPlayer 
     implements OnStringSpeakListener, SelfSpeakable,  
@@ -40,10 +42,27 @@ public class TtsMediaPlayer extends MediaPlayer
 	
 	final MyTTS instance;
 	
+	final static String USER_AGENT="Mozilla/5.0 (iPhone; U; CPU iPhone OS 4_3_3 like Mac OS X; en-us) AppleWebKit/533.17.9 (KHTML, like Gecko) Version/5.0.2 Mobile/8J2 Safari/6533.18.5";
+	
+	private CachingFileFetcher fetcher;
+	
 	public TtsMediaPlayer(
 		MyTTS myTts,
 		String ds,
 		Object wrapped
+	) throws IllegalArgumentException, SecurityException, IllegalStateException, IOException {
+	   this(myTts,ds,ds,wrapped);
+	}
+	
+	/**
+	 * cacheKey: what the audio is cached by, the same audio is played from the disk cache 
+	 * whatever url it has been got from
+	 */
+	public TtsMediaPlayer(
+		MyTTS myTts,
+		String ds,
+		String cacheKey,
+		Object wrapped
 	) throws IllegalArgumentException, SecurityException, IllegalStateException, IOException {
 	   this.instance=myTts;
 	   this.wrapped=wrapped;
@@ -53,9 +72,9 @@ public class TtsMediaPlayer extends MediaPlayer
 	   Log.d(TAG,"ds="+ds);
 	   
 
-	   new CachingFileFetcher(ds) {
+	   fetcher=new CachingFileFetcher(ds,cacheKey,false,DownloadScheduler.PRIORITY_AUDIO,null) {
 		 {
-			userAgent="Mozilla/5.0 (iPhone; U; CPU iPhone OS 4_3_3 like Mac OS X; en-us) AppleWebKit/533.17.9 (KHTML, like Gecko) Version/5.0.2 Mobile/8J2 Safari/6533.18.5";
+			userAgent=USER_AGENT;
 		 }
 
 		@Override
@@ -79,6 +98,30 @@ public class TtsMediaPlayer extends MediaPlayer
 	
 	boolean autoPlayAfterPrepare, prepared = false, aborted=false;
 	
+	// when the player has been asked to speak, to measure the wait for the audio
+	private long speakAt=0;
+	
+	private static int nStarted=0;
+	private static long totalWait=0, maxWait=0;
+	
+	/**
+	 * how long the players have waited from speak() to the first audio
+	 */
+	public static synchronized String getWaitStats() {
+		return "started="+nStarted+" avgWait="+(nStarted==0?0:totalWait/nStarted)+"ms maxWait="+maxWait+"ms";
+	}
+	
+	private void startPlaying() {
+		start();
+		long w=SystemClock.uptimeMillis()-speakAt;
+		synchronized(TtsMediaPlayer.class) {
+			++nStarted;
+			totalWait+=w;
+			if (w>maxWait) maxWait=w;
+		}
+		Log.d(TAG,"first audio after "+w+"ms, "+getWaitStats());
+	}
+	
 	@Override
 	public void onSaid(boolean fAborted) {
 		if (wrapped instanceof OnSaidListener)
@@ -94,18 +137,33 @@ public class TtsMediaPlayer extends MediaPlayer
 	}
 	@Override
 	public void speak() {
+		speakAt=SystemClock.uptimeMillis();
 		if (!prepared)
 			autoPlayAfterPrepare = true;
 		else
 			try {
-				start();
+				startPlaying();
 			} catch (Exception e) {}			
 	}
 	
+	/**
+	 * drops the player which is not going to be said, without calling the completion
+	 */
+	void discard() {
+		if (aborted) return;
+		aborted=true;
+		fetcher.cancel();
+		try {
+		  release();
+		} catch(Throwable t) {}
+	}
+	
 	@Override
 	public boolean abort() {
 		if (aborted) return false;
 		aborted=true;
+		// the audio which has not come yet is not going to be played
+		fetcher.cancel();
 		boolean f=isPlaying();
 		try {
 		  super.stop();
@@ -118,7 +176,7 @@ public class TtsMediaPlayer extends MediaPlayer
 	public void onPrepared(MediaPlayer mp) {
 		prepared = true;
 		if (autoPlayAfterPrepare)
-			start();
+			startPlaying();
 	}
 	
 	@Override
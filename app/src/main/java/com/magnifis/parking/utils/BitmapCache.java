@@ -0,0 +1,79 @@
+package com.magnifis.parking.utils;
+
+import java.io.File;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+/**
+ * Decoded bitmaps kept in memory, bounded by their size in bytes, and the
+ * downsampled decoding which fills it.
+ *
+ * A bitmap evicted from here may still be shown by a view, so the bitmaps are
+ * neither recycled nor reused as inBitmap.
+ */
+public class BitmapCache {
+
+	private final static LruCache<String,Bitmap> cache=new LruCache<String,Bitmap>(
+		(int)Math.min(Runtime.getRuntime().maxMemory()/8, 16*1024*1024)
+	) {
+		@Override
+		protected int sizeOf(String key, Bitmap b) {
+			return b.getRowBytes()*b.getHeight();
+		}
+	};
+
+	// the same picture decoded for another size is another entry
+	public static String key(String base, int reqWidth, int reqHeight) {
+		return (reqWidth<=0&&reqHeight<=0)?base:base+'@'+reqWidth+'x'+reqHeight;
+	}
+
+	public static Bitmap get(String key) {
+		return key==null?null:cache.get(key);
+	}
+
+	public static void put(String key, Bitmap b) {
+		if (key!=null&&b!=null) cache.put(key, b);
+	}
+
+	public static void remove(String key) {
+		cache.remove(key);
+	}
+
+	// the largest power of 2 which keeps the picture not smaller than requested
+	public static int sampleSize(int width, int height, int reqWidth, int reqHeight) {
+		int ss=1;
+		if (width>0&&height>0&&(reqWidth>0||reqHeight>0))
+			while ((reqWidth<=0||width/(ss*2)>=reqWidth)&&(reqHeight<=0||height/(ss*2)>=reqHeight))
+				ss*=2;
+		return ss;
+	}
+
+	/**
+	 * decodes the file sampled down to the requested size, 0 means "any"
+	 */
+	public static Bitmap decode(File f, int reqWidth, int reqHeight) {
+		String path=f.getPath();
+		BitmapFactory.Options opts=new BitmapFactory.Options();
+		if (reqWidth>0||reqHeight>0) {
+			opts.inJustDecodeBounds=true;
+			BitmapFactory.decodeFile(path, opts);
+			opts.inSampleSize=sampleSize(opts.outWidth, opts.outHeight, reqWidth, reqHeight);
+			opts.inJustDecodeBounds=false;
+		}
+		return BitmapFactory.decodeFile(path, opts);
+	}
+
+	public static Bitmap decode(byte b[], int reqWidth, int reqHeight) {
+		BitmapFactory.Options opts=new BitmapFactory.Options();
+		if (reqWidth>0||reqHeight>0) {
+			opts.inJustDecodeBounds=true;
+			BitmapFactory.decodeByteArray(b, 0, b.length, opts);
+			opts.inSampleSize=sampleSize(opts.outWidth, opts.outHeight, reqWidth, reqHeight);
+			opts.inJustDecodeBounds=false;
+		}
+		return BitmapFactory.decodeByteArray(b, 0, b.length, opts);
+	}
+
+}
@@ -1,71 +1,58 @@
 /**
- * 
+ *
  */
 package com.magnifis.parking.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Vector;
-import java.util.WeakHashMap;
-
-import org.w3c.dom.Element;
 
 import com.magnifis.parking.Log;
-import com.magnifis.parking.MultiAsyncTask;
+import com.magnifis.parking.utils.DownloadScheduler.Job;
+import com.magnifis.parking.utils.DownloadScheduler.Request;
 
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Environment;
-import android.widget.ImageView;
 
-public class CachingFileFetcher extends MultiAsyncTask<Object,Object,File> {
+/**
+ * Gets the file of the url into the disk cache, the download is run by DownloadScheduler,
+ * onPostExecute() gets the cached file, or null on failure, on the main thread.
+ */
+public class CachingFileFetcher {
 	final static String TAG="DiskCacheClient";
-	
-	private static HashMap<URL,ArrayList<CachingFileFetcher>> que=new HashMap<URL,ArrayList<CachingFileFetcher>>();
+
 	private static DiskCache cache=null;
-	
-	static boolean fAbort=false;
-	
+
+	private static synchronized DiskCache getCache() {
+		if (cache==null) cache=DiskCacheClient.getDataCache();
+		return cache;
+	}
+
+	// cancels the fetchers which have been created without an owner
 	public static void setAbort() {
-	  fAbort=true;
+	  DownloadScheduler.cancelOwner(CachingFileFetcher.class);
 	}
-	
+
 	public CachingFileFetcher(String url) throws MalformedURLException {
 	    this(url,false);
 	}
-	
+
 	public static boolean isInCache(String url) {
 		String key=Utils.md5(url);
-		synchronized(CachingFileFetcher.class) {
-			if (cache==null) cache=DiskCacheClient.getDataCache();
-			return cache.containsKey(key)!=0;
-		}		
+		return getCache().containsKey(key)!=0;
 	}
-	
+
 	public static Uri getUriFromCache(String url) {
 		String key=Utils.md5(url);
-		synchronized(CachingFileFetcher.class) {
-			if (cache==null) cache=DiskCacheClient.getDataCache();
-			return cache.getUri(key);
-		}		
+		return getCache().getUri(key);
 	}
-	
+
 	protected boolean workSynchronous=false;
-	
+	private Request<File> request=null;
+
 	public boolean isWorkSynchronous() {
 		return workSynchronous;
 	}
@@ -73,90 +60,100 @@ public class CachingFileFetcher extends MultiAsyncTask<Object,Object,File> {
 	public void setWorkSynchronous(boolean workSynchronous) {
 		this.workSynchronous = workSynchronous;
 	}
-	
-	private void exec(Object o) {
-	  if (workSynchronous) {
-		 if (o instanceof File) 
-		   onPostExecute((File)o);
-		 else
-		   onPostExecute(doInBackground((URL)o));
-	  } else
-		 multiExecute(o);
+
+	public CachingFileFetcher(String url, boolean _workSynchronous)
+	  throws MalformedURLException
+	{
+		this(url,_workSynchronous,DownloadScheduler.PRIORITY_AUDIO,null);
 	}
 
-	public CachingFileFetcher(String url, boolean _workSynchronous) 
+	public CachingFileFetcher(String url, boolean _workSynchronous, int priority, Object owner)
+	  throws MalformedURLException
+	{
+		this(url,url,_workSynchronous,priority,owner);
+	}
+
+	/**
+	 * the file is cached by cacheKey instead of the url, so that the same content got
+	 * from another url is found
+	 */
+	public CachingFileFetcher(String url, String cacheKey, boolean _workSynchronous, int priority, Object owner)
 	  throws MalformedURLException
    {
 		workSynchronous=_workSynchronous;
-		fAbort=false;
-		URL u=new URL(url);
+		final URL u=new URL(url);
 
-		boolean inCache=false;
-		String key=Utils.md5(url);
-		synchronized(CachingFileFetcher.class) {
-			if (cache==null) cache=DiskCacheClient.getDataCache();
-			inCache=cache.containsKey(key)!=0;
-		}
-		if (inCache) try {
-			File b=cache.getFile(key);
+		final String key=Utils.md5(cacheKey);
+		DiskCache dc=getCache();
+		if (dc.containsKey(key)!=0) try {
+			File b=dc.getFile(key);
 			if (b!=null&&b.exists()&&b.length()>0) {
-				cache.touch(key);
+				dc.touch(key);
 				onPostExecute(b);
 				Log.d(TAG,"cache OK "+u);
 				return;
 			}
 		} catch (Throwable t) {}
 		// the file is not in cache or the cached one is corrupt.
-		synchronized(CachingFileFetcher.class) {
-			ArrayList<CachingFileFetcher> ifs=que.get(u);
-			if (ifs!=null) {
-				ifs.add(this); return;
-			}
-			que.put(u,new ArrayList<CachingFileFetcher>());
+		request=DownloadScheduler.submit(
+		  "file:"+key, u, priority, owner==null?CachingFileFetcher.class:owner,
+		  new DownloadScheduler.Work<File>() {
+			 @Override
+			 public File run(Job<File> job) throws Exception {
+				return download(u, key, job);
+			 }
+		  },
+		  workSynchronous?null:new DownloadScheduler.Receiver<File>() {
+			 @Override
+			 public void onResult(File f) {
+				onPostExecute(f);
+			 }
+		  }
+		);
+		if (workSynchronous) {
+			File f=request.await();
+			if (!request.isCancelled()) onPostExecute(f);
 		}
-		exec(u);	
 	}
-	
-	protected String userAgent=null;
-
-	@Override
-	protected  File doInBackground(Object... params) {
-		if (params[0] instanceof File) return (File)params[0];
-		
-		URL u=(URL)params[0];
+
+	/**
+	 * this fetcher does not get onPostExecute() anymore, the download goes on
+	 * while other fetchers are waiting for it
+	 */
+	public void cancel() {
+		if (request!=null) request.cancel();
+	}
+
+	protected void onPostExecute(File f) {}
+
+	// is set by the initializers of the subclasses, after the download has been submitted
+	protected volatile String userAgent=null;
+
+	private File download(URL u, String key, Job<File> job) throws IOException, InterruptedException {
+		DiskCache dc=getCache();
+		File tmp=null;
 		try {
 			HttpURLConnection uc = HttpURLConnection.class.cast(u.openConnection());
 
 			uc.setReadTimeout(30000); // 30s timeout
 			uc.setConnectTimeout(30000);
-			
+
 			if (userAgent!=null)
 			   uc.setRequestProperty("User-Agent",  userAgent);
-			
+
 		   uc.connect();
 		   InputStream is=uc.getInputStream();
-			
-		   byte buf[]=new byte[1024];
-		   
-		   File fl=cache.getFile(Utils.md5(u.toString()));
-		   fl.delete();
-		   
-		   FileOutputStream fos=new FileOutputStream(fl);
-		   
+
+		   byte buf[]=new byte[4096];
+
+		   // is written aside and becomes the cached file only when complete
+		   tmp=dc.newTempFile(key);
+
+		   FileOutputStream fos=new FileOutputStream(tmp);
+
 		   try {
 			   for (int natt=0;;) {
-				   if (fAbort) {
-					  
-						   synchronized(CachingFileFetcher.class) { 
-							   que.remove(u);
-						   }
-					  
-					   try {
-						   is.close(); 
-					   } catch(Throwable t) {}
-					   cancel(true); 
-					   return null;
-				   }
+				   if (job.isCancelled()) return null;
 				   int sz=is.read(buf);
 				   if (sz<0) break;
 				   if (sz==0) {
@@ -165,28 +162,21 @@ public class CachingFileFetcher extends MultiAsyncTask<Object,Object,File> {
 				   } else {
 					   natt=0;
 					   fos.write(buf,0, sz);
+					   job.addBytes(sz);
 				   }
 			   }
 		   } finally {
 		     fos.close();
-		     fos=null;
-		   }
-		   
-		   ArrayList<CachingFileFetcher> ifs=null;
-		   synchronized(CachingFileFetcher.class) { 
-			   ifs=que.get(u);
-			   if (ifs!=null) que.remove(u);
+		     try {
+		    	 is.close();
+		     } catch(Throwable t) {}
 		   }
-		   if (ifs!=null) for (CachingFileFetcher i:ifs) i.exec(fl);
-		   
-		   
-		   return fl;
-           
-		} catch (Throwable t) {
-				synchronized (CachingFileFetcher.class) {
-					que.remove(u);
-				}
-		} 
-		return null;
+
+		   if (!dc.commit(key, tmp)) throw new IOException("empty reply from "+u);
+		   tmp=null;
+		   return dc.getFile(key);
+		} finally {
+		   if (tmp!=null) tmp.delete();
+		}
 	}
-}
\ No newline at end of file
+}
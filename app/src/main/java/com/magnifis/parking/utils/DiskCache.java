@@ -1,20 +1,71 @@
 package com.magnifis.parking.utils;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.magnifis.parking.Log;
 
 import android.net.Uri;
 
+/**
+ * A directory of files keyed by name, bounded by the total size and the number of entries.
+ *
+ * The entries are indexed in memory in LRU order, so the lookups do not touch the
+ * directory. The index is kept in a journal of A(dd), R(ead) and D(rop) lines which is
+ * replayed on start and compacted when it grows. New entries are written into a temp
+ * file and renamed, a crash can not leave a partial entry. The entries above the budget
+ * are evicted on a background thread.
+ */
 public class DiskCache {
+   final static String TAG=DiskCache.class.getSimpleName();
+
+   public final static long DEFAULT_MAX_BYTES=32L*1024*1024;
+   public final static int DEFAULT_MAX_ENTRIES=2000;
+
+   private final static String JOURNAL="journal", JOURNAL_TMP="journal.tmp", TMP_SUFFIX=".tmp";
+
    final protected File dir;
-   
+   private final long maxBytes;
+   private final int maxEntries;
+
+   private static class Entry {
+	  long size, time;
+	  Entry(long size, long time) {
+		 this.size=size;
+		 this.time=time;
+	  }
+   }
+
+   // access ordered, the eldest entry goes first
+   private final LinkedHashMap<String,Entry> index=new LinkedHashMap<String,Entry>(64,0.75f,true);
+   private long totalBytes=0;
+   private Writer journal=null;
+   private int journalLines=0;
+   private boolean trimScheduled=false;
+   private int tmpSeq=0;
+
    private static WeakReference<DiskCache> selfWr;
-   
+
    public static DiskCache get(File dir) {
 	  synchronized(DiskCache.class) {
 		 if (selfWr!=null) {
@@ -24,92 +75,353 @@ public class DiskCache {
 		 return new DiskCache(dir);
 	  }
    }
-     
+
    public DiskCache(File dir) {
+	 this(dir,DEFAULT_MAX_BYTES,DEFAULT_MAX_ENTRIES);
+   }
+
+   public DiskCache(File dir, long maxBytes, int maxEntries) {
 	 selfWr=new WeakReference<DiskCache>(this);
 	 this.dir=dir;
+	 this.maxBytes=maxBytes;
+	 this.maxEntries=maxEntries;
 	 dir.mkdirs();
-   } 
-	
-   public long containsKey(String key) {
-	  File f=new File(dir,key);
-	  if (f.exists()) return f.lastModified();
-	  return 0;
-   }
-   
+	 synchronized(this) {
+	   if (readJournal())
+		 schedule(new Runnable() {
+		   @Override
+		   public void run() {
+			 reconcile();
+		   }
+		 });
+	   else
+		 reconcile(); // the first start over an old cache directory
+	 }
+   }
+
+   private static ThreadPoolExecutor housekeeper=null;
+
+   private static synchronized void schedule(Runnable r) {
+	  if (housekeeper==null) {
+		 housekeeper=new ThreadPoolExecutor(
+			1, 1, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t=new Thread(r, "DiskCache housekeeper");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			}
+		 );
+		 housekeeper.allowCoreThreadTimeOut(true);
+	  }
+	  housekeeper.execute(r);
+   }
+
+   //------------------------------------------------------------------ the journal
+
+   private boolean readJournal() {
+	  File jf=new File(dir,JOURNAL);
+	  if (!jf.exists()) return false;
+	  try {
+		 BufferedReader br=new BufferedReader(new FileReader(jf));
+		 try {
+			for (String ln;(ln=br.readLine())!=null;) {
+			   journalLines++;
+			   String p[]=ln.split(" ");
+			   if (p.length<2) continue; // the tail of a crashed write
+			   try {
+				  switch (p[0].charAt(0)) {
+				  case 'A':
+					 if (p.length==4) addToIndex(p[1], Long.parseLong(p[2]), Long.parseLong(p[3]));
+					 break;
+				  case 'R':
+					 Entry e=index.get(p[1]);
+					 if (e!=null&&p.length==3) e.time=Long.parseLong(p[2]);
+					 break;
+				  case 'D':
+					 removeFromIndex(p[1]);
+				  }
+			   } catch (NumberFormatException x) {}
+			}
+		 } finally {
+			br.close();
+		 }
+		 return true;
+	  } catch (IOException e) {
+		 Log.e(TAG, "journal", e);
+		 index.clear();
+		 totalBytes=0;
+		 return false;
+	  }
+   }
+
+   private void writeJournal(String line) {
+	  try {
+		 if (journal==null) journal=new FileWriter(new File(dir,JOURNAL),true);
+		 journal.write(line);
+		 journal.write('\n');
+		 journal.flush();
+		 if (++journalLines>2*index.size()+1000) compactJournal();
+	  } catch (IOException e) {
+		 Log.e(TAG, "journal", e);
+		 closeJournal();
+	  }
+   }
+
+   private void closeJournal() {
+	  if (journal!=null) try {
+		 journal.close();
+	  } catch (IOException e) {
+	  } finally {
+		 journal=null;
+	  }
+   }
+
+   // rewrites the journal with the current index only
+   private void compactJournal() throws IOException {
+	  closeJournal();
+	  File tmp=new File(dir,JOURNAL_TMP);
+	  Writer w=new FileWriter(tmp);
+	  try {
+		 for (Map.Entry<String,Entry> en:index.entrySet())
+			w.write(addLine(en.getKey(),en.getValue())+"\n");
+	  } finally {
+		 w.close();
+	  }
+	  if (!tmp.renameTo(new File(dir,JOURNAL))) throw new IOException("cannot rename "+tmp);
+	  journalLines=index.size();
+   }
+
+   private static String addLine(String key, Entry e) {
+	  return "A "+key+" "+e.size+" "+e.time;
+   }
+
+   //------------------------------------------------------------------ the index
+
+   private void addToIndex(String key, long size, long time) {
+	  Entry e=index.put(key, new Entry(size,time));
+	  if (e!=null) totalBytes-=e.size;
+	  totalBytes+=size;
+   }
+
+   private Entry removeFromIndex(String key) {
+	  Entry e=index.remove(key);
+	  if (e!=null) totalBytes-=e.size;
+	  return e;
+   }
+
+   private synchronized void register(String key, long size) {
+	  long now=System.currentTimeMillis();
+	  addToIndex(key, size, now);
+	  writeJournal(addLine(key,index.get(key)));
+	  if (!trimScheduled&&(totalBytes>maxBytes||index.size()>maxEntries)) {
+		 trimScheduled=true;
+		 schedule(new Runnable() {
+			@Override
+			public void run() {
+			   trim();
+			}
+		 });
+	  }
+   }
+
+   private synchronized void forget(String key) {
+	  if (removeFromIndex(key)!=null) writeJournal("D "+key);
+   }
+
+   // evicts the least recently used entries above the budget
+   private synchronized void trim() {
+	  trimScheduled=false;
+	  Iterator<Map.Entry<String,Entry>> it=index.entrySet().iterator();
+	  while ((totalBytes>maxBytes||index.size()>maxEntries)&&it.hasNext()) {
+		 Map.Entry<String,Entry> en=it.next();
+		 it.remove();
+		 totalBytes-=en.getValue().size;
+		 new File(dir,en.getKey()).delete();
+		 writeJournal("D "+en.getKey());
+	  }
+   }
+
+   /**
+    * Lists the directory once: drops the temp files left by a crash and the index
+    * entries without a file, adopts the files the index does not know of
+    */
+   private synchronized void reconcile() {
+	  File fs[]=dir.listFiles();
+	  if (fs==null) return;
+	  Arrays.sort(fs, new Comparator<File>() { // the eldest first, to keep the LRU order
+		 @Override
+		 public int compare(File a, File b) {
+			long x=a.lastModified(), y=b.lastModified();
+			return x<y?-1:(x>y?1:0);
+		 }
+	  });
+	  LinkedHashMap<String,File> files=new LinkedHashMap<String,File>();
+	  for (File f:fs) {
+		 String name=f.getName();
+		 if (name.equals(JOURNAL)||f.isDirectory()) continue;
+		 if (name.endsWith(TMP_SUFFIX)) f.delete(); else files.put(name, f);
+	  }
+	  List<String> missing=new ArrayList<String>();
+	  for (String key:index.keySet()) if (files.remove(key)==null) missing.add(key);
+	  for (String key:missing) forget(key);
+	  for (Map.Entry<String,File> en:files.entrySet()) {
+		 File f=en.getValue();
+		 addToIndex(en.getKey(), f.length(), f.lastModified());
+		 writeJournal(addLine(en.getKey(),index.get(en.getKey())));
+	  }
+	  trim();
+   }
+
+   //------------------------------------------------------------------ the API
+
+   // the time of the last access, 0 if there is no such entry
+   public synchronized long containsKey(String key) {
+	  Entry e=index.get(key);
+	  return e==null?0:e.time;
+   }
+
    public File getFile(String key) {
 	  return new File(dir,key);
    }
-   
+
    public void drop(String key) {
-	   getFile(key).delete(); 
+	   synchronized(this) {
+		  forget(key);
+	   }
+	   getFile(key).delete();
    }
-   
+
+   /**
+    * A temp file to write a new entry into, it becomes the entry by commit()
+    */
+   public File newTempFile(String key) {
+	  int seq;
+	  synchronized(this) {
+		 seq=++tmpSeq;
+	  }
+	  return new File(dir,key+"."+seq+TMP_SUFFIX);
+   }
+
+   public boolean commit(String key, File tmp) {
+	  File f=getFile(key);
+	  long size=tmp.length();
+	  synchronized(this) {
+		 if (size>0&&tmp.renameTo(f)) {
+			register(key, size);
+			return true;
+		 }
+	  }
+	  tmp.delete();
+	  return false;
+   }
+
+   /**
+    * Appends to the entry in place, the entry is accounted at the size it has
+    * when the stream is opened
+    */
    public FileOutputStream append(String key) {
 	   File f=getFile(key);
 	   try {
-		   return new FileOutputStream(f,true);
+		   FileOutputStream fos=new FileOutputStream(f,true);
+		   register(key, f.length());
+		   return fos;
 	   } catch (FileNotFoundException e) {
 		   e.printStackTrace();
 	   }
 	   return null;
    }
-   
+
    public void put(String key, byte data[]) {
-	  File f=getFile(key);
+	  File tmp=newTempFile(key);
 	  try {
-	    FileOutputStream fos=new FileOutputStream(f);
-	    fos.write(data);
-	    fos.close();
-	    if (f.length()<data.length) f.delete();
+	    FileOutputStream fos=new FileOutputStream(tmp);
+	    try {
+	      fos.write(data);
+	    } finally {
+	      fos.close();
+	    }
+	    if (tmp.length()<data.length) tmp.delete(); else commit(key, tmp);
 	  } catch(Throwable t) {
-		if (f.exists()) f.delete();
+		if (tmp.exists()) tmp.delete();
 	  }
    }
-   
-   public void touch(String key) {
-	 File f=new File(dir,key);
-     if (f.exists())
-    	f.setLastModified(System.currentTimeMillis());
+
+   public synchronized void touch(String key) {
+	 Entry e=index.get(key);
+	 if (e!=null) {
+		e.time=System.currentTimeMillis();
+		writeJournal("R "+key+" "+e.time);
+	 }
+   }
+
+   // the entry is moved to the recently used end of the index, the journal is not written
+   private synchronized boolean hit(String key) {
+	  return index.get(key)!=null;
    }
-   
+
    public byte[] get(String key) {
-      File f=getFile(key);
-	  if (f.exists()) try {
-		FileInputStream fis=new FileInputStream(f);
-		byte b[]=new byte[(int) f.length()];
-		if (fis.read(b)<b.length) return null;
-	  } catch (Throwable t) {
+	  if (hit(key)) {
+		 File f=getFile(key);
+		 try {
+			FileInputStream fis=new FileInputStream(f);
+			try {
+			   byte b[]=new byte[(int) f.length()];
+			   int n=0;
+			   for (int k;n<b.length&&(k=fis.read(b,n,b.length-n))>0;) n+=k;
+			   if (n==b.length) return b;
+			} finally {
+			   fis.close();
+			}
+		 } catch (FileNotFoundException e) {
+			forget(key);
+		 } catch (Throwable t) {
+		 }
 	  }
- 	  return null;  
+	  return null;
    }
-   
+
    public Uri getUri(String key) {
-	   File f=getFile(key);
-	   if (f.exists()) try {
-		   return Uri.parse("file://"+f.getCanonicalPath());
+	   if (hit(key)) try {
+		   File f=getFile(key);
+		   if (f.exists()) return Uri.parse("file://"+f.getCanonicalPath());
+		   forget(key);
 	   } catch (Throwable t) {
 	   }
-	   return null;  	   
+	   return null;
    }
 
-   
+
    public FileInputStream getStream(String key) {
-	   File f=getFile(key);
-	   if (f.exists()) try {
-		   return new FileInputStream(f);
+	   if (hit(key)) try {
+		   return new FileInputStream(getFile(key));
+	   } catch (FileNotFoundException e) {
+		   forget(key);
 	   } catch (Throwable t) {
 	   }
-	   return null;  	   
+	   return null;
+   }
+
+   public synchronized long size() {
+	  return totalBytes;
+   }
+
+   public synchronized int count() {
+	  return index.size();
    }
-   
-   public void removeOutdated(long tm) {
-	 if (dir.exists()) {
-		 Date dt=new Date(tm);
-		 File fs[]=dir.listFiles();
 
-		 if (fs!=null) for (File f:fs) 
-			 if (new Date(f.lastModified()).before(dt)) f.delete();
+   // drops the entries not accessed since tm
+   public synchronized void removeOutdated(long tm) {
+	 List<String> old=new ArrayList<String>();
+	 for (Map.Entry<String,Entry> en:index.entrySet())
+		 if (en.getValue().time<tm) old.add(en.getKey());
+	 for (String key:old) {
+		 forget(key);
+		 getFile(key).delete();
 	 }
    }
 }
@@ -0,0 +1,380 @@
+package com.magnifis.parking.utils;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.magnifis.parking.Log;
+
+/**
+ * Runs the downloads of the fetchers on a few worker threads.
+ *
+ * The requests for the same key share one Job, which waits in the lane of its most
+ * urgent request. A free worker takes the oldest job of the most urgent lane whose
+ * host has a free connection. A request is cancelled alone or together with all
+ * the requests of its owner, a job which has no requests left is dropped from
+ * the queue or, if it is running, is told to stop.
+ */
+public class DownloadScheduler {
+	final static String TAG=DownloadScheduler.class.getSimpleName();
+
+	public final static int
+	  PRIORITY_UI=0,       // a picture which is being shown
+	  PRIORITY_AUDIO=1,    // speech which is about to be played
+	  PRIORITY_PREFETCH=2, // may be needed later
+	  N_PRIORITIES=3;
+
+	public final static int MAX_WORKERS=4, MAX_PER_HOST=2;
+
+	// an idle worker exits after that
+	private final static long KEEP_ALIVE=30000;
+
+	public interface Work<R> {
+		/**
+		 * runs on a worker thread, should give up as soon as job.isCancelled()
+		 */
+		R run(Job<R> job) throws Exception;
+	}
+
+	public interface Receiver<R> {
+		/**
+		 * runs on the main thread, is not called for a cancelled request,
+		 * the result is null if the work has failed
+		 */
+		void onResult(R result);
+	}
+
+	public static class Job<R> {
+		final String key, host;
+		final Work<R> work;
+		final ArrayList<Request<R>> requests=new ArrayList<Request<R>>(2);
+		int priority;
+		boolean running=false, done=false;
+		volatile boolean cancelled=false;
+		R result=null;
+		long queuedAt=System.currentTimeMillis(), startedAt=0;
+
+		Job(String key, URL url, Work<R> work, int priority) {
+			this.key=key;
+			this.host=url.getHost().toLowerCase();
+			this.work=work;
+			this.priority=priority;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		// for the throughput stats
+		public void addBytes(int n) {
+			synchronized(lock) {
+				bytes+=n;
+			}
+		}
+	}
+
+	public static class Request<R> {
+		final Job<R> job;
+		final Receiver<R> receiver;
+		final Object owner;
+		boolean cancelled=false;
+
+		Request(Job<R> job, Receiver<R> receiver, Object owner) {
+			this.job=job;
+			this.receiver=receiver;
+			this.owner=owner;
+		}
+
+		public boolean isCancelled() {
+			synchronized(lock) {
+				return cancelled;
+			}
+		}
+
+		public void cancel() {
+			DownloadScheduler.cancel(this);
+		}
+
+		/**
+		 * Blocks until the job is done, for the callers which work synchronously.
+		 * Returns null if the request has been cancelled.
+		 */
+		public R await() {
+			synchronized(lock) {
+				while (!job.done&&!cancelled) try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					return null;
+				}
+				return cancelled?null:job.result;
+			}
+		}
+	}
+
+	public static class Stats {
+		public int queued[]=new int[N_PRIORITIES], running, workers, maxQueued;
+		public long submitted, coalesced, completed, failed, cancelled, bytes, waitTime, runTime;
+
+		public long getAverageWait() {
+			return completed+failed==0?0:waitTime/(completed+failed);
+		}
+
+		// bytes per second of the time spent in the jobs
+		public long getThroughput() {
+			return runTime==0?0:bytes*1000/runTime;
+		}
+
+		@Override
+		public String toString() {
+			return "queued="+queued[PRIORITY_UI]+'/'+queued[PRIORITY_AUDIO]+'/'+queued[PRIORITY_PREFETCH]
+			  +" max="+maxQueued+" running="+running+" workers="+workers
+			  +" submitted="+submitted+" coalesced="+coalesced
+			  +" completed="+completed+" failed="+failed+" cancelled="+cancelled
+			  +" avgWait="+getAverageWait()+"ms throughput="+getThroughput()+"B/s";
+		}
+	}
+
+	private final static Object lock=new Object();
+
+	private final static HashMap<String,Job<?>> jobs=new HashMap<String,Job<?>>();
+	@SuppressWarnings("unchecked")
+	private final static LinkedList<Job<?>> lanes[]=new LinkedList[N_PRIORITIES];
+	static {
+		for (int i=0;i<N_PRIORITIES;i++) lanes[i]=new LinkedList<Job<?>>();
+	}
+	private final static HashMap<String,Integer> hostLoad=new HashMap<String,Integer>();
+	// the requests of the done jobs whose results are posted to the main thread but not delivered yet
+	private final static ArrayList<Request<?>> delivering=new ArrayList<Request<?>>();
+	private static int nWorkers=0, nIdle=0, nQueued=0, nRunning=0;
+
+	private static int maxQueued=0;
+	private static long submitted=0, coalesced=0, completed=0, failed=0, cancelled=0,
+	  bytes=0, waitTime=0, runTime=0;
+
+	private static Handler handler=null;
+
+	private static Handler getHandler() {
+		synchronized(lock) {
+			if (handler==null) handler=new Handler(Looper.getMainLooper());
+			return handler;
+		}
+	}
+
+	/**
+	 * Attaches the request to the job of the key, the job is created and queued if there
+	 * is none. The receiver may be null for a caller which is going to await().
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R> Request<R> submit(
+	  String key, URL url, int priority, Object owner, Work<R> work, Receiver<R> receiver
+	) {
+		synchronized(lock) {
+			++submitted;
+			Job<R> j=(Job<R>)jobs.get(key);
+			if (j==null) {
+				j=new Job<R>(key, url, work, priority);
+				jobs.put(key, j);
+				lanes[priority].add(j);
+				if (++nQueued>maxQueued) maxQueued=nQueued;
+				if (nIdle==0&&nWorkers<MAX_WORKERS) {
+					++nWorkers;
+					new Worker().start();
+				} else
+					lock.notifyAll();
+			} else {
+				++coalesced;
+				if (priority<j.priority&&!j.running) {
+					lanes[j.priority].remove(j);
+					j.priority=priority;
+					lanes[priority].add(j);
+					lock.notifyAll();
+				}
+			}
+			Request<R> r=new Request<R>(j, receiver, owner);
+			j.requests.add(r);
+			return r;
+		}
+	}
+
+	public static void cancel(Request<?> r) {
+		synchronized(lock) {
+			if (r.cancelled) return;
+			r.cancelled=true;
+			++cancelled;
+			Job<?> j=r.job;
+			// a result which has been posted already is not delivered then
+			if (j.done) {
+				delivering.remove(r);
+				lock.notifyAll();
+				return;
+			}
+			j.requests.remove(r);
+			if (j.requests.isEmpty()) {
+				if (jobs.get(j.key)==j) jobs.remove(j.key);
+				if (j.running)
+					j.cancelled=true;
+				else {
+					lanes[j.priority].remove(j);
+					--nQueued;
+					j.cancelled=true;
+					j.done=true;
+				}
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * cancels all the requests of the owner but the one which is kept, which may be null
+	 */
+	public static void cancelOwner(Object owner, Request<?> keep) {
+		ArrayList<Request<?>> rs=new ArrayList<Request<?>>();
+		synchronized(lock) {
+			for (Job<?> j:jobs.values())
+				for (Request<?> r:j.requests)
+					if (r.owner==owner&&r!=keep) rs.add(r);
+			for (Request<?> r:delivering)
+				if (r.owner==owner&&r!=keep) rs.add(r);
+			for (Request<?> r:rs) cancel(r);
+		}
+	}
+
+	public static void cancelOwner(Object owner) {
+		cancelOwner(owner, null);
+	}
+
+	public static Stats getStats() {
+		Stats s=new Stats();
+		synchronized(lock) {
+			for (int i=0;i<N_PRIORITIES;i++) s.queued[i]=lanes[i].size();
+			s.running=nRunning;
+			s.workers=nWorkers;
+			s.maxQueued=maxQueued;
+			s.submitted=submitted;
+			s.coalesced=coalesced;
+			s.completed=completed;
+			s.failed=failed;
+			s.cancelled=cancelled;
+			s.bytes=bytes;
+			s.waitTime=waitTime;
+			s.runTime=runTime;
+		}
+		return s;
+	}
+
+	private static int load(String host) {
+		Integer n=hostLoad.get(host);
+		return n==null?0:n;
+	}
+
+	private static void addLoad(String host, int d) {
+		int n=load(host)+d;
+		if (n>0) hostLoad.put(host, n); else hostLoad.remove(host);
+	}
+
+	// the oldest job of the most urgent lane whose host is not busy, under the lock
+	private static Job<?> next() {
+		for (LinkedList<Job<?>> lane:lanes)
+			for (Iterator<Job<?>> it=lane.iterator();it.hasNext();) {
+				Job<?> j=it.next();
+				if (load(j.host)<MAX_PER_HOST) {
+					it.remove();
+					--nQueued;
+					++nRunning;
+					j.running=true;
+					j.startedAt=System.currentTimeMillis();
+					waitTime+=j.startedAt-j.queuedAt;
+					addLoad(j.host, 1);
+					return j;
+				}
+			}
+		return null;
+	}
+
+	private static Job<?> take() {
+		synchronized(lock) {
+			long deadline=System.currentTimeMillis()+KEEP_ALIVE;
+			for (;;) {
+				Job<?> j=next();
+				if (j!=null) return j;
+				long t=deadline-System.currentTimeMillis();
+				if (t<=0) {
+					--nWorkers;
+					return null;
+				}
+				++nIdle;
+				try {
+					lock.wait(t);
+				} catch (InterruptedException e) {
+					--nWorkers;
+					return null;
+				} finally {
+					--nIdle;
+				}
+			}
+		}
+	}
+
+	private static <R> void execute(final Job<R> j) {
+		R res=null;
+		boolean ok=false;
+		try {
+			res=j.work.run(j);
+			ok=true;
+		} catch (Throwable t) {
+			Log.d(TAG, j.key+": "+t);
+		}
+
+		final R result=j.cancelled?null:res;
+		ArrayList<Request<R>> rs;
+		synchronized(lock) {
+			j.result=result;
+			j.running=false;
+			j.done=true;
+			if (jobs.get(j.key)==j) jobs.remove(j.key);
+			--nRunning;
+			addLoad(j.host, -1);
+			runTime+=System.currentTimeMillis()-j.startedAt;
+			if (ok&&result!=null) ++completed; else ++failed;
+			rs=new ArrayList<Request<R>>(j.requests);
+			for (Request<R> r:rs) if (r.receiver!=null) delivering.add(r);
+			lock.notifyAll();
+		}
+		if (Log.LOG) Log.d(TAG, j.key+" done, "+getStats());
+
+		for (final Request<R> r:rs) if (r.receiver!=null) getHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				synchronized(lock) {
+					delivering.remove(r);
+					if (r.cancelled) return;
+				}
+				r.receiver.onResult(result);
+			}
+		});
+	}
+
+	private static class Worker extends Thread {
+		Worker() {
+			super(TAG);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			for (Job<?> j;(j=take())!=null;) execute(j);
+		}
+	}
+
+}
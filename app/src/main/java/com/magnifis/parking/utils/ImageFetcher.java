@@ -3,54 +3,47 @@
  */
 package com.magnifis.parking.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
+import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Vector;
-import java.util.WeakHashMap;
 
-import org.w3c.dom.Element;
-
-import com.magnifis.parking.Consts;
 import com.magnifis.parking.Log;
-import com.magnifis.parking.MultiAsyncTask;
 import com.magnifis.parking.MultipleEventHandler;
-import com.magnifis.parking.MultipleEventHandler.EventSource;
+import com.magnifis.parking.utils.DownloadScheduler.Job;
+import com.magnifis.parking.utils.DownloadScheduler.Request;
 
-import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
-import android.os.Environment;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
-public class ImageFetcher extends MultiAsyncTask<Object,Object,Bitmap> {
+/**
+ * Gets the picture of the url decoded, through the memory and the disk caches when
+ * useCache is set. The download is run by DownloadScheduler, onPostExecute() gets the
+ * bitmap, or null on failure, on the main thread.
+ */
+public class ImageFetcher {
 	final static String TAG="ImageFetcher";
 	
-	private static HashMap<URL,ArrayList<ImageFetcher>> que=new HashMap<URL,ArrayList<ImageFetcher>>();
 	private static DiskCache bitmapCache=null;
 	
-	
+	private static synchronized DiskCache getDiskCache() {
+		if (bitmapCache==null) bitmapCache=DiskCacheClient.getDataCache();
+		return bitmapCache;
+	}
 	
 	boolean useCache=false;
-	static boolean fAbort=false;
 	
+	// the size to sample the picture down to, 0 is "as is"
+	protected int reqWidth=0, reqHeight=0;
+	private String memKey=null;
+	private Request<Bitmap> request=null;
+	
+	// cancels the fetchers which have been created without an owner
 	public static void setAbort() {
-	  fAbort=true;
+	  DownloadScheduler.cancelOwner(ImageFetcher.class);
 	}
 	
 	public ImageFetcher(String url) throws MalformedURLException {
@@ -59,26 +52,21 @@ public class ImageFetcher extends MultiAsyncTask<Object,Object,Bitmap> {
 	
 	public static boolean isInCache(String url) {
 		String key=Utils.md5(url);
-		synchronized(ImageFetcher.class) {
-			if (bitmapCache==null) bitmapCache=DiskCacheClient.getDataCache();
-			return bitmapCache.containsKey(key)!=0;
-		}		
+		return getDiskCache().containsKey(key)!=0;
 	}
 	
 	public static Uri getUriFromCache(String url) {
 		String key=Utils.md5(url);
-		synchronized(ImageFetcher.class) {
-			if (bitmapCache==null) bitmapCache=DiskCacheClient.getDataCache();
-			return bitmapCache.getUri(key);
-		}		
+		return getDiskCache().getUri(key);
 	}
 	
+	/**
+	 * Does not decode, so it is safe to call while drawing: returns the bitmap only 
+	 * if it is in memory, one which is on disk is loaded by new ImageFetcher(url,true,false)
+	 */
 	public static Bitmap getFromCache(String url) {
-		String key=Utils.md5(url);
-		synchronized(ImageFetcher.class) {
-			if (bitmapCache==null) bitmapCache=DiskCacheClient.getDataCache();
-			return BitmapFactory.decodeStream(bitmapCache.getStream(key));
-		}		
+		if (url==null) return null;
+		return BitmapCache.get(Utils.md5(url));
 	}
 	
 	protected boolean workSynchronous=false;
@@ -90,55 +78,71 @@ public class ImageFetcher extends MultiAsyncTask<Object,Object,Bitmap> {
 	public void setWorkSynchronous(boolean workSynchronous) {
 		this.workSynchronous = workSynchronous;
 	}
-	
-	@SuppressLint("NewApi")
-	private void exec(Object o) {
-	  if (workSynchronous) {
-		 if (o instanceof Bitmap) 
-		   onPostExecute((Bitmap)o);
-		 else
-		   onPostExecute(doInBackground((URL)o));
-	  } else {
-		   multiExecute(o);
-	  }
-	}
 
 	public ImageFetcher(String url, boolean _useCache, boolean _workSynchronous) 
 	  throws MalformedURLException
+	{
+		this(url,_useCache,_workSynchronous,0,0);
+	}
+	
+	public ImageFetcher(String url, boolean _useCache, boolean _workSynchronous, int _reqWidth, int _reqHeight) 
+	  throws MalformedURLException
+	{
+		this(url,_useCache,_workSynchronous,_reqWidth,_reqHeight,DownloadScheduler.PRIORITY_UI,null);
+	}
+	
+	public ImageFetcher(
+	  String url, boolean _useCache, boolean _workSynchronous, int _reqWidth, int _reqHeight,
+	  int priority, Object owner
+	) throws MalformedURLException
    {
 		workSynchronous=_workSynchronous;
-		useCache=_useCache; fAbort=false;
-		URL u=new URL(url);
+		useCache=_useCache;
+		reqWidth=_reqWidth; reqHeight=_reqHeight;
+		final URL u=new URL(url);
+		final String key=Utils.md5(url);
+		memKey=BitmapCache.key(key,reqWidth,reqHeight);
 		if (useCache) {
-			boolean inCache=false;
-			String key=Utils.md5(url);
-			synchronized(ImageFetcher.class) {
-				if (bitmapCache==null) bitmapCache=DiskCacheClient.getDataCache();
-				inCache=bitmapCache.containsKey(key)!=0;
-			}
-			if (inCache) try {
-				Bitmap b=BitmapFactory.decodeStream(bitmapCache.getStream(key));
-				if (b!=null&&b.getHeight()>0) {
-					bitmapCache.touch(key);
-					onPostExecute(b);
-					Log.d(TAG,"cache OK "+u);
-					return;
-				}
-			} catch (Throwable t) {}
-			// the image not in cache or the cached one is corrupt.
-			synchronized(ImageFetcher.class) {
-				ArrayList<ImageFetcher> ifs=que.get(u);
-				if (ifs!=null) {
-					ifs.add(this); return;
-				}
-				que.put(u,new ArrayList<ImageFetcher>());
+			// only a decoded bitmap is served right here, the disk cache is read in background
+			Bitmap b=BitmapCache.get(memKey);
+			if (b!=null) {
+				onPostExecute(b);
+				Log.d(TAG,"cache OK "+u);
+				return;
 			}
-			exec(u);
-			
-		} else
-			exec(u);
+		}
+		// the fetchers of the same picture of the same size share the download
+		request=DownloadScheduler.submit(
+		  (useCache?"img:":"img!")+memKey, u, priority, owner==null?ImageFetcher.class:owner,
+		  new DownloadScheduler.Work<Bitmap>() {
+			 @Override
+			 public Bitmap run(Job<Bitmap> job) throws Exception {
+				return download(u, key, job);
+			 }
+		  },
+		  workSynchronous?null:new DownloadScheduler.Receiver<Bitmap>() {
+			 @Override
+			 public void onResult(Bitmap b) {
+				onPostExecute(b);
+			 }
+		  }
+		);
+		if (workSynchronous) {
+			Bitmap b=request.await();
+			if (!request.isCancelled()) onPostExecute(b);
+		}
+	}
+
+	/**
+	 * this fetcher does not get onPostExecute() anymore, the download goes on
+	 * while other fetchers are waiting for it
+	 */
+	public void cancel() {
+		if (request!=null) request.cancel();
 	}
 
+	protected void onPostExecute(Bitmap b) {}
+
 	public static void setImageTo(String u,ImageView iv) throws MalformedURLException  {
 		setImageTo(u,iv,null,false);
 	}
@@ -153,15 +157,29 @@ public class ImageFetcher extends MultiAsyncTask<Object,Object,Bitmap> {
 	
 	
 	public static void syncCacheImage(String u)  throws MalformedURLException  {
-		if (!isInCache(u)) new ImageFetcher(u,true, true);
+		if (!isInCache(u)) new ImageFetcher(u,true,true,0,0,DownloadScheduler.PRIORITY_PREFETCH,null);
 	}
 
+	// the size the view shows the picture at, if it is known already
+	private static int targetSize(int measured, int param) {
+		return measured>0?measured:(param>0?param:0);
+	}
 	
+	/**
+	 * the view is the owner of the request, so a picture which has been asked for
+	 * the view before and has not come yet is not going to replace this one
+	 */
 	public static void setImageTo(
 	     String u,final ImageView iv,final MultipleEventHandler<Bitmap>.EventSource es,
 	     boolean useCache
 	) throws MalformedURLException  {
-	  new ImageFetcher(u,useCache, false) {
+	  ViewGroup.LayoutParams lp=iv.getLayoutParams();
+	  ImageFetcher f=new ImageFetcher(
+		 u,useCache, false,
+		 targetSize(iv.getWidth(),lp==null?0:lp.width),
+		 targetSize(iv.getHeight(),lp==null?0:lp.height),
+		 DownloadScheduler.PRIORITY_UI, iv
+	  ) {
 		   @Override
 		   protected void onPostExecute(Bitmap bmp) {
 			   if (bmp!=null) {
@@ -172,65 +190,61 @@ public class ImageFetcher extends MultiAsyncTask<Object,Object,Bitmap> {
 			   if (es!=null) es.fireEvent(bmp);
 		   }	  
 	  };
+	  DownloadScheduler.cancelOwner(iv, f.request);
 	}
 
-	@Override
-	protected  Bitmap doInBackground(Object... params) {
-		if (params[0] instanceof Bitmap) return (Bitmap)params[0];
-		
-		URL u=(URL)params[0];
+	private Bitmap download(URL u, String key, Job<Bitmap> job) throws Exception {
+		File tmp=null;
 		try {
-
-		   InputStream is=u.openStream();
-		   byte buf[]=new byte[1024];
-		   ByteArrayOutputStream baos=new ByteArrayOutputStream();
-		   for (int natt=0;;) {
-			 if (fAbort) {
-				 if (useCache) {
-					 synchronized(ImageFetcher.class) { 
-						 que.remove(u);
-					 }
-				 }
-				 try {
-					is.close(); 
-				 } catch(Throwable t) {}
-				 cancel(true); 
-				 return null;
-			 }
-			 int sz=is.read(buf);
-			 if (sz<0) break;
-			 if (sz==0) {
-				if (++natt>10) break;
-				Thread.sleep(50);
-			 } else {
-			   natt=0;
-			   baos.write(buf,0, sz);
-			 }
-		   }
+		   DiskCache dc=getDiskCache();
+		   Bitmap b=null;
 		   
-		   ByteArrayInputStream bais=new ByteArrayInputStream(baos.toByteArray());
-		   
-		   Bitmap b=BitmapFactory.decodeStream(bais);
+		   if (useCache&&dc.containsKey(key)!=0) {
+			   b=BitmapCache.decode(dc.getFile(key), reqWidth, reqHeight);
+			   if (b!=null&&b.getHeight()>0) {
+				   dc.touch(key);
+				   Log.d(TAG,"disk cache OK "+u);
+			   } else
+				   b=null; // the cached one is corrupt
+		   }
 		   
-		   if (useCache) {
-			   ArrayList<ImageFetcher> ifs=null;
-			   synchronized(ImageFetcher.class) { 
-				   //cashedBitmaps.put(Utils.md5(u.toString()),baos.toByteArray());
-				   bitmapCache.put(Utils.md5(u.toString()),baos.toByteArray());
-				   ifs=que.get(u);
-				   if (ifs!=null) que.remove(u);
+		   if (b==null) {
+			   // the picture goes to a file as it arrives and is decoded from there
+			   InputStream is=u.openStream();
+			   byte buf[]=new byte[4096];
+			   tmp=dc.newTempFile(key);
+			   FileOutputStream fos=new FileOutputStream(tmp);
+			   try {
+				   for (int natt=0;;) {
+					 if (job.isCancelled()) return null;
+					 int sz=is.read(buf);
+					 if (sz<0) break;
+					 if (sz==0) {
+						if (++natt>10) break;
+						Thread.sleep(50);
+					 } else {
+					   natt=0;
+					   fos.write(buf,0, sz);
+					   job.addBytes(sz);
+					 }
+				   }
+			   } finally {
+				   fos.close();
+				   try {
+					   is.close();
+				   } catch(Throwable t) {}
 			   }
-			   if (ifs!=null) for (ImageFetcher i:ifs) i.exec(b);
+			   
+			   b=BitmapCache.decode(tmp, reqWidth, reqHeight);
+			   
+			   if (useCache&&b!=null) dc.commit(key, tmp); else tmp.delete();
+			   tmp=null;
 		   }
 		   
+		   if (useCache) BitmapCache.put(memKey, b);
            return b;
-		} catch (Throwable t) {
-		    if (useCache) {
-				synchronized (ImageFetcher.class) {
-					que.remove(u);
-				}
-			}		
+		} finally {
+			if (tmp!=null) tmp.delete();
 		} 
-		return null;
 	}
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package com.magnifis.parking.utils;
 import java.text.Normalizer;
 import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -374,6 +375,12 @@ public class Langutils {
 	// this is a function just like likeness but does not require
 	// to generate phonetic variants
 	private static double likeness00(CharSequence a, CharSequence b) {
+	  return Likeness00Engine.get().likeness00(a,b);
+	}
+	
+	// the original recursive definition, it is exponential on the number of phonetic
+	// substitutions and is kept only as the reference for Likeness00Engine (likeness00Mismatches())
+	static double likeness00Reference(CharSequence a, CharSequence b) {
 	  return  likeness00(a,b,-1,-1,-1,-1,0);
 	}
 	
@@ -450,9 +457,243 @@ public class Langutils {
 			  }
 		   }
 		   return n;
-	}	
+	}
 	
+	/**
+	 * The randomized equivalence check of Likeness00Engine against the recursion: the number
+	 * of the pairs which are not scored bit identically. Half of the pairs are drawn of the
+	 * characters having phonetic substitutions, the strings are short enough for the recursion.
+	 * The time taken by either is logged.
+	 */
+	static int likeness00Mismatches(long seed, int pairs) {
+		final String plain="abcdefghijklmnopqrstuvwxyzABCZ ", subst=new String(phonetic_var_list);
+		java.util.Random rnd=new java.util.Random(seed);
+		String a[]=new String[pairs], b[]=new String[pairs];
+		for (int k=0;k<pairs;k++) {
+			String abc=(k&1)==0?plain:subst;
+			a[k]=randomString(rnd, abc, 1+rnd.nextInt(12));
+			b[k]=randomString(rnd, abc, 1+rnd.nextInt(12));
+		}
+		double x[]=new double[pairs], y[]=new double[pairs];
+		long t0=System.nanoTime();
+		for (int k=0;k<pairs;k++) x[k]=likeness00(a[k],b[k]);
+		long t1=System.nanoTime();
+		for (int k=0;k<pairs;k++) y[k]=likeness00Reference(a[k],b[k]);
+		long t2=System.nanoTime();
+		int bad=0;
+		for (int k=0;k<pairs;k++) 
+			if (Double.doubleToLongBits(x[k])!=Double.doubleToLongBits(y[k])) {
+				Log.e(TAG, "likeness00 differs on \""+a[k]+"\", \""+b[k]+"\": "+x[k]+" != "+y[k]);
+				++bad;
+			}
+		Log.d(TAG, "likeness00: "+pairs+" pairs, "+bad+" mismatches, engine "+(t1-t0)/1000000
+		  +"ms, recursion "+(t2-t1)/1000000+"ms");
+		return bad;
+	}
+	
+	private static String randomString(java.util.Random rnd, String abc, int len) {
+		StringBuilder sb=new StringBuilder(len);
+		for (int i=0;i<len;i++) sb.append(abc.charAt(rnd.nextInt(abc.length())));
+		return sb.toString();
+	}
+	
+	/*
+	 * Evaluates likeness00 without the exponential blow up of the recursion.
+	 * 
+	 * The recursion at a phonetic substitution explores three tails: the one taking the
+	 * substitution, the one skipping b[j] and the one skipping a[i]. The two skipping
+	 * tails start before any new match, so neither lastFound nor prev_inc can affect
+	 * them (the only pair continuing a sequence has been passed already), their value
+	 * depends on (iStart, jStart, last_b_found) only and is memoized. The taking tail
+	 * depends on prev_inc and is evaluated directly, it does not branch by itself.
+	 * 
+	 * The loop body is the same as in the reference, so the doubles are summed in
+	 * the same order and the result is bit identical.
+	 */
+	private static class Likeness00Engine {
+		
+		private final static ThreadLocal<Likeness00Engine> engines=new ThreadLocal<Likeness00Engine>() {
+			@Override
+			protected Likeness00Engine initialValue() {
+				return new Likeness00Engine();
+			}
+		};
+		
+		static Likeness00Engine get() {
+			return engines.get();
+		}
+		
+		// 0 - no substitution, 1 - direct one (0.9), 2 - via a common variant (0.81)
+		private final static int ASCII=128;
+		private final static byte substitutions[]=new byte[ASCII*ASCII];
+		
+		static {
+			for (char ac=0;ac<ASCII;ac++) for (char bc=0;bc<ASCII;bc++) 
+				substitutions[ac*ASCII+bc]=(byte)findSubstitution(ac,bc);
+		}
+		
+		private static int substitution(char ac, char bc) {
+			return ac<ASCII&&bc<ASCII?substitutions[ac*ASCII+bc]:findSubstitution(ac,bc);
+		}
+		
+		private static int findSubstitution(char ac, char bc) {
+			char s1[]=findVarSubstitutions(ac); 
+			if (!isEmpty(s1)) {
+				if (contains(s1, bc)) return 1;
+				char s2[]=findVarSubstitutions(bc);
+				if (!isEmpty(s2)) {
+					if (contains(s2, ac)) return 1;
+					if (intersects(s1,s2)) return 2;
+				}
+			}
+			return 0;
+		}
+		
+		// whether tail() may take the pair for a match, in either order of the strings
+		static boolean mayMatch(char ac, char bc) {
+			if (Character.isUpperCase(ac)||Character.isUpperCase(bc))
+				return Character.toLowerCase(ac)==Character.toLowerCase(bc);
+			return ac==bc||substitution(ac,bc)!=0||substitution(bc,ac)!=0;
+		}
+		
+		private CharSequence a, b;
+		private int aLen, bLen;
+		
+		// memo of the skipping tails, valid where stamp==generation
+		private double memo[]=new double[0];
+		private int stamp[]=new int[0];
+		private int generation=0;
+		
+		// the table takes (aLen+1)*(bLen+1)^2 entries, longer strings are memoized in a map
+		private final static int MAX_TABLE=1<<16;
+		private final HashMap<Long,Double> sparse=new HashMap<Long,Double>();
+		private boolean inTable;
+		
+		double likeness00(CharSequence a, CharSequence b) {
+			this.a=a; this.b=b;
+			aLen=a.length(); bLen=b.length();
+			long sz=(aLen+1L)*(bLen+1L)*(bLen+1L);
+			inTable=sz<=MAX_TABLE;
+			if (inTable) {
+				if (memo.length<sz) {
+					memo=new double[(int)sz];
+					stamp=new int[(int)sz];
+					generation=0;
+				}
+				if (++generation==0) {
+					java.util.Arrays.fill(stamp, 0);
+					generation=1;
+				}
+			}
+			try {
+			  return tail(-1,-1,-1,-1,0);
+			} finally {
+			  this.a=this.b=null;
+			  sparse.clear();
+			}
+		}
+		
+		private double skippingTail(int lastFound, int last_b_found, int iStart, int jStart, double prev_inc) {
+			long key=((iStart+1L)*(bLen+1)+jStart+1)*(bLen+1)+last_b_found+1;
+			if (inTable) {
+				if (stamp[(int)key]==generation) return memo[(int)key];
+			} else {
+				Double v=sparse.get(key);
+				if (v!=null) return v;
+			}
+			double v=tail(lastFound,last_b_found,iStart,jStart,prev_inc);
+			if (inTable) {
+				memo[(int)key]=v;
+				stamp[(int)key]=generation;
+			} else
+				sparse.put(key, v);
+			return v;
+		}
+		
+		private double tail(int lastFound, int last_b_found, int iStart, int jStart , double prev_inc) {
+			   double n=0; 		
+			   for (int i=iStart+1;i<aLen;i++) {
+				  for (int j=jStart+1;j<bLen;j++) {
+					 char ac=a.charAt(i), bc=b.charAt(j);
+		             boolean dsub=Character.isUpperCase(ac)||Character.isUpperCase(bc);
+		             if (dsub) {
+		            	ac=Character.toLowerCase(ac);
+		            	bc=Character.toLowerCase(bc);
+		             }
+					 boolean ok=ac==bc, flag=false;
+					 double correction=1;
+					 
+					 if (!(ok||dsub)) switch (substitution(ac,bc)) {
+					 case 1: correction=0.9; flag=true; break;
+					 case 2: correction=0.81; flag=true; break;
+					 }
+					 
+					 if (ok||flag) {
+					   double nTailWoSub=0;
+					   
+					   if (flag) {
+						 double  nTailWoSub1=skippingTail(lastFound,last_b_found,i-1,j,prev_inc); // skip j only
+						 double  nTailWoSub2=skippingTail(lastFound,last_b_found,i,last_b_found,prev_inc); // skip i
+						 nTailWoSub=Math.max(nTailWoSub1, nTailWoSub2);
+					   }
+						
+					   double inc=0;
+					   if ((i==0)&&(j==0)) inc=flag?1:1.8;
+					   else {
+						 if ((i==lastFound+1)&&(j==last_b_found+1)) { // seq
+							inc=prev_inc+(flag?0.3:1);
+						 } else 
+						   inc=1;
+					   }
+					   
+					   inc*=correction;
+					   
+					   lastFound=i;
+					   jStart=last_b_found=j;
+					   prev_inc=inc;
+					   
+					   if (flag) {
+					      double nTailWithSub=tail(lastFound,last_b_found,lastFound,last_b_found,prev_inc);
+					      return n+Math.max(nTailWithSub+inc,nTailWoSub);
+					   }
+					   
+					   n+=inc;
+					   break;
+			
+					 } else
+					   prev_inc=0;
+				  }
+			   }
+			   return n;
+		}
+		
+	}
 	
+	/**
+	 * An upper bound of likeness(a,b), cheap enough to skip the candidates which cannot reach
+	 * a threshold. Each char is matched once at most, so no more than m pairs match, m being
+	 * the smaller of the numbers of the chars of a and of b which have an equal or a substitutable
+	 * char in the other string, and the k-th match adds k+0.8 at most (a sequence adds one to
+	 * the previous increment).
+	 */
+	public static double likenessBound(CharSequence a, CharSequence b) {
+		int la=a.length(), lb=b.length();
+		if (la+lb==0) return 0;
+		int ma=0, mb=0;
+		for (int i=0;i<la;i++) for (int j=0;j<lb;j++)
+			if (Likeness00Engine.mayMatch(a.charAt(i), b.charAt(j))) {
+				++ma;
+				break;
+			}
+		for (int j=0;j<lb;j++) for (int i=0;i<la;i++)
+			if (Likeness00Engine.mayMatch(a.charAt(i), b.charAt(j))) {
+				++mb;
+				break;
+			}
+		int m=Math.min(ma, mb);
+		return 2*(m*(m+1)/2.+0.8*m)/(la+lb);
+	}
+
 	public static double likeness(CharSequence a, CharSequence b) {
 		   double l1=likeness00(a,b), l2=likeness00(b,a);
 		   return (l1+l2)/(double)(a.length()+b.length());
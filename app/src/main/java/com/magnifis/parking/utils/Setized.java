@@ -28,6 +28,18 @@ public class Setized extends AbstractSet<CharSequence> {
 	private CharSequence seqs[]=null;
 	private int hash=0;
 	
+	private Setized() {}
+	
+	// the tokens as they are, taken from a Setized before
+	public static Setized of(CharSequence seqs[]) {
+		Setized sz=new Setized();
+		if (seqs!=null&&seqs.length>0) {
+			sz.seqs=seqs;
+			for (CharSequence cs:seqs) sz.hash+=cs.hashCode();
+		}
+		return sz;
+	}
+	
 	public Setized(CharSequence cs) {
 		if (!Utils.isEmpty(cs)) {
 		  String s=cs.toString().trim();
@@ -55,7 +67,7 @@ public class Setized extends AbstractSet<CharSequence> {
 					 hash+=xx.hashCode();
 				 }
 			  }
-			  seqs=lst.toArray(new CharSequence[lst.size()]);
+			  if (!lst.isEmpty()) seqs=lst.toArray(new CharSequence[lst.size()]); // no tokens is null as in of()
 		  }
 		}
 	}
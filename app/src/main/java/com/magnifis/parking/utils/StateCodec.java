@@ -0,0 +1,397 @@
+package com.magnifis.parking.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.magnifis.parking.Xml.ML;
+import com.magnifis.parking.Xml.ML_alternatives;
+import com.robinlabs.utils.PerClass;
+
+/**
+ * A compact binary form of the models bound by Xml.setPropertiesFrom, which StateStore
+ * keeps instead of the Java serialization.
+ *
+ * A model is written by its @ML fields and is read back the way Xml.setPropertiesFrom
+ * builds it: the no-arg constructor, then those fields. So its other fields come back as
+ * the constructor leaves them, not as they were. Every value is tagged and every class is
+ * described once, by its name and the names of its fields, so a snapshot taken by another
+ * version of the application is read as far as the fields still match and the rest is skipped.
+ *
+ * An object met again is written as a reference to the first copy, so shared objects stay
+ * shared and loops are kept. What the codec does not take apart (classes without @ML fields,
+ * collections, classes with their own writeObject, classes without a no-arg constructor) is
+ * embedded serialized, the sharing inside of such a value is kept, between the values it is not.
+ */
+public class StateCodec {
+
+	public final static int MAGIC=0x52535302; // "RSS" and the version of the format
+	
+	// the version 1 wrote all the fields and had no references, it is read by the same decoder
+	private final static int MAGIC_V1=0x52535301;
+
+	private final static byte
+	  T_NULL=0, T_FALSE=1, T_TRUE=2, T_BYTE=3, T_SHORT=4, T_CHAR=5, T_INT=6, T_LONG=7,
+	  T_FLOAT=8, T_DOUBLE=9, T_STRING=10, T_DATE=11, T_BYTES=12, T_ENUM=13, T_ARRAY=14,
+	  T_OBJECT=15, T_SERIALIZED=16, T_REF=17;
+
+	// how the objects of a class are written, SERIALIZED if they are embedded serialized
+	private static class ClassPlan {
+		final Constructor<?> ctor;
+		final Field fields[];
+
+		ClassPlan(Constructor<?> ctor, Field fields[]) {
+			this.ctor=ctor;
+			this.fields=fields;
+		}
+	}
+
+	private final static ClassPlan SERIALIZED=new ClassPlan(null, null);
+
+	private final static PerClass<ClassPlan> plans=new PerClass<ClassPlan>() {
+		@Override
+		protected ClassPlan compute(Class<?> cls) {
+			try {
+				if (Externalizable.class.isAssignableFrom(cls)||cls.getName().startsWith("java."))
+					return SERIALIZED;
+				ArrayList<Field> fls=new ArrayList<Field>();
+				for (Class<?> c=cls;c!=null&&c!=Object.class;c=c.getSuperclass()) {
+					if (declares(c, "writeObject")||declares(c, "writeReplace")||declares(c, "readResolve"))
+						return SERIALIZED;
+					ArrayList<Field> own=new ArrayList<Field>();
+					for (Field fl:c.getDeclaredFields()) {
+						int m=fl.getModifiers();
+						if (Modifier.isStatic(m)||Modifier.isTransient(m)) continue;
+						if (!fl.isAnnotationPresent(ML.class)&&!fl.isAnnotationPresent(ML_alternatives.class)) continue;
+						fl.setAccessible(true);
+						own.add(fl);
+					}
+					fls.addAll(0, own); // the fields of the superclasses go first
+				}
+				if (fls.isEmpty()) return SERIALIZED; // not a model
+				Constructor<?> ctor=cls.getDeclaredConstructor();
+				ctor.setAccessible(true);
+				return new ClassPlan(ctor, fls.toArray(new Field[fls.size()]));
+			} catch (NoSuchMethodException e) {
+				return SERIALIZED;
+			}
+		}
+	};
+
+	private static boolean declares(Class<?> c, String method) {
+		for (java.lang.reflect.Method m:c.getDeclaredMethods())
+			if (m.getName().equals(method)&&!Modifier.isStatic(m.getModifiers())) return true;
+		return false;
+	}
+
+	public static byte[] encode(Object v) throws IOException {
+		ByteArrayOutputStream bos=new ByteArrayOutputStream(4096);
+		DataOutputStream out=new DataOutputStream(bos);
+		out.writeInt(MAGIC);
+		new Encoder(out).write(v);
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	public static boolean isEncoded(ByteBuffer bb) {
+		if (bb.remaining()<4) return false;
+		int magic=bb.getInt(bb.position());
+		return magic==MAGIC||magic==MAGIC_V1;
+	}
+
+	public static Object decode(ByteBuffer bb) throws IOException {
+		int magic=bb.getInt();
+		if (magic!=MAGIC&&magic!=MAGIC_V1) throw new IOException("not a state snapshot");
+		try {
+			return new Decoder(bb, magic==MAGIC_V1).read();
+		} catch (RuntimeException e) { // BufferUnderflowException & Co.
+			throw new IOException(e.toString());
+		}
+	}
+
+	private static class Encoder {
+		final DataOutputStream out;
+		final HashMap<Class<?>,Integer> classIds=new HashMap<Class<?>,Integer>();
+		final IdentityHashMap<Object,Integer> objectIds=new IdentityHashMap<Object,Integer>();
+
+		Encoder(DataOutputStream out) {
+			this.out=out;
+		}
+
+		void writeString(String s) throws IOException {
+			byte b[]=s.getBytes("UTF-8");
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		// a class is written by its name and the names of its fields the first time and by its number then,
+		// the fields are written even if it is met first as a component, its objects may follow 
+		void writeClass(Class<?> cls) throws IOException {
+			Integer id=classIds.get(cls);
+			if (id!=null) {
+				out.writeInt(id);
+				return;
+			}
+			classIds.put(cls, classIds.size());
+			out.writeInt(-1);
+			writeString(cls.getName());
+			ClassPlan plan=cls.isPrimitive()?null:plans.get(cls);
+			if (plan==null||plan.fields==null) 
+				out.writeInt(-1);
+			else {
+				out.writeInt(plan.fields.length);
+				for (Field fl:plan.fields) writeString(fl.getName());
+			}
+		}
+
+		void write(Object v) throws IOException {
+			if (v==null) {
+				out.writeByte(T_NULL);
+				return;
+			}
+			Class<?> cls=v.getClass();
+			if (cls==String.class) {
+				out.writeByte(T_STRING);
+				writeString((String)v);
+			} else if (cls==Boolean.class) {
+				out.writeByte((Boolean)v?T_TRUE:T_FALSE);
+			} else if (cls==Integer.class) {
+				out.writeByte(T_INT);
+				out.writeInt((Integer)v);
+			} else if (cls==Long.class) {
+				out.writeByte(T_LONG);
+				out.writeLong((Long)v);
+			} else if (cls==Double.class) {
+				out.writeByte(T_DOUBLE);
+				out.writeDouble((Double)v);
+			} else if (cls==Float.class) {
+				out.writeByte(T_FLOAT);
+				out.writeFloat((Float)v);
+			} else if (cls==Short.class) {
+				out.writeByte(T_SHORT);
+				out.writeShort((Short)v);
+			} else if (cls==Byte.class) {
+				out.writeByte(T_BYTE);
+				out.writeByte((Byte)v);
+			} else if (cls==Character.class) {
+				out.writeByte(T_CHAR);
+				out.writeChar((Character)v);
+			} else if (v instanceof Enum) {
+				out.writeByte(T_ENUM);
+				writeClass(((Enum<?>)v).getDeclaringClass());
+				writeString(((Enum<?>)v).name());
+			} else if (!isNew(v)) {
+				// written already
+			} else if (cls==Date.class) {
+				out.writeByte(T_DATE);
+				out.writeLong(((Date)v).getTime());
+			} else if (cls==byte[].class) {
+				byte b[]=(byte[])v;
+				out.writeByte(T_BYTES);
+				out.writeInt(b.length);
+				out.write(b);
+			} else if (cls.isArray()) {
+				int n=Array.getLength(v);
+				out.writeByte(T_ARRAY);
+				writeClass(cls.getComponentType());
+				out.writeInt(n);
+				for (int i=0;i<n;i++) write(Array.get(v, i));
+			} else {
+				ClassPlan plan=plans.get(cls);
+				if (plan==SERIALIZED) {
+					ByteArrayOutputStream bos=new ByteArrayOutputStream();
+					ObjectOutputStream oos=new ObjectOutputStream(bos);
+					oos.writeObject(v);
+					oos.close();
+					out.writeByte(T_SERIALIZED);
+					out.writeInt(bos.size());
+					bos.writeTo(out);
+					return;
+				}
+				out.writeByte(T_OBJECT);
+				writeClass(cls);
+				for (Field fl:plan.fields) try {
+					write(fl.get(v));
+				} catch (IllegalAccessException e) {
+					throw new IOException(e.toString());
+				}
+			}
+		}
+
+		// numbers a mutable object the first time, writes a reference to it then
+		boolean isNew(Object v) throws IOException {
+			Integer id=objectIds.get(v);
+			if (id==null) {
+				objectIds.put(v, objectIds.size());
+				return true;
+			}
+			out.writeByte(T_REF);
+			out.writeInt(id);
+			return false;
+		}
+	}
+
+	private static class Decoder {
+		final ByteBuffer in;
+		final List<ClassRef> classes=new ArrayList<ClassRef>();
+		final List<Object> objects=new ArrayList<Object>(); // in the order the encoder has numbered them
+		final ClassLoader loader=StateCodec.class.getClassLoader();
+
+		final boolean v1; // the fields were written only for the objects
+		
+		Decoder(ByteBuffer in, boolean v1) {
+			this.in=in;
+			this.v1=v1;
+		}
+
+		// a class of the snapshot: its local counterpart, null if there is none
+		class ClassRef {
+			final Class<?> cls;
+			final ClassPlan plan;
+			final Field fields[]; // the local fields in the order of the snapshot, null for the lost ones
+
+			ClassRef(Class<?> cls, String names[]) {
+				this.cls=cls;
+				plan=cls==null||names==null?null:plans.get(cls); // enums and components need no plan
+				fields=new Field[names==null?0:names.length];
+				if (plan!=null&&plan.fields!=null) for (int i=0;i<fields.length;i++)
+					for (Field fl:plan.fields) if (fl.getName().equals(names[i])) {
+						fields[i]=fl;
+						break;
+					}
+			}
+		}
+
+		String readString() throws IOException {
+			int n=in.getInt();
+			byte b[]=new byte[n];
+			in.get(b);
+			return new String(b, "UTF-8");
+		}
+
+		Class<?> forName(String name) {
+			if (name.equals("int")) return int.class;
+			if (name.equals("long")) return long.class;
+			if (name.equals("boolean")) return boolean.class;
+			if (name.equals("double")) return double.class;
+			if (name.equals("float")) return float.class;
+			if (name.equals("short")) return short.class;
+			if (name.equals("byte")) return byte.class;
+			if (name.equals("char")) return char.class;
+			try {
+				return Class.forName(name, false, loader);
+			} catch (ClassNotFoundException e) {
+				return null;
+			}
+		}
+
+		ClassRef readClass(boolean withFields) throws IOException {
+			int id=in.getInt();
+			if (id>=0) return classes.get(id);
+			Class<?> cls=forName(readString());
+			String names[]=null;
+			int n=v1?(withFields?in.getInt():-1):in.getInt();
+			if (n>=0) {
+				names=new String[n];
+				for (int i=0;i<n;i++) names[i]=readString();
+			}
+			ClassRef cr=new ClassRef(cls, names);
+			classes.add(cr);
+			return cr;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object read() throws IOException {
+			byte t=in.get();
+			switch (t) {
+			case T_NULL: return null;
+			case T_FALSE: return Boolean.FALSE;
+			case T_TRUE: return Boolean.TRUE;
+			case T_BYTE: return in.get();
+			case T_SHORT: return in.getShort();
+			case T_CHAR: return in.getChar();
+			case T_INT: return in.getInt();
+			case T_LONG: return in.getLong();
+			case T_FLOAT: return in.getFloat();
+			case T_DOUBLE: return in.getDouble();
+			case T_STRING: return readString();
+			case T_DATE: {
+				Date d=new Date(in.getLong());
+				objects.add(d);
+				return d;
+			}
+			case T_BYTES: {
+				byte b[]=new byte[in.getInt()];
+				in.get(b);
+				objects.add(b);
+				return b;
+			}
+			case T_REF: return objects.get(in.getInt());
+			case T_ENUM: {
+				ClassRef cr=readClass(false);
+				String name=readString();
+				try {
+					return cr.cls==null?null:Enum.valueOf((Class<Enum>)cr.cls, name);
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+			}
+			case T_ARRAY: {
+				ClassRef cr=readClass(false);
+				int n=in.getInt();
+				Object a=cr.cls==null?null:Array.newInstance(cr.cls, n);
+				objects.add(a);
+				for (int i=0;i<n;i++) {
+					Object v=read();
+					if (a!=null) try {
+						Array.set(a, i, v);
+					} catch (IllegalArgumentException e) {}
+				}
+				return a;
+			}
+			case T_OBJECT: {
+				ClassRef cr=readClass(true);
+				Object obj=null;
+				if (cr.plan!=null&&cr.plan.ctor!=null) try {
+					obj=cr.plan.ctor.newInstance();
+				} catch (Exception e) {}
+				objects.add(obj); // before the fields, they may refer to it
+				for (Field fl:cr.fields) {
+					Object v=read();
+					if (obj!=null&&fl!=null) try {
+						if (v!=null||!fl.getType().isPrimitive()) fl.set(obj, v);
+					} catch (Exception e) {} // the type of the field has changed
+				}
+				return obj;
+			}
+			case T_SERIALIZED: {
+				byte b[]=new byte[in.getInt()];
+				in.get(b);
+				Object v=null;
+				try {
+					ObjectInputStream ois=new ObjectInputStream(new ByteArrayInputStream(b));
+					v=ois.readObject();
+				} catch (ClassNotFoundException e) {}
+				objects.add(v);
+				return v;
+			}
+			}
+			throw new IOException("bad tag "+t);
+		}
+	}
+
+}
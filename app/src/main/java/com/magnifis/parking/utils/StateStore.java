@@ -2,38 +2,53 @@ package com.magnifis.parking.utils;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import com.magnifis.parking.App;
 import com.magnifis.parking.Log;
 
-import android.content.ContextWrapper;
-import android.os.Bundle;
-import android.os.Parcel;
-
+/**
+ * Keeps one value in a file of the application, as a StateCodec snapshot. A file written
+ * by the older versions (the Java serialization) is still read.
+ *
+ * The snapshot is written aside and renamed over the file, so a crash leaves either the old
+ * or the new one. The last value put or read is kept, get() returns it without reading
+ * the file again, so it should not be modified by the callers.
+ */
 public class StateStore<T extends Serializable> {
-	
+
 	final public static String TAG= StateStore.class.getSimpleName();
 
 	final private String fname;
-	
+
+	private T last=null;
+	private boolean loaded=false;
+
 	public StateStore(String name) {
 		this.fname=name+".serializable";
 	}
-	
+
+	@SuppressWarnings("unchecked")
 	public T get() {
 		File f=new File (App.self.getFilesDir(),fname);
 		synchronized(this) {
+		   if (loaded) return last;
            if (f.exists()) {
         	 try {
 				FileInputStream fis=new FileInputStream(f);
-				if (fis!=null) try {
-	               ObjectInputStream ois=new ObjectInputStream(fis);
-	               return (T)ois.readObject();
+				try {
+				   FileChannel fc=fis.getChannel();
+				   MappedByteBuffer bb=fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+				   if (StateCodec.isEncoded(bb))
+					  last=(T)StateCodec.decode(bb);
+				   else {
+					  byte b[]=new byte[bb.remaining()];
+					  bb.get(b);
+		              last=Utils.<T>bytes2obj(b);
+				   }
 				} finally {
 				  fis.close();
 				}
@@ -41,28 +56,42 @@ public class StateStore<T extends Serializable> {
 				e.printStackTrace();
 			 }
            }
+           loaded=true;
+           return last;
 		}
-		return null;
 	}
-	
+
 	public void put(T v) {
-	  File f=new File (App.self.getFilesDir(),fname);
+	  File dir=App.self.getFilesDir(), f=new File(dir,fname), tmp=new File(dir,fname+".tmp");
 	  synchronized(this) {
+		  last=v;
+		  loaded=true;
 		  try {
-			  if (f.exists()) f.delete();
-			  FileOutputStream ofs=new FileOutputStream(f);
-			  if (ofs!=null) try {
-				  ObjectOutputStream oos=new ObjectOutputStream(ofs);
-				  oos.writeObject(v);
-                  oos.flush();
+			  byte b[];
+			  try {
+				  b=StateCodec.encode(v);
+			  } catch (Throwable t) {
+				  // something neither the codec nor an embedded serialization can write
+				  Log.d(TAG, fname+": "+t);
+				  b=Utils.obj2bytes(v);
+			  }
+			  FileOutputStream ofs=new FileOutputStream(tmp);
+			  try {
+				  ofs.write(b);
+				  ofs.flush();
+				  ofs.getFD().sync();
 			  } finally {
-				ofs.flush();
 				ofs.close();
 			  }
+			  if (!tmp.renameTo(f)) {
+				  f.delete();
+				  if (!tmp.renameTo(f)) Log.e(TAG, "cannot rename "+tmp);
+			  }
 		  } catch (Throwable e) {
 			  e.printStackTrace();
+			  tmp.delete();
 		  }
 	  }
 	}
-	
+
 }
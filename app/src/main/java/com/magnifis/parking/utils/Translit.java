@@ -78,23 +78,37 @@ public class Translit {
 		tab, "t"
 	};
 	
-	private Translit() {}
-	
-	private String table[]=null;
-	
+	// the replacements of the chars base..base+map.length-1, null for the ones kept as they are
+	private final char base;
+	private final String map[];
+
+	private Translit(String table[]) {
+		// the first pair of a letter wins, the upper case letters get the upper cased replacements
+		int lo=Character.MAX_VALUE, hi=0;
+		for (int i=0;i<table.length;i+=2) {
+			char c=table[i].charAt(0), u=Character.toUpperCase(c);
+			lo=Math.min(lo, Math.min(c, u));
+			hi=Math.max(hi, Math.max(c, u));
+		}
+		base=(char)lo;
+		map=new String[hi-lo+1];
+		for (int i=0;i<map.length;i++) {
+			char c=(char)(lo+i), lc=Character.toLowerCase(c);
+			for (int j=0;j<table.length;j+=2) if (table[j].charAt(0)==lc) {
+				map[i]=Character.isUpperCase(c)?table[j+1].toUpperCase():table[j+1];
+				break;
+			}
+		}
+	}
+
 	public static Translit getHebRus() {
-		Translit t=new Translit();
-		t.table=table_hebrus;
-		return t;
+		return hebRus;
 	}
-	
+
 	public static Translit getHeb() {
-		Translit t=new Translit();
-		t.table=table_heb;
-		return t;
+		return heb;
 	}
-	
-	
+
 	final private static String table_heb[]={
 		alef, "e",
 		beth, "b",
@@ -131,31 +145,61 @@ public class Translit {
 	};
 	
  
+	// after the tables, which they are compiled from
+	private final static Translit hebRus=new Translit(table_hebrus), heb=new Translit(table_heb);
+
+    // the replacement of the char, null if it is kept
+    private String lookup(char c) {
+    	int i=c-base;
+    	return i>=0&&i<map.length?map[i]:null;
+    }
+
     public  String process(char c) {
-    	boolean uc=Character.isUpperCase(c);
-    	for (int i=0;i<table.length;i+=2)
-    	  if (table[i].charAt(0)==Character.toLowerCase(c)) {
-    		  String r=table[i+1];
-    		  if (uc) r=r.toUpperCase();
-    		  return r;
-    	  }
-    	return String.valueOf(c);
+    	String r=lookup(c);
+    	return r==null?String.valueOf(c):r;
+    }
+
+    /**
+     * appends the transliterated s to sb, which is returned
+     */
+    public  StringBuilder append(CharSequence s, StringBuilder sb) {
+    	return s==null?sb:append(s, 0, sb);
+    }
+
+    private StringBuilder append(CharSequence s, int from, StringBuilder sb) {
+    	for (int i=from, n=s.length();i<n;i++) {
+    		char c=s.charAt(i);
+    		String r=lookup(c);
+    		if (r==null) sb.append(c); else sb.append(r);
+    	}
+    	return sb;
     }
-    
+
+    // the index of the first char which is replaced, -1 if none
+    private int firstMapped(CharSequence s) {
+    	for (int i=0, n=s.length();i<n;i++) if (lookup(s.charAt(i))!=null) return i;
+    	return -1;
+    }
+
+    /**
+     * s itself if nothing is to be replaced in it
+     */
     public  CharSequence process(CharSequence s) {
     	if (!Utils.isEmpty(s)) {
-    	   StringBuilder sb=new StringBuilder();  
-    	   for (int i=0;i<s.length();i++) sb.append(process(s.charAt(i)));
-    	   return sb;
+    	   int k=firstMapped(s);
+    	   if (k<0) return s;
+    	   StringBuilder sb=new StringBuilder(s.length()+8).append(s, 0, k);
+    	   return append(s, k, sb);
     	}
     	return s;
     }
 
     public  String process(String s) {
     	if (!Utils.isEmpty(s)) {
-     	   StringBuilder sb=new StringBuilder();  
-     	   for (int i=0;i<s.length();i++) sb.append(process(s.charAt(i)));
-     	   return sb.toString();
+    	   int k=firstMapped(s);
+    	   if (k<0) return s;
+     	   StringBuilder sb=new StringBuilder(s.length()+8).append(s, 0, k);
+     	   return append(s, k, sb).toString();
     	}
     	return s;
     }
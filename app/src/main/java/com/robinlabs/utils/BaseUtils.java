@@ -22,8 +22,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -420,15 +422,34 @@ public class BaseUtils {
 	
 
 	
+	// annotation class -> the annotated fields, per model class
+	private final static PerClass<Map<Class,List<Field>>> annotatedFields=new PerClass<Map<Class,List<Field>>>() {
+		@Override
+		protected Map<Class,List<Field>> compute(Class<?> cls) {
+			return new HashMap<Class,List<Field>>();
+		}
+	};
+	
+	/**
+	 * The lists are cached and shared, so they are read only and their fields 
+	 * are always made accessible
+	 */
 	public static List<Field> getAnnotatedFields(Class cls, Class ancls, boolean makeThemAccessible) {
-		List<Class> clss=getSuperClasses(cls);
-		ArrayList<Field> flds=new ArrayList<Field>();
-		for (Class c:clss) for (Field f:c.getDeclaredFields()) 
-		  if (f.getAnnotation(ancls)!=null)  {
-			  if (makeThemAccessible) f.setAccessible(true);
-			  flds.add(f);
-		  }
-		return flds;
+		Map<Class,List<Field>> byAnnotation=annotatedFields.get(cls);
+		synchronized(byAnnotation) {
+			List<Field> flds=byAnnotation.get(ancls);
+			if (flds==null) {
+				ArrayList<Field> lst=new ArrayList<Field>();
+				for (Class c:getSuperClasses(cls)) for (Field f:c.getDeclaredFields()) 
+				  if (f.getAnnotation(ancls)!=null)  {
+					  f.setAccessible(true);
+					  lst.add(f);
+				  }
+				flds=Collections.unmodifiableList(lst);
+				byAnnotation.put(ancls, flds);
+			}
+			return flds;
+		}
 	} 
 	
 	
@@ -0,0 +1,27 @@
+package com.robinlabs.utils;
+
+import java.util.HashMap;
+
+/**
+ * A value computed once per class, what java.lang.ClassValue does on the desktop.
+ * The value is shared by all the threads, so it must not be modified after compute().
+ * The classes are held strongly, fine for the model classes of the application.
+ */
+public abstract class PerClass<V> {
+	
+	private final HashMap<Class<?>,V> values=new HashMap<Class<?>,V>();
+	
+	protected abstract V compute(Class<?> cls);
+	
+	public V get(Class<?> cls) {
+		synchronized(values) {
+			V v=values.get(cls);
+			if (v==null) {
+				v=compute(cls);
+				values.put(cls, v);
+			}
+			return v;
+		}
+	}
+
+}